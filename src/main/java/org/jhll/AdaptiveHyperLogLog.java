@@ -0,0 +1,293 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumInput;
+import org.jhll.util.ChecksumOutput;
+
+import java.io.IOException;
+
+/**
+ * Starts as an {@link ExplicitHyperLogLog} and promotes itself to a {@link SparseHyperLogLog} and
+ * then to a {@link ClassicHyperLogLog} as soon as the current representation would serialize to
+ * more bytes than the dense one, so memory stays bounded by {@link
+ * ClassicHyperLogLog#requiredBytes(int, int)}.
+ *
+ * @param <T>
+ */
+public final class AdaptiveHyperLogLog<T> implements HyperLogLog<T> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  private final int denseBytes;
+  private HyperLogLog<T> delegate;
+
+  /**
+   * @param funnel calc hash
+   * @param log2m log2m of the promoted sketch, see {@link
+   *     ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param registerWidth registerWidth of the promoted sketch, see {@link
+   *     ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param hashStrategy see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int,
+   *     HashStrategy)}
+   */
+  public AdaptiveHyperLogLog(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    this(
+        funnel,
+        log2m,
+        registerWidth,
+        new ExplicitHyperLogLog<>(funnel, INITIAL_CAPACITY, hashStrategy));
+  }
+
+  public AdaptiveHyperLogLog(Funnel<? super T> funnel, int log2m, int registerWidth) {
+    this(funnel, log2m, registerWidth, HashStrategy.defaultStrategy());
+  }
+
+  public AdaptiveHyperLogLog(Funnel<? super T> funnel) {
+    this(funnel, 11, 5);
+  }
+
+  private AdaptiveHyperLogLog(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HyperLogLog<T> delegate) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+    this.funnel = funnel;
+    this.hashStrategy = delegate.hashStrategy();
+    this.log2m = log2m;
+    this.registerWidth = registerWidth;
+    this.denseBytes = ClassicHyperLogLog.requiredBytes(log2m, registerWidth);
+    this.delegate = delegate;
+    promoteIfNecessary();
+  }
+
+  /**
+   * Reads any of the representations an {@link AdaptiveHyperLogLog} may serialize to, {@code
+   * log2m} and {@code registerWidth} must match the ones of a sparse or dense input.
+   */
+  public static <U> AdaptiveHyperLogLog<U> fromByteArray(
+      byte[] bytes, Funnel<? super U> funnel, int log2m, int registerWidth) {
+    Preconditions.checkNotNull(bytes, "null bytes");
+    Preconditions.checkArgument(bytes.length > 0, "empty bytes");
+    HyperLogLog<U> delegate;
+    switch (bytes[0]) {
+      case ExplicitHyperLogLog.MARK:
+      case ExplicitHyperLogLog.LEGACY_MARK:
+      case ExplicitHyperLogLog.COMPACT_MARK:
+        delegate = ExplicitHyperLogLog.fromByteArray(bytes, funnel);
+        break;
+      case SparseHyperLogLog.MARK:
+      case SparseHyperLogLog.LEGACY_MARK:
+        SparseHyperLogLog<U> sparse = SparseHyperLogLog.fromByteArray(bytes, funnel);
+        checkConfig(log2m, registerWidth, sparse.log2m(), sparse.registerWidth());
+        delegate = sparse;
+        break;
+      case ClassicHyperLogLog.MARK:
+      case ClassicHyperLogLog.LEGACY_MARK:
+      case ClassicHyperLogLog.COMPRESSED_MARK:
+        ClassicHyperLogLog<U> classic = ClassicHyperLogLog.fromByteArray(bytes, funnel);
+        checkConfig(log2m, registerWidth, classic.log2m(), classic.registerWidth());
+        delegate = classic;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown mark: " + bytes[0]);
+    }
+    return new AdaptiveHyperLogLog<>(funnel, log2m, registerWidth, delegate);
+  }
+
+  /**
+   * Streaming version of {@link #fromByteArray(byte[], Funnel, int, int)}, reads exactly the bytes
+   * written by {@link #writeTo(ChecksumOutput)}.
+   */
+  public static <U> AdaptiveHyperLogLog<U> readFrom(
+      ChecksumInput in, Funnel<? super U> funnel, int log2m, int registerWidth)
+      throws IOException {
+    Preconditions.checkNotNull(in, "null input");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    HyperLogLog<U> delegate;
+    byte mark = in.readByte();
+    switch (mark) {
+      case ExplicitHyperLogLog.MARK:
+      case ExplicitHyperLogLog.LEGACY_MARK:
+        delegate = ExplicitHyperLogLog.readBody(in, funnel, mark);
+        break;
+      case ExplicitHyperLogLog.COMPACT_MARK:
+        delegate = ExplicitHyperLogLog.readCompactBody(in, funnel);
+        break;
+      case SparseHyperLogLog.MARK:
+      case SparseHyperLogLog.LEGACY_MARK:
+        SparseHyperLogLog<U> sparse = SparseHyperLogLog.readBody(in, funnel, mark);
+        checkConfig(log2m, registerWidth, sparse.log2m(), sparse.registerWidth());
+        delegate = sparse;
+        break;
+      case ClassicHyperLogLog.MARK:
+      case ClassicHyperLogLog.LEGACY_MARK:
+        ClassicHyperLogLog<U> classic = ClassicHyperLogLog.readBody(in, funnel, mark);
+        checkConfig(log2m, registerWidth, classic.log2m(), classic.registerWidth());
+        delegate = classic;
+        break;
+      case ClassicHyperLogLog.COMPRESSED_MARK:
+        ClassicHyperLogLog<U> compressed = ClassicHyperLogLog.readCompressedBody(in, funnel, null);
+        checkConfig(log2m, registerWidth, compressed.log2m(), compressed.registerWidth());
+        delegate = compressed;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown mark: " + mark);
+    }
+    return new AdaptiveHyperLogLog<>(funnel, log2m, registerWidth, delegate);
+  }
+
+  private static void checkConfig(
+      int log2m, int registerWidth, int actualLog2m, int actualRegisterWidth) {
+    Preconditions.checkArgument(
+        log2m == actualLog2m && registerWidth == actualRegisterWidth,
+        "log2m/registerWidth not match, expected: %s/%s, actual: %s/%s",
+        log2m,
+        registerWidth,
+        actualLog2m,
+        actualRegisterWidth);
+  }
+
+  HyperLogLog<T> delegate() {
+    return delegate;
+  }
+
+  private void promoteIfNecessary() {
+    if (delegate instanceof ExplicitHyperLogLog) {
+      ExplicitHyperLogLog<T> explicit = (ExplicitHyperLogLog<T>) delegate;
+      if (explicit.serializedSize() <= denseBytes) {
+        return;
+      }
+      SparseHyperLogLog<T> sparse =
+          new SparseHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+      explicit.forEachValue(sparse::putX);
+      delegate = sparse;
+    }
+    if (delegate instanceof SparseHyperLogLog) {
+      SparseHyperLogLog<T> sparse = (SparseHyperLogLog<T>) delegate;
+      if (sparse.compactSize() <= denseBytes) {
+        return;
+      }
+      ClassicHyperLogLog<T> classic =
+          new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+      sparse.forEachRegister(classic::mergeRegister);
+      delegate = classic;
+    }
+  }
+
+  @Override
+  public void put(T value) {
+    delegate.put(value);
+    promoteIfNecessary();
+  }
+
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    delegate.putHash(hash);
+    promoteIfNecessary();
+  }
+
+  @Override
+  public long estimatedCardinality() {
+    return delegate.estimatedCardinality();
+  }
+
+  @Override
+  public int serializedSize() {
+    return delegate.serializedSize();
+  }
+
+  @Override
+  public double relativeError() {
+    return delegate.relativeError();
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    return delegate.toByteArray();
+  }
+
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    delegate.writeTo(out);
+  }
+
+  @Override
+  public HyperLogLog<T> union(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    HyperLogLog<T> that = unwrapChecked(other);
+    return new AdaptiveHyperLogLog<>(funnel, log2m, registerWidth, delegate.union(that));
+  }
+
+  /** Always merges in place, promoting the representation as needed. */
+  @Override
+  public HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    HyperLogLog<T> that = unwrapChecked(other);
+    delegate = delegate.mergeFrom(that);
+    promoteIfNecessary();
+    return this;
+  }
+
+  /**
+   * Unwraps {@code other} to the sketch it holds and rejects it unless its log2m and register width
+   * match ours, so a merge can't silently adopt another configuration. Explicit sketches pass as
+   * their values can always be replayed.
+   */
+  private HyperLogLog<T> unwrapChecked(HyperLogLog<T> other) {
+    HyperLogLog<T> that = other;
+    if (that instanceof AdaptiveHyperLogLog) {
+      that = ((AdaptiveHyperLogLog<T>) that).delegate;
+    } else if (that instanceof ConcurrentHyperLogLog) {
+      that = ((ConcurrentHyperLogLog<T>) that).toClassic();
+    } else if (that instanceof StripedHyperLogLog) {
+      that = ((StripedHyperLogLog<T>) that).toClassic();
+    } else if (that instanceof SlidingWindowHyperLogLog) {
+      that = ((SlidingWindowHyperLogLog<T>) that).toClassic();
+    }
+    if (that instanceof SparseHyperLogLog) {
+      SparseHyperLogLog<T> sparse = (SparseHyperLogLog<T>) that;
+      checkConfig(log2m, registerWidth, sparse.log2m(), sparse.registerWidth());
+    } else if (that instanceof ClassicHyperLogLog) {
+      ClassicHyperLogLog<T> classic = (ClassicHyperLogLog<T>) that;
+      checkConfig(log2m, registerWidth, classic.log2m(), classic.registerWidth());
+    } else if (that instanceof ClassicHyperLogLogView) {
+      ClassicHyperLogLogView<T> view = (ClassicHyperLogLogView<T>) that;
+      checkConfig(log2m, registerWidth, view.log2m(), view.registerWidth());
+    }
+    return that;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    AdaptiveHyperLogLog<?> that = (AdaptiveHyperLogLog<?>) o;
+    return delegate.equals(that.delegate);
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public void reset() {
+    delegate = new ExplicitHyperLogLog<>(funnel, INITIAL_CAPACITY, hashStrategy);
+  }
+}
@@ -2,10 +2,21 @@ package org.jhll;
 
 import com.google.common.base.Preconditions;
 import com.google.common.hash.Funnel;
-import com.google.common.hash.Hashing;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.Align6UIntArray;
 import org.jhll.util.Align8UIntArray;
+import org.jhll.util.ByteBufferAllocator;
+import org.jhll.util.ChecksumInput;
+import org.jhll.util.ChecksumOutput;
+import org.jhll.util.DirectAlign8UIntArray;
+import org.jhll.util.HuffmanCode;
+import org.jhll.util.UIntArray;
 import org.jhll.util.Utils;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Objects;
 
 /**
@@ -14,14 +25,38 @@ import java.util.Objects;
  * @param <T>
  */
 @SuppressWarnings("UnstableApiUsage")
-public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
+public final class ClassicHyperLogLog<T> implements HyperLogLog<T>, Closeable {
 
-  static final byte MARK = (byte) 0xc7;
+  static final byte MARK = (byte) 0xc8;
+  /**
+   * Dense registers as written before hash strategies existed, without the strategy byte: read as
+   * {@link HashStrategy#murmur3()}, the hash of that time.
+   */
+  static final byte LEGACY_MARK = (byte) 0xc7;
+  /** Huffman coded registers of {@link #toCompressedByteArray()}. */
+  static final byte COMPRESSED_MARK = (byte) 0xc6;
+  /** Raised registers of {@link #toDeltaByteArray()}. */
+  static final byte DELTA_MARK = (byte) 0xc5;
+
+  /** Registers decoded at a time by full scans, divides every number of registers. */
+  static final int REGISTER_BATCH = 512;
 
   private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
   private final int log2m;
   private final int registerWidth;
-  private final Align8UIntArray registers;
+  private final ByteBufferAllocator allocator;
+  private final UIntArray registers;
+
+  /**
+   * Number of registers holding each value, kept up to date by {@link #putX(long)} so an estimate
+   * costs O(2^registerWidth) instead of O(m). {@code null} after registers were written in bulk,
+   * the next estimate recounts them.
+   */
+  private int[] histogram;
+
+  /** Registers raised since {@link #markClean()}, {@code null} while not tracked. */
+  private BitSet dirty;
 
   /**
    * @param funnel calc hash
@@ -47,9 +82,21 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
    * 16	4.7e+04   8KB	1.9e+05   16KB	3.0e+06   24KB	7.7e+08   32KB	5.1e+13   40KB	2.2e+23   48KB
    * 17	9.5e+04   16KB	3.8e+05   32KB	6.0e+06   48KB	1.5e+09   64KB	1.0e+14   80KB	4.4e+23   96KB
    * </pre>
+   *
+   * @param hashStrategy hashes values to 64 bits, sketches built with different strategies can not
+   *     be merged
+   * @param allocator provides off-heap memory for the registers, {@code null} keeps them on-heap.
+   *     Off-heap sketches should be {@link #close() closed}, sketches derived from them, e.g. by
+   *     {@link #union(HyperLogLog)}, use the same allocator
    */
-  public ClassicHyperLogLog(Funnel<? super T> funnel, int log2m, int registerWidth) {
+  public ClassicHyperLogLog(
+      Funnel<? super T> funnel,
+      int log2m,
+      int registerWidth,
+      HashStrategy hashStrategy,
+      ByteBufferAllocator allocator) {
     Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
     Preconditions.checkArgument(
         log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
     Preconditions.checkArgument(
@@ -57,10 +104,25 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
         "illegal registerWidth(should be within [1, 8]): %s",
         registerWidth);
     this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
     this.log2m = log2m;
     this.registerWidth = registerWidth;
+    this.allocator = allocator;
     int m = 1 << log2m;
-    this.registers = new Align8UIntArray(m, registerWidth);
+    this.registers =
+        allocator == null
+            ? heapRegisters(m, registerWidth)
+            : new DirectAlign8UIntArray(m, registerWidth, allocator);
+    this.histogram = emptyHistogram(m, registerWidth);
+  }
+
+  public ClassicHyperLogLog(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    this(funnel, log2m, registerWidth, hashStrategy, null);
+  }
+
+  public ClassicHyperLogLog(Funnel<? super T> funnel, int log2m, int registerWidth) {
+    this(funnel, log2m, registerWidth, HashStrategy.defaultStrategy());
   }
 
   public ClassicHyperLogLog(Funnel<? super T> funnel) {
@@ -68,7 +130,7 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
   }
 
   static int requiredBytes(int log2m, int registerWidth) {
-    return Align8UIntArray.requiredBytes(1 << log2m, registerWidth) + 3;
+    return Align8UIntArray.requiredBytes(1 << log2m, registerWidth) + 4;
   }
 
   private static double alpha(int m) {
@@ -88,7 +150,7 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
     return m * Math.log(m / v);
   }
 
-  private static double fastPowerOf2(int x) {
+  static double fastPowerOf2(int x) {
     return (1L << x);
   }
 
@@ -96,81 +158,250 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
     return Math.round(d);
   }
 
-  private static byte makePrefix(int log2m, int w) {
+  /** Width 6 has a layout of its own, with the same bytes. */
+  private static UIntArray heapRegisters(int m, int registerWidth) {
+    return registerWidth == 6 ? new Align6UIntArray(m) : new Align8UIntArray(m, registerWidth);
+  }
+
+  private static int[] emptyHistogram(int m, int registerWidth) {
+    int[] histogram = new int[1 << registerWidth];
+    histogram[0] = m;
+    return histogram;
+  }
+
+  static byte makePrefix(int log2m, int w) {
     assert log2m >= 4 && log2m <= 31;
     assert w >= 1 && w <= 8;
     int n = log2m << 3;
-    n |= w;
+    n |= (w & 0b111);
     return (byte) (n & 0xff);
   }
 
+  static int log2mOf(byte prefix) {
+    return (prefix & 0xff) >>> 3;
+  }
+
+  static int registerWidthOf(byte prefix) {
+    int w = prefix & 0b111;
+    return w == 0 ? 8 : w;
+  }
+
+  static long estimate(int m, double x, int v) {
+    double e = alpha(m) * m * m / x;
+    if (e <= m * 2.5) {
+      if (v == 0) {
+        return round(e);
+      } else {
+        return round(linearCounting(m, v));
+      }
+    }
+    double p32 = fastPowerOf2(32);
+    if (e <= p32 / 30D) {
+      return round(e);
+    }
+
+    return round(-p32 * Math.log(1 - e / p32));
+  }
+
+  static int rho(long w, int registerWidth) {
+    return (Long.numberOfLeadingZeros(w) + 1) & Utils.mask32(registerWidth);
+  }
+
   public static <U> ClassicHyperLogLog<U> fromByteArray(byte[] bytes, Funnel<? super U> funnel) {
+    return fromByteArray(bytes, funnel, (ByteBufferAllocator) null);
+  }
+
+  /**
+   * Like {@link #fromByteArray(byte[], Funnel)}, with the registers in memory of {@code allocator},
+   * see {@link #ClassicHyperLogLog(Funnel, int, int, HashStrategy, ByteBufferAllocator)}.
+   */
+  public static <U> ClassicHyperLogLog<U> fromByteArray(
+      byte[] bytes, Funnel<? super U> funnel, ByteBufferAllocator allocator) {
     Preconditions.checkNotNull(bytes, "null bytes");
     Preconditions.checkNotNull(funnel, "null funnel");
-    Preconditions.checkArgument(bytes.length > 3, "bytes length is at least 3: %s", bytes.length);
+    Preconditions.checkArgument(bytes.length > 4, "bytes length is at least 4: %s", bytes.length);
+    if (bytes[0] == COMPRESSED_MARK) {
+      return fromCompressedByteArray(bytes, funnel, allocator);
+    }
+    boolean legacy = bytes[0] == LEGACY_MARK;
     Preconditions.checkArgument(
-        bytes[0] == MARK, "first byte should be: %s, but: %s", MARK, bytes[0]);
+        legacy || bytes[0] == MARK, "first byte should be: %s, but: %s", MARK, bytes[0]);
     byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
     Preconditions.checkArgument(
         checksum == bytes[bytes.length - 1],
         "checksum not match, expected: %s, actual: %s",
         checksum,
         bytes[bytes.length - 1]);
-    byte prefix = bytes[1];
-    int log2m = (prefix >>> 3) & 0xff;
-    int registerWidth = prefix & 0b111;
-    ClassicHyperLogLog<U> hyperLogLog = new ClassicHyperLogLog<>(funnel, log2m, registerWidth);
-    hyperLogLog.registers.setWords(bytes, 2);
+    HashStrategy hashStrategy = legacy ? HashStrategy.murmur3() : HashStrategy.fromId(bytes[1]);
+    // the registers follow the mark, the strategy if any and the prefix
+    int header = legacy ? 2 : 3;
+    byte prefix = bytes[header - 1];
+    int log2m = log2mOf(prefix);
+    int registerWidth = registerWidthOf(prefix);
+    int required = requiredBytes(log2m, registerWidth) - 3 + header;
+    Preconditions.checkArgument(
+        bytes.length == required, "bytes length should be: %s, but: %s", required, bytes.length);
+    ClassicHyperLogLog<U> hyperLogLog =
+        new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy, allocator);
+    hyperLogLog.registers.setWords(bytes, header);
+    hyperLogLog.histogram = null;
     return hyperLogLog;
   }
 
-  private int rho(long w) {
-    return (Long.numberOfLeadingZeros(w) + 1) & Utils.mask32(registerWidth);
+  private static <U> ClassicHyperLogLog<U> fromCompressedByteArray(
+      byte[] bytes, Funnel<? super U> funnel, ByteBufferAllocator allocator) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    ChecksumInput in = ChecksumInput.of(buffer);
+    ClassicHyperLogLog<U> hyperLogLog;
+    try {
+      in.readByte();
+      hyperLogLog = readCompressedBody(in, funnel, allocator);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("truncated bytes", e);
+    }
+    Preconditions.checkArgument(
+        !buffer.hasRemaining(),
+        "bytes length should be: %s, but: %s",
+        bytes.length - buffer.remaining(),
+        bytes.length);
+    return hyperLogLog;
+  }
+
+  /**
+   * Streaming version of {@link #fromByteArray(byte[], Funnel)}, reads exactly the bytes written by
+   * {@link #writeTo(ChecksumOutput)} or {@link #writeCompressedTo(ChecksumOutput)}, or by {@link
+   * #toByteArray()} before hash strategies existed.
+   */
+  public static <U> ClassicHyperLogLog<U> readFrom(ChecksumInput in, Funnel<? super U> funnel)
+      throws IOException {
+    Preconditions.checkNotNull(in, "null input");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    byte mark = in.readByte();
+    if (mark == COMPRESSED_MARK) {
+      return readCompressedBody(in, funnel, null);
+    }
+    Preconditions.checkArgument(
+        mark == MARK || mark == LEGACY_MARK, "first byte should be: %s, but: %s", MARK, mark);
+    return readBody(in, funnel, mark);
+  }
+
+  /** Reads what follows the {@link #COMPRESSED_MARK}. */
+  static <U> ClassicHyperLogLog<U> readCompressedBody(
+      ChecksumInput in, Funnel<? super U> funnel, ByteBufferAllocator allocator)
+      throws IOException {
+    HashStrategy hashStrategy = HashStrategy.fromId(in.readByte());
+    byte prefix = in.readByte();
+    ClassicHyperLogLog<U> hyperLogLog =
+        new ClassicHyperLogLog<>(
+            funnel, log2mOf(prefix), registerWidthOf(prefix), hashStrategy, allocator);
+    hyperLogLog.mergeCompressedRegisters(in, registerWidthOf(prefix));
+    in.verifyChecksum();
+    return hyperLogLog;
+  }
+
+  /** Reads what follows {@code mark}, the {@link #MARK} or the {@link #LEGACY_MARK}. */
+  static <U> ClassicHyperLogLog<U> readBody(
+      ChecksumInput in, Funnel<? super U> funnel, byte mark) throws IOException {
+    HashStrategy hashStrategy =
+        mark == LEGACY_MARK ? HashStrategy.murmur3() : HashStrategy.fromId(in.readByte());
+    byte prefix = in.readByte();
+    ClassicHyperLogLog<U> hyperLogLog =
+        new ClassicHyperLogLog<>(funnel, log2mOf(prefix), registerWidthOf(prefix), hashStrategy);
+    hyperLogLog.registers.readWords(in);
+    hyperLogLog.histogram = null;
+    in.verifyChecksum();
+    return hyperLogLog;
+  }
+
+  /** Like {@link #fromByteArray(byte[], Funnel)}, but refuses sketches of another hash strategy. */
+  public static <U> ClassicHyperLogLog<U> fromByteArray(
+      byte[] bytes, Funnel<? super U> funnel, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    ClassicHyperLogLog<U> hyperLogLog = fromByteArray(bytes, funnel);
+    Preconditions.checkArgument(
+        hyperLogLog.hashStrategy == hashStrategy,
+        "hash strategy not match, expected: %s, actual: %s",
+        hashStrategy,
+        hyperLogLog.hashStrategy);
+    return hyperLogLog;
+  }
+
+  int log2m() {
+    return log2m;
+  }
+
+  int registerWidth() {
+    return registerWidth;
   }
 
   @Override
   public void put(T value) {
-    long x = value != null ? Hashing.murmur3_128().hashObject(value, funnel).asLong() : 0L;
+    long x = value != null ? hashStrategy.hashObject(value, funnel) : 0L;
     putX(x);
   }
 
-  private void putX(long x) {
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    putX(hash);
+  }
+
+  @Override
+  public void putAll(long[] hashes, int offset, int length) {
+    Preconditions.checkNotNull(hashes, "null hashes");
+    Preconditions.checkPositionIndexes(offset, offset + length, hashes.length);
+    for (int i = offset, end = offset + length; i < end; ++i) {
+      putX(hashes[i]);
+    }
+  }
+
+  @Override
+  public void putAllLongs(long[] values, int offset, int length) {
+    Preconditions.checkNotNull(values, "null values");
+    Preconditions.checkPositionIndexes(offset, offset + length, values.length);
+    for (int i = offset, end = offset + length; i < end; ++i) {
+      putX(hashStrategy.hashLong(values[i]));
+    }
+  }
+
+  void putX(long x) {
     int idx = (int) (x >>> (Long.SIZE - log2m)); // First p bits of x
     long w = x << log2m;
+    int v = rho(w, registerWidth);
+    // idx < 2^log2m and rho fits registerWidth by construction
+    int previous = registers.getAndSetMaxUnchecked(idx, v);
+    if (v > previous) {
+      if (histogram != null) {
+        --histogram[previous];
+        ++histogram[v];
+      }
+      if (dirty != null) {
+        dirty.set(idx);
+      }
+    }
+  }
 
-    int v = registers.get(idx);
-    int v1 = rho(w);
-    if (v1 > v) {
-      registers.set(idx, v1);
+  private int[] histogram() {
+    if (histogram == null) {
+      histogram = registers.histogram();
     }
+    return histogram;
   }
 
   @Override
   public long estimatedCardinality() {
-    int m = registers.length();
+    int[] h = histogram();
     double x = 0;
-    int v = 0;
-    for (int i = 0; i < m; ++i) {
-      int s = registers.get(i);
-      x += 1D / fastPowerOf2(s);
-      if (s == 0) {
-        ++v;
+    for (int s = 0; s < h.length; ++s) {
+      if (h[s] != 0) {
+        x += h[s] / fastPowerOf2(s);
       }
     }
-    double e = alpha(m) * m * m / x;
-    if (e <= m * 2.5) {
-      if (v == 0) {
-        return round(e);
-      } else {
-        return round(linearCounting(m, v));
-      }
-    }
-    double p32 = fastPowerOf2(32);
-    if (e <= p32 / 30D) {
-      return round(e);
-    }
-
-    return round(-p32 * Math.log(1 - e / p32));
+    return estimate(registers.length(), x, h[0]);
   }
 
   @Override
@@ -180,16 +411,309 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
 
   @Override
   public byte[] toByteArray() {
-    byte[] raw = registers.getWords(false);
-    byte[] bytes = new byte[raw.length + 3];
+    byte[] bytes = new byte[registers.sizeInBytes() + 4];
     bytes[0] = MARK;
-    bytes[1] = makePrefix(log2m, registerWidth);
-    System.arraycopy(raw, 0, bytes, 2, raw.length);
+    bytes[1] = hashStrategy.id();
+    bytes[2] = makePrefix(log2m, registerWidth);
+    registers.getWords(bytes, 3);
     byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
     bytes[bytes.length - 1] = checksum;
     return bytes;
   }
 
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    out.writeByte(MARK);
+    out.writeByte(hashStrategy.id());
+    out.writeByte(makePrefix(log2m, registerWidth));
+    registers.writeWords(out);
+    out.writeChecksum();
+  }
+
+  /**
+   * An alternative of {@link #toByteArray()} under {@link #COMPRESSED_MARK}: the registers are
+   * Huffman coded by their histogram, which costs about the entropy of the register values
+   * instead of {@code registerWidth} bits each. Most registers are close to {@code log2(n/m)}, so
+   * that is often around half the size. {@link #fromByteArray(byte[], Funnel)} reads both.
+   */
+  public byte[] toCompressedByteArray() {
+    long[] frequencies = registerFrequencies();
+    HuffmanCode code = HuffmanCode.fromFrequencies(frequencies);
+    long size = compressedSize(frequencies, code);
+    Preconditions.checkState(size <= Integer.MAX_VALUE - 8, "too large: %s", size);
+    byte[] bytes = new byte[(int) size];
+    try {
+      writeCompressed(ChecksumOutput.of(ByteBuffer.wrap(bytes)), frequencies, code);
+    } catch (IOException e) {
+      throw new AssertionError(e); // buffers do not throw
+    }
+    return bytes;
+  }
+
+  /** Number of bytes of {@link #toCompressedByteArray()}. */
+  public long compressedSize() {
+    long[] frequencies = registerFrequencies();
+    return compressedSize(frequencies, HuffmanCode.fromFrequencies(frequencies));
+  }
+
+  /** Streaming version of {@link #toCompressedByteArray()}. */
+  public void writeCompressedTo(ChecksumOutput out) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    long[] frequencies = registerFrequencies();
+    writeCompressed(out, frequencies, HuffmanCode.fromFrequencies(frequencies));
+  }
+
+  private long[] registerFrequencies() {
+    int[] h = histogram();
+    long[] frequencies = new long[h.length];
+    for (int s = 0; s < h.length; ++s) {
+      frequencies[s] = h[s];
+    }
+    return frequencies;
+  }
+
+  private static long compressedSize(long[] frequencies, HuffmanCode code) {
+    int symbols = 0;
+    for (long frequency : frequencies) {
+      if (frequency > 0) {
+        ++symbols;
+      }
+    }
+    // mark, strategy, prefix, symbol count, (symbol, length) pairs, bits length, bits, checksum
+    return 4 + 2 * symbols + 4 + ((code.encodedBits(frequencies) + 7) >>> 3) + 1;
+  }
+
+  private void writeCompressed(ChecksumOutput out, long[] frequencies, HuffmanCode code)
+      throws IOException {
+    out.writeByte(COMPRESSED_MARK);
+    out.writeByte(hashStrategy.id());
+    out.writeByte(makePrefix(log2m, registerWidth));
+    int symbols = 0;
+    for (long frequency : frequencies) {
+      if (frequency > 0) {
+        ++symbols;
+      }
+    }
+    out.writeByte(symbols - 1);
+    for (int s = 0; s < frequencies.length; ++s) {
+      if (frequencies[s] > 0) {
+        out.writeByte(s);
+        out.writeByte(code.length(s));
+      }
+    }
+    long bits = code.encodedBits(frequencies);
+    Preconditions.checkState(bits <= (long) Integer.MAX_VALUE << 3, "too large: %s bits", bits);
+    out.writeInt((int) ((bits + 7) >>> 3));
+    HuffmanCode.BitWriter writer = new HuffmanCode.BitWriter(out);
+    int m = registers.length();
+    int[] batch = new int[Math.min(REGISTER_BATCH, m)];
+    for (int from = 0; from < m; from += batch.length) {
+      registers.decodeRange(from, batch);
+      for (int v : batch) {
+        writer.write(code.code(v), code.length(v));
+      }
+    }
+    writer.finish();
+    out.writeChecksum();
+  }
+
+  /**
+   * Decodes a sketch written by {@link #writeCompressedTo(ChecksumOutput)} straight into this one,
+   * register by register, without materializing it. Its registers may be narrower than these.
+   *
+   * <p>The checksum can only be verified at the end: when it does not match, an {@link
+   * IllegalArgumentException} is thrown but this sketch may already hold some of the registers.
+   */
+  public void mergeCompressedFrom(ChecksumInput in) throws IOException {
+    Preconditions.checkNotNull(in, "null input");
+    byte mark = in.readByte();
+    Preconditions.checkArgument(
+        mark == COMPRESSED_MARK, "first byte should be: %s, but: %s", COMPRESSED_MARK, mark);
+    HashStrategy strategy = HashStrategy.fromId(in.readByte());
+    Preconditions.checkArgument(hashStrategy == strategy, "hash strategy not match!");
+    byte prefix = in.readByte();
+    Preconditions.checkArgument(log2m == log2mOf(prefix), "log2m not match!");
+    Preconditions.checkArgument(
+        registerWidth >= registerWidthOf(prefix),
+        "registerWidth should be at most: %s, but: %s",
+        registerWidth,
+        registerWidthOf(prefix));
+    mergeCompressedRegisters(in, registerWidthOf(prefix));
+    in.verifyChecksum();
+  }
+
+  /** Reads what follows the prefix of {@link #COMPRESSED_MARK}, except for the checksum. */
+  private void mergeCompressedRegisters(ChecksumInput in, int width) throws IOException {
+    int symbols = (in.readByte() & 0xff) + 1;
+    Preconditions.checkArgument(symbols <= 1 << width, "illegal symbol count: %s", symbols);
+    int[] lengths = new int[1 << width];
+    int symbol = 0;
+    for (int i = 0; i < symbols; ++i) {
+      symbol = in.readByte() & 0xff;
+      Preconditions.checkArgument(symbol < lengths.length, "illegal symbol: %s", symbol);
+      lengths[symbol] = in.readByte();
+    }
+    int bytes = in.readInt();
+    Preconditions.checkArgument(bytes >= 0, "illegal bits length: %s", bytes);
+    int m = 1 << log2m;
+    if (symbols == 1 && lengths[symbol] == 0) {
+      // all registers hold the same value, no bits at all
+      Preconditions.checkArgument(bytes == 0, "illegal bits length: %s", bytes);
+      if (symbol != 0) {
+        for (int i = 0; i < m; ++i) {
+          mergeRegister(i, symbol);
+        }
+      }
+      return;
+    }
+    HuffmanCode code = HuffmanCode.fromLengths(lengths);
+    HuffmanCode.BitReader reader = new HuffmanCode.BitReader(in, bytes);
+    for (int i = 0; i < m; ++i) {
+      int v = code.decode(reader);
+      if (v != 0) {
+        mergeRegister(i, v);
+      }
+    }
+    reader.finish();
+  }
+
+  /**
+   * Starts tracking the registers raised from now on, or forgets the ones tracked so far. Typically
+   * called after a full checkpoint of {@link #toByteArray()}, and again whenever a delta of {@link
+   * #toDeltaByteArray()} has been shipped. Tracking costs one bit per register.
+   */
+  public void markClean() {
+    if (dirty == null) {
+      dirty = new BitSet(registers.length());
+    } else {
+      dirty.clear();
+    }
+  }
+
+  /** Number of registers raised since {@link #markClean()}. */
+  public int dirtyRegisters() {
+    checkTracked();
+    return dirty.cardinality();
+  }
+
+  private void checkTracked() {
+    Preconditions.checkState(dirty != null, "dirty registers not tracked, call markClean() first");
+  }
+
+  /**
+   * The registers raised since {@link #markClean()} as (index, value) pairs under {@link
+   * #DELTA_MARK}: ascending indices as varint gaps, each followed by a value byte. Nothing is
+   * marked clean, so a delta lost on its way can simply be emitted again.
+   *
+   * @throws IllegalStateException if {@link #markClean()} was not called since creation or {@link
+   *     #reset()}
+   */
+  public byte[] toDeltaByteArray() {
+    byte[] bytes = new byte[deltaSize()];
+    try {
+      writeDelta(ChecksumOutput.of(ByteBuffer.wrap(bytes)));
+    } catch (IOException e) {
+      throw new AssertionError(e); // buffers do not throw
+    }
+    return bytes;
+  }
+
+  /** Number of bytes of {@link #toDeltaByteArray()}. */
+  public int deltaSize() {
+    checkTracked();
+    // mark, strategy, prefix, count, pairs, checksum
+    int size = 3 + 4 + 1;
+    for (int i = dirty.nextSetBit(0), last = 0; i >= 0; last = i, i = dirty.nextSetBit(i + 1)) {
+      size += Utils.varintSize(i - last) + 1;
+    }
+    return size;
+  }
+
+  /** Streaming version of {@link #toDeltaByteArray()}. */
+  public void writeDeltaTo(ChecksumOutput out) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    writeDelta(out);
+  }
+
+  private void writeDelta(ChecksumOutput out) throws IOException {
+    checkTracked();
+    out.writeByte(DELTA_MARK);
+    out.writeByte(hashStrategy.id());
+    out.writeByte(makePrefix(log2m, registerWidth));
+    out.writeInt(dirty.cardinality());
+    for (int i = dirty.nextSetBit(0), last = 0; i >= 0; last = i, i = dirty.nextSetBit(i + 1)) {
+      out.writeVarint(i - last);
+      out.writeByte(registers.get(i));
+    }
+    out.writeChecksum();
+  }
+
+  /**
+   * Raises every register of a delta of {@link #toDeltaByteArray()} to at least its value. This is
+   * a max-merge, so deltas applied twice or out of order give the same sketch as applying each
+   * once in order. The delta may come from a sketch of narrower registers. Registers raised here
+   * count as dirty if this sketch is tracked, so deltas can be relayed.
+   *
+   * <p>The checksum is verified before any register is touched.
+   */
+  public void applyDelta(byte[] bytes) {
+    Preconditions.checkNotNull(bytes, "null bytes");
+    Preconditions.checkArgument(bytes.length >= 8, "bytes length is at least 8: %s", bytes.length);
+    byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
+    Preconditions.checkArgument(
+        checksum == bytes[bytes.length - 1],
+        "checksum not match, expected: %s, actual: %s",
+        checksum,
+        bytes[bytes.length - 1]);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      applyDeltaFrom(ChecksumInput.of(buffer));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("truncated bytes", e);
+    }
+    Preconditions.checkArgument(
+        !buffer.hasRemaining(),
+        "bytes length should be: %s, but: %s",
+        bytes.length - buffer.remaining(),
+        bytes.length);
+  }
+
+  /**
+   * Streaming version of {@link #applyDelta(byte[])}. The checksum can only be verified at the
+   * end: when it does not match, an {@link IllegalArgumentException} is thrown but some registers
+   * may already be raised.
+   */
+  public void applyDeltaFrom(ChecksumInput in) throws IOException {
+    Preconditions.checkNotNull(in, "null input");
+    byte mark = in.readByte();
+    Preconditions.checkArgument(
+        mark == DELTA_MARK, "first byte should be: %s, but: %s", DELTA_MARK, mark);
+    HashStrategy strategy = HashStrategy.fromId(in.readByte());
+    Preconditions.checkArgument(hashStrategy == strategy, "hash strategy not match!");
+    byte prefix = in.readByte();
+    Preconditions.checkArgument(log2m == log2mOf(prefix), "log2m not match!");
+    int width = registerWidthOf(prefix);
+    Preconditions.checkArgument(
+        registerWidth >= width,
+        "registerWidth should be at most: %s, but: %s",
+        registerWidth,
+        width);
+    int count = in.readInt();
+    int m = registers.length();
+    Preconditions.checkArgument(count >= 0 && count <= m, "illegal register count: %s", count);
+    long index = 0;
+    for (int n = 0; n < count; ++n) {
+      index += in.readVarint();
+      Preconditions.checkArgument(index >= 0 && index < m, "illegal register index: %s", index);
+      int value = in.readByte() & 0xff;
+      Preconditions.checkArgument(
+          value <= Utils.mask32(width), "illegal register value: %s", value);
+      mergeRegister((int) index, value);
+    }
+    in.verifyChecksum();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -197,24 +721,32 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
     ClassicHyperLogLog<?> that = (ClassicHyperLogLog<?>) o;
     return log2m == that.log2m
         && registerWidth == that.registerWidth
+        && hashStrategy == that.hashStrategy
         && funnel.equals(that.funnel)
         && registers.equals(that.registers);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(funnel, log2m, registerWidth, registers);
+    return Objects.hash(funnel, hashStrategy, log2m, registerWidth, registers);
   }
 
   @Override
   public HyperLogLog<T> union(HyperLogLog<T> other) {
     Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
     if (other instanceof ClassicHyperLogLog) {
       return unionClassic((ClassicHyperLogLog<T>) other);
     }
     if (other instanceof ExplicitHyperLogLog) {
       return unionExplicit(((ExplicitHyperLogLog<T>) other));
     }
+    if (other instanceof SparseHyperLogLog) {
+      return unionSparse((SparseHyperLogLog<T>) other);
+    }
+    if (other instanceof ClassicHyperLogLogView) {
+      return unionClassic(((ClassicHyperLogLogView<T>) other).toClassic());
+    }
 
     return other.union(this);
   }
@@ -222,28 +754,166 @@ public final class ClassicHyperLogLog<T> implements HyperLogLog<T> {
   private ClassicHyperLogLog<T> unionClassic(ClassicHyperLogLog<T> other) {
     Preconditions.checkArgument(log2m == other.log2m, "log2m not match!");
     ClassicHyperLogLog<T> result =
-        new ClassicHyperLogLog<>(funnel, log2m, Math.max(registerWidth, other.registerWidth));
-    int length = registers.length();
-    for (int i = 0; i < length; ++i) {
-      result.registers.set(i, Math.max(registers.get(i), other.registers.get(i)));
+        new ClassicHyperLogLog<>(
+            funnel, log2m, Math.max(registerWidth, other.registerWidth), hashStrategy, allocator);
+    if (registerWidth == other.registerWidth) {
+      copyRegistersTo(result);
+      result.registers.setMaxAll(other.registers);
+    } else {
+      int[] a = registers.toIntArray();
+      int[] b = other.registers.toIntArray();
+      for (int i = 0; i < a.length; ++i) {
+        a[i] = Math.max(a[i], b[i]);
+      }
+      result.registers.encodeRange(0, a);
     }
+    result.histogram = null;
     return result;
   }
 
   private ClassicHyperLogLog<T> unionExplicit(ExplicitHyperLogLog<T> other) {
-    ClassicHyperLogLog<T> result = new ClassicHyperLogLog<>(funnel, log2m, registerWidth);
-    result.registers.setWords(registers.getWords(false), 0);
+    ClassicHyperLogLog<T> result =
+        new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy, allocator);
+    copyRegistersTo(result);
+    result.histogram = null;
     other.forEachValue(result::putX);
     return result;
   }
 
+  private ClassicHyperLogLog<T> unionSparse(SparseHyperLogLog<T> other) {
+    Preconditions.checkArgument(log2m == other.log2m(), "log2m not match!");
+    ClassicHyperLogLog<T> result =
+        new ClassicHyperLogLog<>(
+            funnel,
+            log2m,
+            Math.max(registerWidth, other.registerWidth()),
+            hashStrategy,
+            allocator);
+    if (result.registerWidth == registerWidth) {
+      copyRegistersTo(result);
+    } else {
+      result.registers.encodeRange(0, registers.toIntArray());
+    }
+    result.histogram = null;
+    other.forEachRegister(result::mergeRegister);
+    return result;
+  }
+
+  /**
+   * Merges in place unless {@code other} has wider registers, in which case the result is a new
+   * sketch of the wider width like {@link #union(HyperLogLog)} returns. Registers raised in place
+   * count as dirty, see {@link #markClean()}.
+   */
+  @Override
+  public HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
+    if (other instanceof AdaptiveHyperLogLog) {
+      return mergeFrom(((AdaptiveHyperLogLog<T>) other).delegate());
+    }
+    if (other instanceof ClassicHyperLogLog) {
+      ClassicHyperLogLog<T> that = (ClassicHyperLogLog<T>) other;
+      Preconditions.checkArgument(log2m == that.log2m, "log2m not match!");
+      if (registerWidth == that.registerWidth && dirty == null) {
+        registers.setMaxAll(that.registers);
+        histogram = null;
+        return this;
+      }
+      if (registerWidth >= that.registerWidth) {
+        that.forEachRegister(this::mergeRegister);
+        return this;
+      }
+    }
+    if (other instanceof SparseHyperLogLog) {
+      SparseHyperLogLog<T> that = (SparseHyperLogLog<T>) other;
+      Preconditions.checkArgument(log2m == that.log2m(), "log2m not match!");
+      if (registerWidth >= that.registerWidth()) {
+        that.forEachRegister(this::mergeRegister);
+        return this;
+      }
+    }
+    if (other instanceof ClassicHyperLogLogView) {
+      ClassicHyperLogLogView<T> that = (ClassicHyperLogLogView<T>) other;
+      Preconditions.checkArgument(log2m == that.log2m(), "log2m not match!");
+      if (registerWidth == that.registerWidth() && dirty == null) {
+        registers.setMaxAll(that.registers());
+        histogram = null;
+        return this;
+      }
+      if (registerWidth >= that.registerWidth()) {
+        that.forEachRegister(this::mergeRegister);
+        return this;
+      }
+    }
+    if (other instanceof ExplicitHyperLogLog) {
+      ((ExplicitHyperLogLog<T>) other).forEachValue(this::putX);
+      return this;
+    }
+    return union(other);
+  }
+
+  private void copyRegistersTo(ClassicHyperLogLog<T> result) {
+    if (registers instanceof Align8UIntArray) {
+      result.registers.setWords(((Align8UIntArray) registers).getWords(false), 0);
+    } else if (registers instanceof Align6UIntArray) {
+      result.registers.setWords(((Align6UIntArray) registers).getWords(false), 0);
+    } else {
+      byte[] words = new byte[registers.sizeInBytes()];
+      registers.getWords(words, 0);
+      result.registers.setWords(words, 0);
+    }
+  }
+
+  /** Visits every non-zero register. */
+  void forEachRegister(RegisterConsumer consumer) {
+    Preconditions.checkNotNull(consumer);
+    int length = registers.length();
+    int[] batch = new int[Math.min(REGISTER_BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      registers.decodeRange(from, batch);
+      for (int i = 0; i < batch.length; ++i) {
+        if (batch[i] != 0) {
+          consumer.accept(from + i, batch[i]);
+        }
+      }
+    }
+  }
+
+  void mergeRegister(int index, int value) {
+    int previous = registers.get(index);
+    if (value > previous) {
+      registers.set(index, value);
+      if (histogram != null) {
+        --histogram[previous];
+        ++histogram[value];
+      }
+      if (dirty != null) {
+        dirty.set(index);
+      }
+    }
+  }
+
   @Override
   public int serializedSize() {
     return requiredBytes(log2m, registerWidth);
   }
 
+  /**
+   * Also stops tracking dirty registers: a delta can only raise registers, so receivers need a
+   * full checkpoint before {@link #markClean()} is called again.
+   */
   @Override
   public void reset() {
     registers.clear();
+    histogram = emptyHistogram(registers.length(), registerWidth);
+    dirty = null;
+  }
+
+  /** Releases off-heap registers, does nothing for on-heap ones. */
+  @Override
+  public void close() {
+    if (registers instanceof DirectAlign8UIntArray) {
+      ((DirectAlign8UIntArray) registers).close();
+    }
   }
 }
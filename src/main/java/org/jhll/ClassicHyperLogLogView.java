@@ -0,0 +1,188 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumOutput;
+import org.jhll.util.DirectAlign8UIntArray;
+import org.jhll.util.RegisterKernels;
+import org.jhll.util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only {@link ClassicHyperLogLog} over serialized bytes, nothing is copied and only the
+ * header is validated up front, see {@link #verifyChecksum()}. Changes of the underlying bytes
+ * show through the view.
+ *
+ * @param <T>
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class ClassicHyperLogLogView<T> implements HyperLogLog<T> {
+
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  /** Exactly the serialized sketch, from position 0. */
+  private final ByteBuffer bytes;
+
+  private final DirectAlign8UIntArray registers;
+
+  private ClassicHyperLogLogView(ByteBuffer bytes, Funnel<? super T> funnel) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkArgument(bytes.remaining() > 4, "bytes length is at least 4");
+    byte mark = bytes.get(0);
+    Preconditions.checkArgument(
+        mark == ClassicHyperLogLog.MARK,
+        "first byte should be: %s, but: %s",
+        ClassicHyperLogLog.MARK,
+        mark);
+    this.funnel = funnel;
+    this.hashStrategy = HashStrategy.fromId(bytes.get(1));
+    this.log2m = ClassicHyperLogLog.log2mOf(bytes.get(2));
+    this.registerWidth = ClassicHyperLogLog.registerWidthOf(bytes.get(2));
+    int required = ClassicHyperLogLog.requiredBytes(log2m, registerWidth);
+    Preconditions.checkArgument(
+        bytes.remaining() == required,
+        "bytes length should be: %s, but: %s",
+        required,
+        bytes.remaining());
+    this.bytes = bytes;
+    bytes.position(3);
+    this.registers = DirectAlign8UIntArray.wrap(bytes, 1 << log2m, registerWidth);
+    bytes.position(0);
+  }
+
+  /** Views the whole array. */
+  public static <U> ClassicHyperLogLogView<U> wrap(byte[] bytes, Funnel<? super U> funnel) {
+    Preconditions.checkNotNull(bytes, "null bytes");
+    return new ClassicHyperLogLogView<>(ByteBuffer.wrap(bytes), funnel);
+  }
+
+  /**
+   * Views the remaining bytes of {@code buffer}, which must be exactly one sketch. Its position and
+   * limit are not changed.
+   */
+  public static <U> ClassicHyperLogLogView<U> wrap(ByteBuffer buffer, Funnel<? super U> funnel) {
+    Preconditions.checkNotNull(buffer, "null buffer");
+    return new ClassicHyperLogLogView<>(buffer.slice(), funnel);
+  }
+
+  int log2m() {
+    return log2m;
+  }
+
+  int registerWidth() {
+    return registerWidth;
+  }
+
+  DirectAlign8UIntArray registers() {
+    return registers;
+  }
+
+  public boolean isChecksumValid() {
+    int n = bytes.limit() - 1;
+    ByteBuffer covered = bytes.duplicate();
+    covered.limit(n);
+    return Utils.checksum(covered) == bytes.get(n);
+  }
+
+  /**
+   * Checks the trailing checksum byte, which costs a pass over all bytes.
+   *
+   * @return this view
+   * @throws IllegalArgumentException if the checksum does not match
+   */
+  public ClassicHyperLogLogView<T> verifyChecksum() {
+    Preconditions.checkArgument(isChecksumValid(), "checksum not match");
+    return this;
+  }
+
+  /** A mutable copy. */
+  public ClassicHyperLogLog<T> toClassic() {
+    ClassicHyperLogLog<T> classic =
+        new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+    classic.mergeFrom(this);
+    return classic;
+  }
+
+  /** Visits every non-zero register. */
+  void forEachRegister(RegisterConsumer consumer) {
+    Preconditions.checkNotNull(consumer);
+    int m = 1 << log2m;
+    for (int i = 0; i < m; ++i) {
+      int v = registers.get(i);
+      if (v != 0) {
+        consumer.accept(i, v);
+      }
+    }
+  }
+
+  @Override
+  public void put(T value) {
+    throw new UnsupportedOperationException("read-only view");
+  }
+
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    throw new UnsupportedOperationException("read-only view");
+  }
+
+  @Override
+  public long estimatedCardinality() {
+    RegisterKernels kernels = RegisterKernels.get();
+    int m = 1 << log2m;
+    int[] batch = new int[Math.min(ClassicHyperLogLog.REGISTER_BATCH, m)];
+    double x = 0;
+    int v = 0;
+    for (int from = 0; from < m; from += batch.length) {
+      registers.decodeRange(from, batch);
+      x += kernels.harmonicSum(batch, batch.length);
+      v += kernels.zeroCount(batch, batch.length);
+    }
+    return ClassicHyperLogLog.estimate(m, x, v);
+  }
+
+  @Override
+  public double relativeError() {
+    return 1.04 / Math.sqrt(1 << log2m);
+  }
+
+  @Override
+  public int serializedSize() {
+    return bytes.limit();
+  }
+
+  /** A copy of the viewed bytes, including their checksum as is. */
+  @Override
+  public byte[] toByteArray() {
+    byte[] copy = new byte[bytes.limit()];
+    bytes.duplicate().get(copy);
+    return copy;
+  }
+
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    out.write(bytes.duplicate());
+  }
+
+  /** Unions a mutable copy of this view. */
+  @Override
+  public HyperLogLog<T> union(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    return toClassic().union(other);
+  }
+
+  @Override
+  public void reset() {
+    throw new UnsupportedOperationException("read-only view");
+  }
+}
@@ -0,0 +1,223 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.AtomicUIntArray;
+import org.jhll.util.ChecksumOutput;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * A thread-safe, lock-free {@link ClassicHyperLogLog}. Registers live in an {@link
+ * AtomicUIntArray} and are raised with compare-and-set, so concurrent puts never lose an update and
+ * {@link #estimatedCardinality()} may be called while writes are in flight. It serializes to the
+ * {@link ClassicHyperLogLog} format.
+ *
+ * @param <T>
+ */
+public final class ConcurrentHyperLogLog<T> implements HyperLogLog<T> {
+
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  private final AtomicUIntArray registers;
+
+  /**
+   * @param funnel calc hash
+   * @param log2m see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param registerWidth see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param hashStrategy see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int,
+   *     HashStrategy)}
+   */
+  public ConcurrentHyperLogLog(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+    this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
+    this.log2m = log2m;
+    this.registerWidth = registerWidth;
+    this.registers = new AtomicUIntArray(1 << log2m, registerWidth);
+  }
+
+  public ConcurrentHyperLogLog(Funnel<? super T> funnel, int log2m, int registerWidth) {
+    this(funnel, log2m, registerWidth, HashStrategy.defaultStrategy());
+  }
+
+  public ConcurrentHyperLogLog(Funnel<? super T> funnel) {
+    this(funnel, 11, 5);
+  }
+
+  /** Reads the {@link ClassicHyperLogLog} format. */
+  public static <U> ConcurrentHyperLogLog<U> fromByteArray(byte[] bytes, Funnel<? super U> funnel) {
+    ClassicHyperLogLog<U> classic = ClassicHyperLogLog.fromByteArray(bytes, funnel);
+    ConcurrentHyperLogLog<U> hyperLogLog =
+        new ConcurrentHyperLogLog<>(
+            funnel, classic.log2m(), classic.registerWidth(), classic.hashStrategy());
+    classic.forEachRegister(hyperLogLog.registers::set);
+    return hyperLogLog;
+  }
+
+  @Override
+  public void put(T value) {
+    long x = value != null ? hashStrategy.hashObject(value, funnel) : 0L;
+    putX(x);
+  }
+
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    putX(hash);
+  }
+
+  private void putX(long x) {
+    int idx = (int) (x >>> (Long.SIZE - log2m)); // First p bits of x
+    int v = ClassicHyperLogLog.rho(x << log2m, registerWidth);
+    if (v > 0) {
+      registers.setMax(idx, v);
+    }
+  }
+
+  /** A point-in-time copy, registers raised concurrently may or may not be included. */
+  public ClassicHyperLogLog<T> toClassic() {
+    ClassicHyperLogLog<T> classic =
+        new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+    int length = registers.length();
+    for (int i = 0; i < length; ++i) {
+      int v = registers.get(i);
+      if (v != 0) {
+        classic.mergeRegister(i, v);
+      }
+    }
+    return classic;
+  }
+
+  @Override
+  public long estimatedCardinality() {
+    int m = registers.length();
+    double x = 0;
+    int v = 0;
+    for (int i = 0; i < m; ++i) {
+      int s = registers.get(i);
+      x += 1D / ClassicHyperLogLog.fastPowerOf2(s);
+      if (s == 0) {
+        ++v;
+      }
+    }
+    return ClassicHyperLogLog.estimate(m, x, v);
+  }
+
+  @Override
+  public double relativeError() {
+    return 1.04 / Math.sqrt(registers.length());
+  }
+
+  @Override
+  public int serializedSize() {
+    return ClassicHyperLogLog.requiredBytes(log2m, registerWidth);
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    return toClassic().toByteArray();
+  }
+
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    toClassic().writeTo(out);
+  }
+
+  /** Unions a snapshot of this sketch, the result is a plain, not thread-safe sketch. */
+  @Override
+  public HyperLogLog<T> union(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    HyperLogLog<T> that =
+        other instanceof ConcurrentHyperLogLog
+            ? ((ConcurrentHyperLogLog<T>) other).toClassic()
+            : other;
+    return toClassic().union(that);
+  }
+
+  /**
+   * Merges in place and thread-safely unless {@code other} has wider registers, in which case the
+   * result is a plain sketch like {@link #union(HyperLogLog)} returns.
+   */
+  @Override
+  public HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
+    HyperLogLog<T> that = other;
+    if (that instanceof AdaptiveHyperLogLog) {
+      that = ((AdaptiveHyperLogLog<T>) that).delegate();
+    } else if (that instanceof ConcurrentHyperLogLog) {
+      that = ((ConcurrentHyperLogLog<T>) that).toClassic();
+    } else if (that instanceof StripedHyperLogLog) {
+      that = ((StripedHyperLogLog<T>) that).toClassic();
+    }
+    if (that instanceof ExplicitHyperLogLog) {
+      ((ExplicitHyperLogLog<T>) that).forEachValue(this::putX);
+      return this;
+    }
+    if (that instanceof ClassicHyperLogLog) {
+      ClassicHyperLogLog<T> classic = (ClassicHyperLogLog<T>) that;
+      Preconditions.checkArgument(log2m == classic.log2m(), "log2m not match!");
+      if (registerWidth >= classic.registerWidth()) {
+        classic.forEachRegister(registers::setMax);
+        return this;
+      }
+    }
+    if (that instanceof ClassicHyperLogLogView) {
+      ClassicHyperLogLogView<T> view = (ClassicHyperLogLogView<T>) that;
+      Preconditions.checkArgument(log2m == view.log2m(), "log2m not match!");
+      if (registerWidth >= view.registerWidth()) {
+        view.forEachRegister(registers::setMax);
+        return this;
+      }
+    }
+    if (that instanceof SparseHyperLogLog) {
+      SparseHyperLogLog<T> sparse = (SparseHyperLogLog<T>) that;
+      Preconditions.checkArgument(log2m == sparse.log2m(), "log2m not match!");
+      if (registerWidth >= sparse.registerWidth()) {
+        sparse.forEachRegister(registers::setMax);
+        return this;
+      }
+    }
+    return union(other);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    ConcurrentHyperLogLog<?> that = (ConcurrentHyperLogLog<?>) o;
+    return log2m == that.log2m
+        && registerWidth == that.registerWidth
+        && hashStrategy == that.hashStrategy
+        && funnel.equals(that.funnel)
+        && toClassic().equals(that.toClassic());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(funnel, hashStrategy, log2m, registerWidth, toClassic());
+  }
+
+  /** Not atomic as a whole: values put concurrently may or may not survive. */
+  @Override
+  public void reset() {
+    registers.clear();
+  }
+}
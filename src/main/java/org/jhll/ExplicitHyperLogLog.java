@@ -2,13 +2,16 @@ package org.jhll;
 
 import com.google.common.base.Preconditions;
 import com.google.common.hash.Funnel;
-import com.google.common.hash.Hashing;
 import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
 import gnu.trove.TLongHashSet;
 import gnu.trove.TLongIterator;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumInput;
+import org.jhll.util.ChecksumOutput;
 import org.jhll.util.Utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.function.LongConsumer;
@@ -16,45 +19,219 @@ import java.util.function.LongConsumer;
 @SuppressWarnings("UnstableApiUsage")
 public final class ExplicitHyperLogLog<T> implements HyperLogLog<T> {
 
-  static final byte MARK = (byte) 0xe7;
+  static final byte MARK = (byte) 0xe8;
+  /** See {@link ClassicHyperLogLog#LEGACY_MARK}. */
+  static final byte LEGACY_MARK = (byte) 0xe7;
+  /** Varint-delta encoding of {@link #toCompactByteArray(int)}. */
+  static final byte COMPACT_MARK = (byte) 0xe6;
+  private static final int READ_CHUNK = 1024;
   private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
   private final TLongHashSet set;
 
-  public ExplicitHyperLogLog(Funnel<? super T> funnel, int initialCapacity) {
+  public ExplicitHyperLogLog(
+      Funnel<? super T> funnel, int initialCapacity, HashStrategy hashStrategy) {
     Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
     Preconditions.checkArgument(
         initialCapacity > 0, "illegal initialCapacity: %s", initialCapacity);
     this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
     this.set = new TLongHashSet(initialCapacity);
   }
 
+  public ExplicitHyperLogLog(Funnel<? super T> funnel, int initialCapacity) {
+    this(funnel, initialCapacity, HashStrategy.defaultStrategy());
+  }
+
   public static <U> ExplicitHyperLogLog<U> fromByteArray(byte[] bytes, Funnel<? super U> funnel) {
     Preconditions.checkNotNull(bytes, "null bytes");
     Preconditions.checkNotNull(funnel, "null funnel");
-    Preconditions.checkArgument(bytes.length >= 6, "bytes length is at least 6: %s", bytes.length);
+    Preconditions.checkArgument(bytes.length >= 7, "bytes length is at least 7: %s", bytes.length);
+    if (bytes[0] == COMPACT_MARK) {
+      return fromCompactByteArray(bytes, funnel);
+    }
+    boolean legacy = bytes[0] == LEGACY_MARK;
     Preconditions.checkArgument(
-        bytes[0] == MARK, "first byte should be: %s, but: %s", MARK, bytes[0]);
+        legacy || bytes[0] == MARK, "first byte should be: %s, but: %s", MARK, bytes[0]);
     byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
     Preconditions.checkArgument(
         checksum == bytes[bytes.length - 1],
         "checksum not match, expected: %s, actual: %s",
         checksum,
         bytes[bytes.length - 1]);
-    int len = Ints.fromByteArray(Arrays.copyOfRange(bytes, 1, 5));
-    ExplicitHyperLogLog<U> hyperLogLog = new ExplicitHyperLogLog<>(funnel, len);
+    HashStrategy hashStrategy = legacy ? HashStrategy.murmur3() : HashStrategy.fromId(bytes[1]);
+    // the length follows the mark and the strategy if any
+    int offset = legacy ? 1 : 2;
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int len = buffer.getInt(offset);
+    Preconditions.checkArgument(
+        len >= 0 && bytes.length == offset + 5 + ((long) len << 3),
+        "bytes length should be: %s, but: %s",
+        offset + 5 + ((long) len << 3),
+        bytes.length);
+    ExplicitHyperLogLog<U> hyperLogLog =
+        new ExplicitHyperLogLog<>(funnel, Math.max(len, 1), hashStrategy);
     for (int i = 0; i < len; ++i) {
-      hyperLogLog.set.add(
-          Longs.fromByteArray(Arrays.copyOfRange(bytes, 5 + (i << 3), 13 + (i << 3))));
+      hyperLogLog.set.add(buffer.getLong(offset + 4 + (i << 3)));
     }
     return hyperLogLog;
   }
 
+  private static <U> ExplicitHyperLogLog<U> fromCompactByteArray(
+      byte[] bytes, Funnel<? super U> funnel) {
+    Preconditions.checkArgument(bytes.length >= 8, "bytes length is at least 8: %s", bytes.length);
+    byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
+    Preconditions.checkArgument(
+        checksum == bytes[bytes.length - 1],
+        "checksum not match, expected: %s, actual: %s",
+        checksum,
+        bytes[bytes.length - 1]);
+    HashStrategy hashStrategy = HashStrategy.fromId(bytes[1]);
+    int precision = checkPrecision(bytes[2]);
+    int len = Ints.fromBytes(bytes[3], bytes[4], bytes[5], bytes[6]);
+    // every delta takes at least one byte between the header and the checksum
+    Preconditions.checkArgument(
+        len >= 0 && len <= bytes.length - 8,
+        "illegal length: %s, bytes length: %s",
+        len,
+        bytes.length);
+    ExplicitHyperLogLog<U> hyperLogLog =
+        new ExplicitHyperLogLog<>(funnel, Math.max(len, 1), hashStrategy);
+    int shift = Long.SIZE - precision;
+    long key = 0;
+    int end = bytes.length - 1;
+    int offset = 7;
+    for (int i = 0; i < len; ++i) {
+      long delta = Utils.readVarint(bytes, offset, end);
+      offset += Utils.varintSize(delta);
+      key += delta;
+      hyperLogLog.set.add((key << shift) ^ Long.MIN_VALUE);
+    }
+    Preconditions.checkArgument(
+        offset == end, "%s trailing bytes after %s values", end - offset, len);
+    return hyperLogLog;
+  }
+
+  /**
+   * Streaming version of {@link #fromByteArray(byte[], Funnel)}, reads exactly the bytes written by
+   * {@link #writeTo(ChecksumOutput)} or {@link #writeCompactTo(ChecksumOutput, int)}, or by {@link
+   * #toByteArray()} before hash strategies existed.
+   */
+  public static <U> ExplicitHyperLogLog<U> readFrom(ChecksumInput in, Funnel<? super U> funnel)
+      throws IOException {
+    Preconditions.checkNotNull(in, "null input");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    byte mark = in.readByte();
+    if (mark == COMPACT_MARK) {
+      return readCompactBody(in, funnel);
+    }
+    Preconditions.checkArgument(
+        mark == MARK || mark == LEGACY_MARK, "first byte should be: %s, but: %s", MARK, mark);
+    return readBody(in, funnel, mark);
+  }
+
+  /** Reads what follows the {@link #COMPACT_MARK}. */
+  static <U> ExplicitHyperLogLog<U> readCompactBody(ChecksumInput in, Funnel<? super U> funnel)
+      throws IOException {
+    HashStrategy hashStrategy = HashStrategy.fromId(in.readByte());
+    int precision = checkPrecision(in.readByte());
+    int len = in.readInt();
+    Preconditions.checkArgument(len >= 0, "illegal length: %s", len);
+    // the length is not trusted to size the set, the stream may end well before it
+    ExplicitHyperLogLog<U> hyperLogLog =
+        new ExplicitHyperLogLog<>(funnel, Math.max(Math.min(len, READ_CHUNK), 1), hashStrategy);
+    int shift = Long.SIZE - precision;
+    long key = 0;
+    for (int i = 0; i < len; ++i) {
+      key += in.readVarint();
+      hyperLogLog.set.add((key << shift) ^ Long.MIN_VALUE);
+    }
+    in.verifyChecksum();
+    return hyperLogLog;
+  }
+
+  private static int checkPrecision(int precision) {
+    Preconditions.checkArgument(
+        precision >= 1 && precision <= Long.SIZE,
+        "illegal precision(should be within [1, 64]): %s",
+        precision);
+    return precision;
+  }
+
+  /** Reads what follows {@code mark}, the {@link #MARK} or the {@link #LEGACY_MARK}. */
+  static <U> ExplicitHyperLogLog<U> readBody(
+      ChecksumInput in, Funnel<? super U> funnel, byte mark) throws IOException {
+    HashStrategy hashStrategy =
+        mark == LEGACY_MARK ? HashStrategy.murmur3() : HashStrategy.fromId(in.readByte());
+    int len = in.readInt();
+    Preconditions.checkArgument(len >= 0, "illegal length: %s", len);
+    // grows chunk by chunk instead of trusting the length, like readCompactBody
+    ExplicitHyperLogLog<U> hyperLogLog =
+        new ExplicitHyperLogLog<>(funnel, Math.max(Math.min(len, READ_CHUNK), 1), hashStrategy);
+    ByteBuffer chunk = ByteBuffer.allocate(Math.min(len, READ_CHUNK) << 3);
+    for (int left = len; left > 0; ) {
+      int n = Math.min(left, READ_CHUNK);
+      chunk.clear().limit(n << 3);
+      in.readFully(chunk);
+      for (int i = 0; i < n; ++i) {
+        hyperLogLog.set.add(chunk.getLong(i << 3));
+      }
+      left -= n;
+    }
+    in.verifyChecksum();
+    return hyperLogLog;
+  }
+
+  /** Like {@link #fromByteArray(byte[], Funnel)}, but refuses sketches of another hash strategy. */
+  public static <U> ExplicitHyperLogLog<U> fromByteArray(
+      byte[] bytes, Funnel<? super U> funnel, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    ExplicitHyperLogLog<U> hyperLogLog = fromByteArray(bytes, funnel);
+    Preconditions.checkArgument(
+        hyperLogLog.hashStrategy == hashStrategy,
+        "hash strategy not match, expected: %s, actual: %s",
+        hashStrategy,
+        hyperLogLog.hashStrategy);
+    return hyperLogLog;
+  }
+
   @Override
   public void put(T value) {
-    long x = value != null ? Hashing.murmur3_128().hashObject(value, funnel).asLong() : 0L;
+    long x = value != null ? hashStrategy.hashObject(value, funnel) : 0L;
     set.add(x);
   }
 
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    set.add(hash);
+  }
+
+  @Override
+  public void putAll(long[] hashes, int offset, int length) {
+    Preconditions.checkNotNull(hashes, "null hashes");
+    Preconditions.checkPositionIndexes(offset, offset + length, hashes.length);
+    set.ensureCapacity(length);
+    for (int i = offset, end = offset + length; i < end; ++i) {
+      set.add(hashes[i]);
+    }
+  }
+
+  @Override
+  public void putAllLongs(long[] values, int offset, int length) {
+    Preconditions.checkNotNull(values, "null values");
+    Preconditions.checkPositionIndexes(offset, offset + length, values.length);
+    set.ensureCapacity(length);
+    for (int i = offset, end = offset + length; i < end; ++i) {
+      set.add(hashStrategy.hashLong(values[i]));
+    }
+  }
+
   public void forEachValue(LongConsumer consumer) {
     Preconditions.checkNotNull(consumer);
     TLongIterator iterator = set.iterator();
@@ -80,22 +257,119 @@ public final class ExplicitHyperLogLog<T> implements HyperLogLog<T> {
     int len = serializedSize();
     byte[] output = new byte[len];
     output[0] = MARK;
-    System.arraycopy(Ints.toByteArray(values.length), 0, output, 1, 4);
+    output[1] = hashStrategy.id();
+    ByteBuffer buffer = ByteBuffer.wrap(output);
+    buffer.putInt(2, values.length);
     for (int i = 0; i < values.length; ++i) {
-      System.arraycopy(Longs.toByteArray(values[i]), 0, output, 5 + (i << 3), 8);
+      buffer.putLong(6 + (i << 3), values[i]);
     }
     byte checksum = Utils.checksum(output, 0, output.length - 1);
     output[output.length - 1] = checksum;
     return output;
   }
 
+  /**
+   * The top {@code precision} bits of every hash, in ascending order, the first as is and the
+   * others as the difference to the previous one. Hashes with equal top bits collapse into one.
+   */
+  private long[] compactKeys(int precision) {
+    long[] keys = toArray();
+    int shift = Long.SIZE - precision;
+    int n = 0;
+    long last = 0;
+    for (long value : keys) {
+      // flipping the sign bit turns the signed order of the sorted values into the unsigned one
+      long key = (value ^ Long.MIN_VALUE) >>> shift;
+      if (n == 0 || key != last) {
+        keys[n++] = key - last;
+        last = key;
+      }
+    }
+    return Arrays.copyOf(keys, n);
+  }
+
+  /** Same as {@link #toCompactByteArray(int)} with all 64 bits, nothing is lost. */
+  public byte[] toCompactByteArray() {
+    return toCompactByteArray(Long.SIZE);
+  }
+
+  /**
+   * Like {@link #toByteArray()}, but under {@link #COMPACT_MARK}: the sorted hashes are written as
+   * varint deltas, which {@link #fromByteArray(byte[], Funnel)} reads as well.
+   *
+   * <p>Only the top {@code precision} bits of each hash are kept, the others read back as zeros,
+   * so lower precision trades accuracy for size: hashes differing only in dropped bits count once.
+   * As long as {@code precision >= log2m + 2^registerWidth - 1}, a promotion to a {@link
+   * ClassicHyperLogLog} or {@link SparseHyperLogLog} still computes the same registers, except for
+   * ranks that overflow the register anyway. Deltas of uniform hashes take about {@code precision
+   * - log2(n)} bits, so the savings come mostly from a lower precision or many hashes.
+   *
+   * @param precision within [1, 64]
+   */
+  public byte[] toCompactByteArray(int precision) {
+    checkPrecision(precision);
+    long[] deltas = compactKeys(precision);
+    int len = 8;
+    for (long delta : deltas) {
+      len += Utils.varintSize(delta);
+    }
+    byte[] output = new byte[len];
+    output[0] = COMPACT_MARK;
+    output[1] = hashStrategy.id();
+    output[2] = (byte) precision;
+    System.arraycopy(Ints.toByteArray(deltas.length), 0, output, 3, 4);
+    int offset = 7;
+    for (long delta : deltas) {
+      offset = Utils.writeVarint(output, offset, delta);
+    }
+    output[offset] = Utils.checksum(output, 0, offset);
+    return output;
+  }
+
+  /** Streaming version of {@link #toCompactByteArray(int)}. */
+  public void writeCompactTo(ChecksumOutput out, int precision) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    checkPrecision(precision);
+    long[] deltas = compactKeys(precision);
+    out.writeByte(COMPACT_MARK);
+    out.writeByte(hashStrategy.id());
+    out.writeByte(precision);
+    out.writeInt(deltas.length);
+    for (long delta : deltas) {
+      out.writeVarint(delta);
+    }
+    out.writeChecksum();
+  }
+
+  /**
+   * Values are written straight from the set in its iteration order, without the sorted copy of
+   * {@link #toByteArray()}: readers of the {@link #MARK} format do not depend on the order, so the
+   * bytes may differ from the ones of {@link #toByteArray()} but read back to an equal sketch.
+   */
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    out.writeByte(MARK);
+    out.writeByte(hashStrategy.id());
+    out.writeInt(set.size());
+    TLongIterator iterator = set.iterator();
+    while (iterator.hasNext()) {
+      out.writeLong(iterator.next());
+    }
+    out.writeChecksum();
+  }
+
   @Override
   public HyperLogLog<T> union(HyperLogLog<T> other) {
     Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
     if (other instanceof ExplicitHyperLogLog) {
       ExplicitHyperLogLog<T> explicitHyperLogLog = (ExplicitHyperLogLog<T>) other;
       ExplicitHyperLogLog<T> result =
-          new ExplicitHyperLogLog<>(funnel, Math.max(set.size(), explicitHyperLogLog.set.size()));
+          new ExplicitHyperLogLog<>(
+              funnel,
+              Math.max(Math.max(set.size(), explicitHyperLogLog.set.size()), 1),
+              hashStrategy);
       result.set.addAll(set.toArray());
       result.set.addAll(explicitHyperLogLog.set.toArray());
       return result;
@@ -103,22 +377,42 @@ public final class ExplicitHyperLogLog<T> implements HyperLogLog<T> {
     return other.union(this);
   }
 
+  /**
+   * Merges another {@link ExplicitHyperLogLog} in place, any other sketch promotes the result to
+   * its representation.
+   */
+  @Override
+  public HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
+    if (other instanceof AdaptiveHyperLogLog) {
+      return mergeFrom(((AdaptiveHyperLogLog<T>) other).delegate());
+    }
+    if (other instanceof ExplicitHyperLogLog) {
+      ExplicitHyperLogLog<T> that = (ExplicitHyperLogLog<T>) other;
+      set.ensureCapacity(that.set.size());
+      that.forEachValue(set::add);
+      return this;
+    }
+    return other.union(this);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     ExplicitHyperLogLog<?> that = (ExplicitHyperLogLog<?>) o;
-    return funnel.equals(that.funnel) && set.equals(that.set);
+    return hashStrategy == that.hashStrategy && funnel.equals(that.funnel) && set.equals(that.set);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(funnel, set);
+    return Objects.hash(funnel, hashStrategy, set);
   }
 
   @Override
   public int serializedSize() {
-    return (set.size() << 3) + 6;
+    return (set.size() << 3) + 7;
   }
 
   @Override
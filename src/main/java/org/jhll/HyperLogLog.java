@@ -1,13 +1,117 @@
 package org.jhll;
 
+import com.google.common.base.Preconditions;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumOutput;
+
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
 public interface HyperLogLog<T> {
 
   void put(T value);
 
+  HashStrategy hashStrategy();
+
+  /**
+   * Puts a value that is already hashed, the hash should be uniformly distributed over all 64 bits.
+   */
+  void putHash(long hash);
+
+  /**
+   * Allocation-free alternative of {@code put(value)} with {@code Funnels.longFunnel()}, both end
+   * up in the same register.
+   */
+  default void putLong(long value) {
+    putHash(hashStrategy().hashLong(value));
+  }
+
+  /**
+   * Allocation-free alternative of {@code put(value)} with {@code Funnels.integerFunnel()}, both
+   * end up in the same register.
+   */
+  default void putInt(int value) {
+    putHash(hashStrategy().hashInt(value));
+  }
+
+  /**
+   * Allocation-free alternative of {@code put(value)} with {@code Funnels.byteArrayFunnel()}, both
+   * end up in the same register.
+   */
+  default void putBytes(byte[] value, int offset, int length) {
+    Preconditions.checkNotNull(value, "null value");
+    Preconditions.checkPositionIndexes(offset, offset + length, value.length);
+    putHash(hashStrategy().hashBytes(value, offset, length));
+  }
+
+  /**
+   * Allocation-free alternative of {@code put(value)} with {@code Funnels.unencodedCharsFunnel()},
+   * both end up in the same register.
+   */
+  default void putCharSequence(CharSequence value) {
+    Preconditions.checkNotNull(value, "null value");
+    putHash(hashStrategy().hashChars(value));
+  }
+
+  /** Puts {@code length} already hashed values, see {@link #putHash(long)}. */
+  default void putAll(long[] hashes, int offset, int length) {
+    Preconditions.checkNotNull(hashes, "null hashes");
+    Preconditions.checkPositionIndexes(offset, offset + length, hashes.length);
+    for (int i = offset, end = offset + length; i < end; ++i) {
+      putHash(hashes[i]);
+    }
+  }
+
+  default void putAll(long[] hashes) {
+    Preconditions.checkNotNull(hashes, "null hashes");
+    putAll(hashes, 0, hashes.length);
+  }
+
+  /** Puts all remaining already hashed values of the buffer, leaving it with no remaining. */
+  default void putAll(LongBuffer hashes) {
+    Preconditions.checkNotNull(hashes, "null hashes");
+    if (hashes.hasArray()) {
+      putAll(hashes.array(), hashes.arrayOffset() + hashes.position(), hashes.remaining());
+      hashes.position(hashes.limit());
+    } else {
+      while (hashes.hasRemaining()) {
+        putHash(hashes.get());
+      }
+    }
+  }
+
+  /**
+   * Puts all remaining already hashed values of the buffer, every 8 bytes read as a long in the
+   * buffer's byte order, leaving it with no remaining.
+   */
+  default void putAll(ByteBuffer hashes) {
+    Preconditions.checkNotNull(hashes, "null hashes");
+    Preconditions.checkArgument(
+        (hashes.remaining() & 7) == 0,
+        "remaining should be a multiple of 8: %s",
+        hashes.remaining());
+    putAll(hashes.asLongBuffer());
+    hashes.position(hashes.limit());
+  }
+
+  /** Batch version of {@link #putLong(long)}. */
+  default void putAllLongs(long[] values, int offset, int length) {
+    Preconditions.checkNotNull(values, "null values");
+    Preconditions.checkPositionIndexes(offset, offset + length, values.length);
+    for (int i = offset, end = offset + length; i < end; ++i) {
+      putLong(values[i]);
+    }
+  }
+
+  default void putAllLongs(long[] values) {
+    Preconditions.checkNotNull(values, "null values");
+    putAllLongs(values, 0, values.length);
+  }
+
   long estimatedCardinality();
 
   int serializedSize();
@@ -18,15 +122,64 @@ public interface HyperLogLog<T> {
 
   byte[] toByteArray();
 
+  /**
+   * Writes the bytes of {@link #toByteArray()} piece by piece, with constant extra memory for
+   * representations that support it. The stream is neither flushed nor closed.
+   */
   default void writeTo(OutputStream out) throws IOException {
-    Objects.requireNonNull(out, "null outputStream");
-    byte[] bytes = Objects.requireNonNull(toByteArray(), "null bytes");
-    if (bytes.length > 0) {
-      out.write(bytes);
+    ChecksumOutput output = ChecksumOutput.of(out);
+    writeTo(output);
+    output.flush();
+  }
+
+  /** Like {@link #writeTo(OutputStream)}. */
+  default void writeTo(WritableByteChannel out) throws IOException {
+    ChecksumOutput output = ChecksumOutput.of(out);
+    writeTo(output);
+    output.flush();
+  }
+
+  /**
+   * Like {@link #writeTo(OutputStream)}, from the position of {@code out}, which must have at least
+   * {@link #serializedSize()} bytes remaining and is advanced past the written bytes.
+   */
+  default void writeTo(ByteBuffer out) {
+    Preconditions.checkNotNull(out, "null buffer");
+    int size = serializedSize();
+    Preconditions.checkArgument(
+        out.remaining() >= size,
+        "buffer remaining should be at least %s: %s",
+        size,
+        out.remaining());
+    try {
+      writeTo(ChecksumOutput.of(out));
+    } catch (IOException e) {
+      throw new AssertionError(e); // buffers do not throw
     }
   }
 
+  /**
+   * Writes the bytes of {@link #toByteArray()}, checksum included, to {@code out}. Readers are the
+   * {@code readFrom(ChecksumInput, ...)} methods of the representations.
+   */
+  default void writeTo(ChecksumOutput out) throws IOException {
+    Objects.requireNonNull(out, "null output");
+    byte[] bytes = Objects.requireNonNull(toByteArray(), "null bytes");
+    out.write(bytes, 0, bytes.length);
+  }
+
   HyperLogLog<T> union(HyperLogLog<T> other);
 
+  /**
+   * Merges {@code other} into this sketch without allocating a result when this representation
+   * can hold the union, and returns this sketch then. Otherwise, e.g. when an {@link
+   * ExplicitHyperLogLog} merges a dense sketch, returns a new sketch like {@link
+   * #union(HyperLogLog)} does, so always continue with the returned one: {@code acc =
+   * acc.mergeFrom(next)}.
+   */
+  default HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    return union(other);
+  }
+
   void reset();
 }
@@ -0,0 +1,96 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.jhll.hash.HashStrategy;
+
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Builds sketches from streams. Parallel streams give every leaf of the fork-join split its own
+ * {@link ClassicHyperLogLog}, the leaves are combined in place by a register-wise max with {@link
+ * ClassicHyperLogLog#mergeFrom(HyperLogLog)}, so no sketch is ever shared between threads.
+ */
+public final class HyperLogLogCollectors {
+
+  private HyperLogLogCollectors() {}
+
+  /** Like {@link #toClassic(Funnel, int, int, HashStrategy)} with the default hash strategy. */
+  public static <T> Collector<T, ?, ClassicHyperLogLog<T>> toClassic(
+      Funnel<? super T> funnel, int log2m, int registerWidth) {
+    return toClassic(funnel, log2m, registerWidth, HashStrategy.defaultStrategy());
+  }
+
+  /**
+   * Collects the elements into a {@link ClassicHyperLogLog}, see {@link
+   * ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int, HashStrategy)} for the parameters.
+   */
+  public static <T> Collector<T, ?, ClassicHyperLogLog<T>> toClassic(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    return Collector.of(
+        supplier(funnel, log2m, registerWidth, hashStrategy),
+        ClassicHyperLogLog::put,
+        HyperLogLogCollectors::combine,
+        Collector.Characteristics.UNORDERED,
+        Collector.Characteristics.IDENTITY_FINISH);
+  }
+
+  /**
+   * Puts all values with {@link HyperLogLog#putLong(long)}, the same as collecting the boxed
+   * values with {@code Funnels.longFunnel()} but without boxing.
+   */
+  public static ClassicHyperLogLog<Long> ofLongs(
+      LongStream values, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(values, "null values");
+    return values.collect(
+        supplier(Funnels.longFunnel(), log2m, registerWidth, hashStrategy),
+        ClassicHyperLogLog::putLong,
+        ClassicHyperLogLog::mergeFrom);
+  }
+
+  public static ClassicHyperLogLog<Long> ofLongs(LongStream values, int log2m, int registerWidth) {
+    return ofLongs(values, log2m, registerWidth, HashStrategy.defaultStrategy());
+  }
+
+  /**
+   * Puts all values with {@link HyperLogLog#putInt(int)}, the same as collecting the boxed values
+   * with {@code Funnels.integerFunnel()} but without boxing.
+   */
+  public static ClassicHyperLogLog<Integer> ofInts(
+      IntStream values, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(values, "null values");
+    return values.collect(
+        supplier(Funnels.integerFunnel(), log2m, registerWidth, hashStrategy),
+        ClassicHyperLogLog::putInt,
+        ClassicHyperLogLog::mergeFrom);
+  }
+
+  public static ClassicHyperLogLog<Integer> ofInts(IntStream values, int log2m, int registerWidth) {
+    return ofInts(values, log2m, registerWidth, HashStrategy.defaultStrategy());
+  }
+
+  /** Validates the parameters up front rather than in the first leaf. */
+  private static <T> Supplier<ClassicHyperLogLog<T>> supplier(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+    return () -> new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+  }
+
+  /** Both have the same width, so {@code a} is merged in place. */
+  private static <T> ClassicHyperLogLog<T> combine(
+      ClassicHyperLogLog<T> a, ClassicHyperLogLog<T> b) {
+    a.mergeFrom(b);
+    return a;
+  }
+}
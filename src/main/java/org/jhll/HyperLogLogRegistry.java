@@ -0,0 +1,364 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe sketches keyed by dimension, e.g. (tenant, page, hour), kept under a budget of
+ * {@link HyperLogLog#serializedSize()} bytes. When the budget is exceeded, the least recently used
+ * sketches are removed and handed to a spill callback, which may persist them so that they can be
+ * merged back later with {@link #merge(Object, HyperLogLog)}.
+ *
+ * <p>Like Guava's caches, keys are spread over segments that each have their own lock, LRU order
+ * and an equal share of the budget. Every sketch has a lock of its own, so puts to different keys
+ * of a segment only contend for the lookup. A sketch is weighed when it is created or merged
+ * into, and every {@value #REWEIGH_INTERVAL} puts otherwise, as weighing a {@link
+ * SparseHyperLogLog} flushes its buffer. The budget can thus be exceeded by the growth of that
+ * many puts per key until the next weighing.
+ *
+ * <p>A sketch is spilled exactly once and never updated afterwards: a put racing with its eviction
+ * goes to a new sketch of the same key.
+ *
+ * @param <K> keys, with {@link Object#hashCode()} and {@link Object#equals(Object)} like for a
+ *     {@link java.util.HashMap}
+ * @param <T> values of the sketches
+ */
+public final class HyperLogLogRegistry<K, T> {
+
+  private static final int REWEIGH_INTERVAL = 64;
+
+  private final Supplier<? extends HyperLogLog<T>> factory;
+  private final BiConsumer<? super K, ? super HyperLogLog<T>> spill;
+  private final Segment<K, T>[] segments;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param factory creates the sketch of a new key, e.g. {@code () -> new
+   *     AdaptiveHyperLogLog<>(funnel)}
+   * @param maxBytes total budget of {@link HyperLogLog#serializedSize()}, each segment gets {@code
+   *     maxBytes / concurrencyLevel}. A sketch larger than that is spilled as soon as it is weighed
+   * @param concurrencyLevel number of segments, usually the number of writing threads
+   * @param spill receives evicted sketches together with their keys, on the thread whose put
+   *     exceeded the budget. Exceptions are propagated to that put, sketches not spilled yet are
+   *     lost then
+   */
+  public HyperLogLogRegistry(
+      Supplier<? extends HyperLogLog<T>> factory,
+      long maxBytes,
+      int concurrencyLevel,
+      BiConsumer<? super K, ? super HyperLogLog<T>> spill) {
+    Preconditions.checkNotNull(factory, "null factory");
+    Preconditions.checkNotNull(spill, "null spill");
+    Preconditions.checkArgument(
+        concurrencyLevel > 0, "illegal concurrencyLevel: %s", concurrencyLevel);
+    Preconditions.checkArgument(
+        maxBytes >= concurrencyLevel,
+        "maxBytes should be at least concurrencyLevel(%s): %s",
+        concurrencyLevel,
+        maxBytes);
+    this.factory = factory;
+    this.spill = spill;
+    this.segments = newSegments(concurrencyLevel);
+    for (int i = 0; i < concurrencyLevel; ++i) {
+      segments[i] = new Segment<>(maxBytes / concurrencyLevel);
+    }
+  }
+
+  /** Arrays of a generic type can only be created raw, the array never leaves this registry. */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <A, B> Segment<A, B>[] newSegments(int n) {
+    return new Segment[n];
+  }
+
+  public HyperLogLogRegistry(
+      Supplier<? extends HyperLogLog<T>> factory,
+      long maxBytes,
+      BiConsumer<? super K, ? super HyperLogLog<T>> spill) {
+    this(factory, maxBytes, Runtime.getRuntime().availableProcessors(), spill);
+  }
+
+  private Segment<K, T> segmentOf(Object key) {
+    int h = key.hashCode();
+    return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+  }
+
+  public void put(K key, T value) {
+    Entry<K, T> entry = lock(key);
+    try {
+      entry.sketch.put(value);
+    } finally {
+      unlock(entry, false);
+    }
+  }
+
+  /** See {@link HyperLogLog#putHash(long)}. */
+  public void putHash(K key, long hash) {
+    Entry<K, T> entry = lock(key);
+    try {
+      entry.sketch.putHash(hash);
+    } finally {
+      unlock(entry, false);
+    }
+  }
+
+  /** See {@link HyperLogLog#putLong(long)}. */
+  public void putLong(K key, long value) {
+    Entry<K, T> entry = lock(key);
+    try {
+      entry.sketch.putLong(value);
+    } finally {
+      unlock(entry, false);
+    }
+  }
+
+  /**
+   * Merges {@code sketch}, e.g. a spilled one read back, into the sketch of {@code key} with {@link
+   * HyperLogLog#mergeFrom(HyperLogLog)}. {@code sketch} itself is not kept.
+   */
+  public void merge(K key, HyperLogLog<T> sketch) {
+    Preconditions.checkNotNull(sketch, "null sketch");
+    Entry<K, T> entry = lock(key);
+    try {
+      entry.sketch = entry.sketch.mergeFrom(sketch);
+    } finally {
+      unlock(entry, true);
+    }
+  }
+
+  /** Cardinality of the sketch of {@code key}, 0 when there is none. */
+  public long estimatedCardinality(K key) {
+    Preconditions.checkNotNull(key, "null key");
+    Segment<K, T> segment = segmentOf(key);
+    for (; ; ) {
+      Entry<K, T> entry;
+      synchronized (segment) {
+        entry = segment.map.get(key);
+      }
+      if (entry == null) {
+        misses.increment();
+        return 0;
+      }
+      entry.lock.lock();
+      try {
+        if (!entry.evicted) {
+          hits.increment();
+          return entry.sketch.estimatedCardinality();
+        }
+      } finally {
+        entry.lock.unlock();
+      }
+    }
+  }
+
+  /** Removes the sketch of {@code key} without spilling it, {@code null} when there is none. */
+  public HyperLogLog<T> remove(K key) {
+    Preconditions.checkNotNull(key, "null key");
+    Segment<K, T> segment = segmentOf(key);
+    Entry<K, T> entry;
+    synchronized (segment) {
+      entry = segment.map.remove(key);
+      if (entry == null) {
+        return null;
+      }
+      segment.bytes -= entry.bytes;
+    }
+    entry.lock.lock();
+    try {
+      entry.evicted = true;
+      return entry.sketch;
+    } finally {
+      entry.lock.unlock();
+    }
+  }
+
+  /**
+   * Hands all sketches to the spill callback and removes them, e.g. before shutting down. They do
+   * not count as evictions.
+   */
+  public void spillAll() {
+    for (Segment<K, T> segment : segments) {
+      List<Entry<K, T>> spilled;
+      synchronized (segment) {
+        spilled = new ArrayList<>(segment.map.values());
+        segment.map.clear();
+        segment.bytes = 0;
+      }
+      spill(spilled);
+    }
+  }
+
+  /** Locks the sketch of {@code key}, creating it if there is none. */
+  private Entry<K, T> lock(K key) {
+    Preconditions.checkNotNull(key, "null key");
+    Segment<K, T> segment = segmentOf(key);
+    for (; ; ) {
+      Entry<K, T> entry;
+      List<Entry<K, T>> victims = null;
+      synchronized (segment) {
+        entry = segment.map.get(key);
+        if (entry == null) {
+          entry = new Entry<>(key, segment, factory.get());
+          segment.map.put(key, entry);
+          segment.bytes += entry.bytes;
+          victims = segment.evict(entry);
+        }
+      }
+      if (victims != null) {
+        evict(victims);
+      }
+      entry.lock.lock();
+      if (!entry.evicted) {
+        (victims == null ? hits : misses).increment();
+        return entry;
+      }
+      // spilled in the meantime, start over with a new sketch
+      entry.lock.unlock();
+    }
+  }
+
+  private void unlock(Entry<K, T> entry, boolean reweigh) {
+    int bytes = -1;
+    try {
+      if (reweigh || ++entry.puts % REWEIGH_INTERVAL == 0) {
+        bytes = entry.sketch.serializedSize();
+      }
+    } finally {
+      entry.lock.unlock();
+    }
+    if (bytes < 0) {
+      return;
+    }
+    Segment<K, T> segment = entry.segment;
+    List<Entry<K, T>> victims;
+    synchronized (segment) {
+      if (segment.map.get(entry.key) != entry) {
+        return; // removed in the meantime
+      }
+      segment.bytes += bytes - entry.bytes;
+      entry.bytes = bytes;
+      victims = segment.evict(null);
+    }
+    evict(victims);
+  }
+
+  private void evict(List<Entry<K, T>> victims) {
+    evictions.add(victims.size());
+    spill(victims);
+  }
+
+  private void spill(List<Entry<K, T>> spilled) {
+    for (Entry<K, T> entry : spilled) {
+      HyperLogLog<T> sketch;
+      entry.lock.lock();
+      try {
+        entry.evicted = true;
+        sketch = entry.sketch;
+      } finally {
+        entry.lock.unlock();
+      }
+      spill.accept(entry.key, sketch);
+    }
+  }
+
+  /** Number of keys with a sketch. */
+  public int size() {
+    int size = 0;
+    for (Segment<K, T> segment : segments) {
+      synchronized (segment) {
+        size += segment.map.size();
+      }
+    }
+    return size;
+  }
+
+  /** Total weight of all sketches as of their last weighing, see {@link HyperLogLogRegistry}. */
+  public long sizeInBytes() {
+    long bytes = 0;
+    for (Segment<K, T> segment : segments) {
+      synchronized (segment) {
+        bytes += segment.bytes;
+      }
+    }
+    return bytes;
+  }
+
+  /** Number of lookups that found the sketch of their key. */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /** Number of lookups that did not find the sketch of their key, and mostly created it. */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /** Number of sketches spilled because of the budget. */
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  private static final class Segment<K, T> {
+
+    /** In access order, least recently used first. */
+    final LinkedHashMap<K, Entry<K, T>> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    final long maxBytes;
+    long bytes;
+
+    Segment(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    /** Removes least recently used entries until within budget, except for {@code keep}. */
+    List<Entry<K, T>> evict(Entry<K, T> keep) {
+      List<Entry<K, T>> victims = new ArrayList<>();
+      Iterator<Map.Entry<K, Entry<K, T>>> it = map.entrySet().iterator();
+      while (bytes > maxBytes && it.hasNext()) {
+        Entry<K, T> entry = it.next().getValue();
+        if (entry != keep) {
+          it.remove();
+          bytes -= entry.bytes;
+          victims.add(entry);
+        }
+      }
+      return victims;
+    }
+  }
+
+  private static final class Entry<K, T> {
+
+    final K key;
+    final Segment<K, T> segment;
+    final ReentrantLock lock = new ReentrantLock();
+
+    /** Guarded by {@link #lock}. */
+    HyperLogLog<T> sketch;
+
+    /** Guarded by {@link #lock}. */
+    int puts;
+
+    /** Guarded by {@link #lock}, set once the entry left its segment. */
+    boolean evicted;
+
+    /** Guarded by the segment. */
+    int bytes;
+
+    Entry(K key, Segment<K, T> segment, HyperLogLog<T> sketch) {
+      this.key = key;
+      this.segment = segment;
+      this.sketch = Preconditions.checkNotNull(sketch, "null sketch");
+      this.bytes = sketch.serializedSize();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/** Static utilities over any number of sketches. */
+public final class HyperLogLogs {
+
+  /** Leaves per worker thread, so that idle workers can steal some. */
+  private static final int LEAVES_PER_THREAD = 4;
+
+  private HyperLogLogs() {}
+
+  /**
+   * Reads any format written by {@link HyperLogLog#toByteArray()} or one of the alternative
+   * formats, i.e. an {@link ExplicitHyperLogLog}, a {@link SparseHyperLogLog} or a {@link
+   * ClassicHyperLogLog}, told apart by the first byte.
+   */
+  public static <U> HyperLogLog<U> fromByteArray(byte[] bytes, Funnel<? super U> funnel) {
+    Preconditions.checkNotNull(bytes, "null bytes");
+    Preconditions.checkArgument(bytes.length > 0, "empty bytes");
+    switch (bytes[0]) {
+      case ExplicitHyperLogLog.MARK:
+      case ExplicitHyperLogLog.LEGACY_MARK:
+      case ExplicitHyperLogLog.COMPACT_MARK:
+        return ExplicitHyperLogLog.fromByteArray(bytes, funnel);
+      case SparseHyperLogLog.MARK:
+      case SparseHyperLogLog.LEGACY_MARK:
+        return SparseHyperLogLog.fromByteArray(bytes, funnel);
+      case ClassicHyperLogLog.MARK:
+      case ClassicHyperLogLog.LEGACY_MARK:
+      case ClassicHyperLogLog.COMPRESSED_MARK:
+        return ClassicHyperLogLog.fromByteArray(bytes, funnel);
+      default:
+        throw new IllegalArgumentException("unknown mark: " + bytes[0]);
+    }
+  }
+
+  /** Like {@link #unionAll(Iterable, ForkJoinPool)} in the common pool. */
+  public static <T> HyperLogLog<T> unionAll(Iterable<? extends HyperLogLog<T>> sketches) {
+    return unionAll(sketches, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * The union of all {@code sketches}, which are left unchanged. They are split into a few ranges
+   * per thread of {@code pool}, each range is merged into an accumulator of its own with {@link
+   * HyperLogLog#mergeFrom(HyperLogLog)}, and the accumulators are merged pairwise up the tree of
+   * ranges. Unlike a chain of {@link HyperLogLog#union(HyperLogLog)}, only one sketch is allocated
+   * per range, unless an accumulator must change its representation, e.g. when an {@link
+   * ExplicitHyperLogLog} meets a {@link ClassicHyperLogLog}.
+   *
+   * @throws IllegalArgumentException if there are no sketches or they can not be merged
+   */
+  public static <T> HyperLogLog<T> unionAll(
+      Iterable<? extends HyperLogLog<T>> sketches, ForkJoinPool pool) {
+    // a sketch united with itself is a copy the range owns
+    return unionAll(sketches, pool, s -> s.union(s), HyperLogLog::mergeFrom);
+  }
+
+  /** Like {@link #unionAll(Iterable, Funnel, ForkJoinPool)} in the common pool. */
+  public static <T> HyperLogLog<T> unionAll(Iterable<byte[]> bytes, Funnel<? super T> funnel) {
+    return unionAll(bytes, funnel, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Like {@link #unionAll(Iterable, ForkJoinPool)} over serialized sketches of {@link
+   * #fromByteArray(byte[], Funnel)}, which are deserialized in parallel too. Sketches in the
+   * {@link ClassicHyperLogLog} format are merged through a {@link ClassicHyperLogLogView} without
+   * copying their registers.
+   */
+  public static <T> HyperLogLog<T> unionAll(
+      Iterable<byte[]> bytes, Funnel<? super T> funnel, ForkJoinPool pool) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    return unionAll(
+        bytes,
+        pool,
+        b -> fromByteArray(b, funnel),
+        (HyperLogLog<T> acc, byte[] b) -> {
+          if (b.length > 0 && b[0] == ClassicHyperLogLog.MARK) {
+            return acc.mergeFrom(ClassicHyperLogLogView.<T>wrap(b, funnel).verifyChecksum());
+          }
+          return acc.mergeFrom(fromByteArray(b, funnel));
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E, T> HyperLogLog<T> unionAll(
+      Iterable<? extends E> elements,
+      ForkJoinPool pool,
+      Function<? super E, HyperLogLog<T>> first,
+      BiFunction<HyperLogLog<T>, ? super E, HyperLogLog<T>> merge) {
+    Preconditions.checkNotNull(elements, "null elements");
+    Preconditions.checkNotNull(pool, "null pool");
+    List<? extends E> list;
+    if (elements instanceof List && elements instanceof RandomAccess) {
+      list = (List<? extends E>) elements;
+    } else {
+      List<E> copy = new ArrayList<>();
+      elements.forEach(copy::add);
+      list = copy;
+    }
+    Preconditions.checkArgument(!list.isEmpty(), "no sketches");
+    int leaves = pool.getParallelism() * LEAVES_PER_THREAD;
+    int leafSize = Math.max((list.size() + leaves - 1) / leaves, 1);
+    return pool.invoke(new UnionTask<>(list, 0, list.size(), leafSize, first, merge));
+  }
+
+  private static <E> E checkNotNull(E element) {
+    return Preconditions.checkNotNull(element, "null sketch");
+  }
+
+  private static final class UnionTask<E, T> extends RecursiveTask<HyperLogLog<T>> {
+
+    private static final long serialVersionUID = 6014392573841716385L;
+
+    private final List<? extends E> elements;
+    private final int from;
+    private final int to;
+    private final int leafSize;
+    private final Function<? super E, HyperLogLog<T>> first;
+    private final BiFunction<HyperLogLog<T>, ? super E, HyperLogLog<T>> merge;
+
+    UnionTask(
+        List<? extends E> elements,
+        int from,
+        int to,
+        int leafSize,
+        Function<? super E, HyperLogLog<T>> first,
+        BiFunction<HyperLogLog<T>, ? super E, HyperLogLog<T>> merge) {
+      this.elements = elements;
+      this.from = from;
+      this.to = to;
+      this.leafSize = leafSize;
+      this.first = first;
+      this.merge = merge;
+    }
+
+    @Override
+    protected HyperLogLog<T> compute() {
+      if (to - from <= leafSize) {
+        HyperLogLog<T> acc = first.apply(checkNotNull(elements.get(from)));
+        for (int i = from + 1; i < to; ++i) {
+          acc = merge.apply(acc, checkNotNull(elements.get(i)));
+        }
+        return acc;
+      }
+      int mid = (from + to) >>> 1;
+      UnionTask<E, T> right = new UnionTask<>(elements, mid, to, leafSize, first, merge);
+      right.fork();
+      HyperLogLog<T> left =
+          new UnionTask<>(elements, from, mid, leafSize, first, merge).compute();
+      return left.mergeFrom(right.join());
+    }
+  }
+}
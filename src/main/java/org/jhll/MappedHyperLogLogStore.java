@@ -0,0 +1,426 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.DirectAlign8UIntArray;
+import org.jhll.util.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Dense sketches keyed by {@code long}, laid out in a memory-mapped file so that a restart only
+ * remaps it. Every entry is an 8-byte key followed by a slot of {@link
+ * ClassicHyperLogLog#requiredBytes(int, int)} bytes in the {@link ClassicHyperLogLog} format, all
+ * operations read and write the mapped pages directly. Entries form an open-addressing hash table
+ * with linear probing, its capacity is fixed when the file is created and at most 3/4 of its
+ * entries are used, so that probes for absent keys stay short.
+ *
+ * <p>Not thread-safe. Other kinds of keys can be fingerprinted into a {@code long}, e.g. with
+ * {@link HashStrategy#hashChars(CharSequence)}, keys with equal fingerprints share a sketch.
+ *
+ * @param <T>
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class MappedHyperLogLogStore<T> implements Closeable {
+
+  private static final int MAGIC = 0x484c4c53;
+  /** 2 since slots are flagged by the {@link ClassicHyperLogLog#MARK} of the strategy layout. */
+  private static final byte VERSION = 2;
+  private static final int HEADER_BYTES = 64;
+  private static final int SIZE_OFFSET = 12;
+  private static final double MAX_LOAD_FACTOR = 0.75;
+
+  private final FileChannel channel;
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  private final int slotBytes;
+  private final int entryBytes;
+  /** Number of entries, a power of 2. */
+  private final int capacity;
+  /** Max number of keys, {@link #MAX_LOAD_FACTOR} of the entries. */
+  private final int maxSize;
+  private final int chunkShift;
+  private final MappedByteBuffer header;
+  private final MappedByteBuffer[] chunks;
+  private int size;
+
+  private MappedHyperLogLogStore(
+      FileChannel channel,
+      Funnel<? super T> funnel,
+      HashStrategy hashStrategy,
+      int log2m,
+      int registerWidth,
+      int capacity)
+      throws IOException {
+    this.channel = channel;
+    this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
+    this.log2m = log2m;
+    this.registerWidth = registerWidth;
+    this.slotBytes = ClassicHyperLogLog.requiredBytes(log2m, registerWidth);
+    this.entryBytes = slotBytes + Long.BYTES;
+    this.capacity = capacity;
+    this.maxSize = (int) (capacity * MAX_LOAD_FACTOR);
+    // entries never span two mappings, each is at most 2GB
+    int entriesPerChunk =
+        Math.min(capacity, Integer.highestOneBit(Integer.MAX_VALUE / entryBytes));
+    this.chunkShift = Integer.numberOfTrailingZeros(entriesPerChunk);
+    this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+    this.chunks = new MappedByteBuffer[capacity >>> chunkShift];
+    long chunkBytes = (long) entriesPerChunk * entryBytes;
+    for (int i = 0; i < chunks.length; ++i) {
+      chunks[i] =
+          channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * chunkBytes, chunkBytes);
+    }
+  }
+
+  /**
+   * Creates a store in a new file, sized for {@code expectedKeys} keys. The file is sparse on most
+   * file systems, so untouched entries cost no disk space.
+   */
+  public static <U> MappedHyperLogLogStore<U> create(
+      Path file,
+      Funnel<? super U> funnel,
+      int log2m,
+      int registerWidth,
+      HashStrategy hashStrategy,
+      int expectedKeys)
+      throws IOException {
+    Preconditions.checkNotNull(file, "null file");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    checkLayout(log2m, registerWidth);
+    Preconditions.checkArgument(expectedKeys > 0, "illegal expectedKeys: %s", expectedKeys);
+    long minCapacity = (long) Math.ceil(expectedKeys / MAX_LOAD_FACTOR);
+    Preconditions.checkArgument(minCapacity <= 1 << 30, "too many keys: %s", expectedKeys);
+    int capacity = Math.max(Integer.highestOneBit((int) minCapacity - 1) << 1, 1);
+    FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      long entryBytes = ClassicHyperLogLog.requiredBytes(log2m, registerWidth) + Long.BYTES;
+      ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+      h.putInt(MAGIC);
+      h.put(VERSION);
+      h.put(hashStrategy.id());
+      h.put((byte) log2m);
+      h.put((byte) registerWidth);
+      h.putInt(capacity);
+      h.putInt(0);
+      h.clear();
+      channel.write(h, 0);
+      // extends the file without writing the entries
+      channel.write(ByteBuffer.allocate(1), HEADER_BYTES + capacity * entryBytes - 1);
+      return new MappedHyperLogLogStore<>(
+          channel, funnel, hashStrategy, log2m, registerWidth, capacity);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static void checkLayout(int log2m, int registerWidth) {
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+  }
+
+  public static <U> MappedHyperLogLogStore<U> create(
+      Path file, Funnel<? super U> funnel, int log2m, int registerWidth, int expectedKeys)
+      throws IOException {
+    return create(
+        file, funnel, log2m, registerWidth, HashStrategy.defaultStrategy(), expectedKeys);
+  }
+
+  /**
+   * Opens a file written by a store, only the header is read. Its fields are checked against the
+   * ones {@link #create(Path, Funnel, int, int, HashStrategy, int)} may write and the file size
+   * before anything is mapped.
+   */
+  public static <U> MappedHyperLogLogStore<U> open(Path file, Funnel<? super U> funnel)
+      throws IOException {
+    Preconditions.checkNotNull(file, "null file");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+      while (h.hasRemaining() && channel.read(h, h.position()) >= 0) {}
+      Preconditions.checkArgument(!h.hasRemaining(), "truncated header");
+      h.flip();
+      Preconditions.checkArgument(h.getInt() == MAGIC, "not a sketch store: %s", file);
+      byte version = h.get();
+      Preconditions.checkArgument(version == VERSION, "unknown version: %s", version);
+      HashStrategy hashStrategy = HashStrategy.fromId(h.get());
+      int log2m = h.get();
+      int registerWidth = h.get();
+      checkLayout(log2m, registerWidth);
+      int capacity = h.getInt();
+      Preconditions.checkArgument(
+          capacity > 0 && capacity <= 1 << 30 && Integer.bitCount(capacity) == 1,
+          "illegal capacity(should be a power of 2 within [1, 2^30]): %s",
+          capacity);
+      int size = h.getInt();
+      Preconditions.checkArgument(
+          size >= 0 && size <= (int) (capacity * MAX_LOAD_FACTOR),
+          "illegal size: %s of capacity: %s",
+          size,
+          capacity);
+      long entryBytes = ClassicHyperLogLog.requiredBytes(log2m, registerWidth) + Long.BYTES;
+      Preconditions.checkArgument(
+          channel.size() >= HEADER_BYTES + capacity * entryBytes,
+          "file size should be at least: %s, but: %s",
+          HEADER_BYTES + capacity * entryBytes,
+          channel.size());
+      MappedHyperLogLogStore<U> store =
+          new MappedHyperLogLogStore<>(
+              channel, funnel, hashStrategy, log2m, registerWidth, capacity);
+      store.size = size;
+      return store;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  /** Number of keys. */
+  public int size() {
+    return size;
+  }
+
+  /** Max number of keys, new keys are refused once reached. */
+  public int capacity() {
+    return maxSize;
+  }
+
+  private ByteBuffer chunk(int entry) {
+    return chunks[entry >>> chunkShift];
+  }
+
+  /** Offset of the entry's slot in its chunk. */
+  private int slotOffset(int entry) {
+    return (entry & ((1 << chunkShift) - 1)) * entryBytes + Long.BYTES;
+  }
+
+  private static int spread(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  /**
+   * The entry holding {@code key}, or {@code -1 - entry} of the free entry it would take, {@code
+   * -1 - capacity} if there is none.
+   */
+  private int find(long key) {
+    int mask = capacity - 1;
+    int entry = spread(key) & mask;
+    for (int probes = 0; probes < capacity; ++probes) {
+      ByteBuffer chunk = chunk(entry);
+      int offset = slotOffset(entry);
+      if (chunk.get(offset) != ClassicHyperLogLog.MARK) {
+        return -1 - entry;
+      }
+      if (chunk.getLong(offset - Long.BYTES) == key) {
+        return entry;
+      }
+      entry = (entry + 1) & mask;
+    }
+    return -1 - capacity;
+  }
+
+  private int findOrInsert(long key) {
+    int entry = find(key);
+    if (entry >= 0) {
+      return entry;
+    }
+    Preconditions.checkState(size < maxSize, "store is full: %s", maxSize);
+    entry = -1 - entry;
+    ByteBuffer chunk = chunk(entry);
+    int offset = slotOffset(entry);
+    chunk.putLong(offset - Long.BYTES, key);
+    chunk.put(offset + 1, hashStrategy.id());
+    chunk.put(offset + 2, ClassicHyperLogLog.makePrefix(log2m, registerWidth));
+    // the mark goes last, it flags the entry as used
+    chunk.put(offset, ClassicHyperLogLog.MARK);
+    header.putInt(SIZE_OFFSET, ++size);
+    return entry;
+  }
+
+  public boolean contains(long key) {
+    return find(key) >= 0;
+  }
+
+  public void put(long key, T value) {
+    long x = value != null ? hashStrategy.hashObject(value, funnel) : 0L;
+    putHash(key, x);
+  }
+
+  /** See {@link HyperLogLog#putHash(long)}. */
+  public void putHash(long key, long hash) {
+    int entry = findOrInsert(key);
+    int idx = (int) (hash >>> (Long.SIZE - log2m)); // First p bits of x
+    int v = ClassicHyperLogLog.rho(hash << log2m, registerWidth);
+    if (v > 0) {
+      DirectAlign8UIntArray.getAndSetMaxUnchecked(
+          chunk(entry), slotOffset(entry) + 3, registerWidth, idx, v);
+    }
+  }
+
+  /** See {@link HyperLogLog#putLong(long)}. */
+  public void putLong(long key, long value) {
+    putHash(key, hashStrategy.hashLong(value));
+  }
+
+  /** Estimated cardinality of the sketch of {@code key}, 0 if there is none. */
+  public long estimate(long key) {
+    int entry = find(key);
+    if (entry < 0) {
+      return 0;
+    }
+    ByteBuffer chunk = chunk(entry);
+    int offset = slotOffset(entry) + 3;
+    int m = 1 << log2m;
+    double x = 0;
+    int v = 0;
+    for (int i = 0; i < m; ++i) {
+      int s = DirectAlign8UIntArray.get(chunk, offset, registerWidth, i);
+      x += 1D / ClassicHyperLogLog.fastPowerOf2(s);
+      if (s == 0) {
+        ++v;
+      }
+    }
+    return ClassicHyperLogLog.estimate(m, x, v);
+  }
+
+  /**
+   * Merges a serialized sketch into the one of {@code key}. Dense input of the same {@code log2m}
+   * and {@code registerWidth} is merged word by word in place, compressed or legacy dense, sparse
+   * and explicit input is replayed.
+   */
+  public void merge(long key, byte[] bytes) {
+    Preconditions.checkNotNull(bytes, "null bytes");
+    Preconditions.checkArgument(bytes.length > 0, "empty bytes");
+    switch (bytes[0]) {
+      case ClassicHyperLogLog.MARK:
+        // only the header and the checksum are checked, the registers are merged from the bytes
+        ClassicHyperLogLogView<T> view =
+            ClassicHyperLogLogView.<T>wrap(bytes, funnel).verifyChecksum();
+        Preconditions.checkArgument(
+            view.hashStrategy() == hashStrategy,
+            "hash strategy not match, expected: %s, actual: %s",
+            hashStrategy,
+            view.hashStrategy());
+        checkConfig(view.log2m(), view.registerWidth());
+        int entry = findOrInsert(key);
+        DirectAlign8UIntArray.setMaxAll(
+            chunk(entry),
+            slotOffset(entry) + 3,
+            ByteBuffer.wrap(bytes),
+            3,
+            1 << log2m,
+            registerWidth);
+        break;
+      case ClassicHyperLogLog.LEGACY_MARK:
+      case ClassicHyperLogLog.COMPRESSED_MARK:
+        ClassicHyperLogLog<T> compressed =
+            ClassicHyperLogLog.fromByteArray(bytes, funnel, hashStrategy);
+        checkConfig(compressed.log2m(), compressed.registerWidth());
+        int compressedEntry = findOrInsert(key);
+        ByteBuffer compressedChunk = chunk(compressedEntry);
+        int compressedOffset = slotOffset(compressedEntry) + 3;
+        compressed.forEachRegister(
+            (index, value) ->
+                DirectAlign8UIntArray.getAndSetMaxUnchecked(
+                    compressedChunk, compressedOffset, registerWidth, index, value));
+        break;
+      case SparseHyperLogLog.MARK:
+      case SparseHyperLogLog.LEGACY_MARK:
+        SparseHyperLogLog<T> sparse = SparseHyperLogLog.fromByteArray(bytes, funnel, hashStrategy);
+        checkConfig(sparse.log2m(), sparse.registerWidth());
+        int sparseEntry = findOrInsert(key);
+        ByteBuffer chunk = chunk(sparseEntry);
+        int offset = slotOffset(sparseEntry) + 3;
+        sparse.forEachRegister(
+            (index, value) ->
+                DirectAlign8UIntArray.getAndSetMaxUnchecked(
+                    chunk, offset, registerWidth, index, value));
+        break;
+      case ExplicitHyperLogLog.MARK:
+      case ExplicitHyperLogLog.LEGACY_MARK:
+      case ExplicitHyperLogLog.COMPACT_MARK:
+        ExplicitHyperLogLog.fromByteArray(bytes, funnel, hashStrategy)
+            .forEachValue(hash -> putHash(key, hash));
+        break;
+      default:
+        throw new IllegalArgumentException("unknown mark: " + bytes[0]);
+    }
+  }
+
+  private void checkConfig(int actualLog2m, int actualRegisterWidth) {
+    Preconditions.checkArgument(
+        log2m == actualLog2m && registerWidth == actualRegisterWidth,
+        "log2m/registerWidth not match, expected: %s/%s, actual: %s/%s",
+        log2m,
+        registerWidth,
+        actualLog2m,
+        actualRegisterWidth);
+  }
+
+  /** The sketch of {@code key} in the {@link ClassicHyperLogLog} format, {@code null} if none. */
+  public byte[] toByteArray(long key) {
+    int entry = find(key);
+    if (entry < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[slotBytes];
+    ByteBuffer slot = chunk(entry).duplicate();
+    slot.position(slotOffset(entry));
+    slot.get(bytes, 0, slotBytes - 1);
+    bytes[slotBytes - 1] = Utils.checksum(bytes, 0, slotBytes - 1);
+    return bytes;
+  }
+
+  /** A heap copy of the sketch of {@code key}, {@code null} if none. */
+  public ClassicHyperLogLog<T> get(long key) {
+    byte[] bytes = toByteArray(key);
+    return bytes == null ? null : ClassicHyperLogLog.fromByteArray(bytes, funnel);
+  }
+
+  /** Writes all changes to the storage device. */
+  public void force() {
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+    header.force();
+  }
+
+  /**
+   * Closes the file, changes not {@link #force() forced} are still written by the operating
+   * system. The mapping itself is released once this store is garbage collected.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
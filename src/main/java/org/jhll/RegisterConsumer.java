@@ -0,0 +1,7 @@
+package org.jhll;
+
+@FunctionalInterface
+interface RegisterConsumer {
+
+  void accept(int index, int value);
+}
@@ -0,0 +1,249 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumOutput;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Distinct count over a sliding window of time, e.g. the last hour in 60 buckets of one minute.
+ * Values go to a dense {@link ClassicHyperLogLog} of the bucket the clock is in, buckets form a
+ * ring and a bucket is cleared when the ring wraps around to it. A window is answered by folding
+ * the registers of its buckets with a register-wise max, without ever looking at values again.
+ *
+ * <p>A window covers whole buckets and includes the current one, which has only partially
+ * elapsed: with buckets of one minute, {@link #estimatedCardinality(int) estimatedCardinality(5)}
+ * counts between the last 4 and 5 minutes. Buckets are allocated on first use and kept for the
+ * life of the sketch, {@link #reset()} included.
+ *
+ * <p>Not thread-safe. The clock may go backwards, values are then put into the latest bucket.
+ *
+ * @param <T>
+ */
+public final class SlidingWindowHyperLogLog<T> implements HyperLogLog<T> {
+
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  private final long bucketMillis;
+  private final LongSupplier clock;
+  private final ClassicHyperLogLog<T>[] buckets;
+
+  /** Number of the bucket, i.e. time divided by its length, held by each slot of the ring. */
+  private final long[] bucketIds;
+
+  /** Latest bucket number seen. */
+  private long current = Long.MIN_VALUE;
+
+  /**
+   * @param funnel calc hash
+   * @param log2m see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param registerWidth see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param hashStrategy see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int,
+   *     HashStrategy)}
+   * @param buckets number of buckets of the largest window, each costs a dense register array
+   * @param bucketMillis length of a bucket, in the unit of {@code clock}
+   * @param clock current time, e.g. {@code System::currentTimeMillis}
+   */
+  public SlidingWindowHyperLogLog(
+      Funnel<? super T> funnel,
+      int log2m,
+      int registerWidth,
+      HashStrategy hashStrategy,
+      int buckets,
+      long bucketMillis,
+      LongSupplier clock) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    Preconditions.checkNotNull(clock, "null clock");
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+    Preconditions.checkArgument(buckets > 0, "illegal buckets: %s", buckets);
+    Preconditions.checkArgument(bucketMillis > 0, "illegal bucketMillis: %s", bucketMillis);
+    this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
+    this.log2m = log2m;
+    this.registerWidth = registerWidth;
+    this.bucketMillis = bucketMillis;
+    this.clock = clock;
+    this.buckets = newBuckets(buckets);
+    this.bucketIds = new long[buckets];
+  }
+
+  /** Arrays of a generic type can only be created raw, the array never leaves this sketch. */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <U> ClassicHyperLogLog<U>[] newBuckets(int n) {
+    return new ClassicHyperLogLog[n];
+  }
+
+  public SlidingWindowHyperLogLog(
+      Funnel<? super T> funnel, int log2m, int registerWidth, int buckets, long bucketMillis) {
+    this(
+        funnel,
+        log2m,
+        registerWidth,
+        HashStrategy.defaultStrategy(),
+        buckets,
+        bucketMillis,
+        System::currentTimeMillis);
+  }
+
+  /** Advances {@link #current} to the clock. */
+  private long tick() {
+    long id = Math.floorDiv(clock.getAsLong(), bucketMillis);
+    if (id > current) {
+      current = id;
+    }
+    return current;
+  }
+
+  private int slotOf(long id) {
+    return (int) Math.floorMod(id, (long) buckets.length);
+  }
+
+  /** The bucket of the clock, cleared first if it still holds an expired one. */
+  private ClassicHyperLogLog<T> bucket() {
+    long id = tick();
+    int slot = slotOf(id);
+    ClassicHyperLogLog<T> bucket = buckets[slot];
+    if (bucket == null) {
+      bucket = new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+      buckets[slot] = bucket;
+      bucketIds[slot] = id;
+    } else if (bucketIds[slot] != id) {
+      bucket.reset();
+      bucketIds[slot] = id;
+    }
+    return bucket;
+  }
+
+  @Override
+  public void put(T value) {
+    bucket().put(value);
+  }
+
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    bucket().putHash(hash);
+  }
+
+  /** Reads the clock once, all values go to the same bucket. */
+  @Override
+  public void putAll(long[] hashes, int offset, int length) {
+    bucket().putAll(hashes, offset, length);
+  }
+
+  /** Reads the clock once, all values go to the same bucket. */
+  @Override
+  public void putAllLongs(long[] values, int offset, int length) {
+    bucket().putAllLongs(values, offset, length);
+  }
+
+  /** Number of buckets of the largest window. */
+  public int buckets() {
+    return buckets.length;
+  }
+
+  /** Folds all live buckets, see {@link #toClassic(int)}. */
+  public ClassicHyperLogLog<T> toClassic() {
+    return toClassic(buckets.length);
+  }
+
+  /**
+   * Folds the last {@code windowBuckets} buckets, the current one included, into a new sketch.
+   * Costs one register-wise max per live bucket.
+   */
+  public ClassicHyperLogLog<T> toClassic(int windowBuckets) {
+    Preconditions.checkArgument(
+        windowBuckets > 0 && windowBuckets <= buckets.length,
+        "windowBuckets should be within [1, %s]: %s",
+        buckets.length,
+        windowBuckets);
+    tick();
+    ClassicHyperLogLog<T> classic =
+        new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+    for (long id = current - windowBuckets + 1; id <= current; ++id) {
+      int slot = slotOf(id);
+      if (buckets[slot] != null && bucketIds[slot] == id) {
+        classic.mergeFrom(buckets[slot]);
+      }
+    }
+    return classic;
+  }
+
+  /**
+   * Cardinality of the whole window, of a new sketch folded by {@link #toClassic()} on every call.
+   */
+  @Override
+  public long estimatedCardinality() {
+    return toClassic().estimatedCardinality();
+  }
+
+  /**
+   * Cardinality of the last {@code windowBuckets} buckets, of a new sketch folded by {@link
+   * #toClassic(int)} on every call.
+   */
+  public long estimatedCardinality(int windowBuckets) {
+    return toClassic(windowBuckets).estimatedCardinality();
+  }
+
+  @Override
+  public double relativeError() {
+    return 1.04 / Math.sqrt(1 << log2m);
+  }
+
+  /** Size of {@link #toByteArray()}, known without folding the buckets. */
+  @Override
+  public int serializedSize() {
+    return ClassicHyperLogLog.requiredBytes(log2m, registerWidth);
+  }
+
+  /** The {@link ClassicHyperLogLog} format of the whole window, buckets are not kept. */
+  @Override
+  public byte[] toByteArray() {
+    return toClassic().toByteArray();
+  }
+
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    toClassic().writeTo(out);
+  }
+
+  /** Unions the whole window, the result is a plain sketch. */
+  @Override
+  public HyperLogLog<T> union(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    HyperLogLog<T> that =
+        other instanceof SlidingWindowHyperLogLog
+            ? ((SlidingWindowHyperLogLog<T>) other).toClassic()
+            : other;
+    return toClassic().union(that);
+  }
+
+  /** Clears the buckets in place, their registers are reused by later puts. */
+  @Override
+  public void reset() {
+    for (int i = 0; i < buckets.length; ++i) {
+      if (buckets[i] != null) {
+        buckets[i].reset();
+      }
+    }
+    // no slot holds a live bucket until it is put into again
+    Arrays.fill(bucketIds, Long.MIN_VALUE);
+    current = Long.MIN_VALUE;
+  }
+}
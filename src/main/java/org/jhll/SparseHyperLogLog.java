@@ -0,0 +1,473 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.google.common.primitives.Ints;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumInput;
+import org.jhll.util.ChecksumOutput;
+import org.jhll.util.Utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The sparse representation from section 5.3 of
+ * https://static.googleusercontent.com/media/research.google.com/zh-CN//pubs/archive/40671.pdf
+ *
+ * <p>Only non-zero registers are kept, as (index, value) pairs sorted by index and encoded as
+ * varint deltas. New pairs go to a small insert buffer and are merged into the sorted list once
+ * the buffer is full. It uses the same precision as a {@link ClassicHyperLogLog} with equal {@code
+ * log2m} and {@code registerWidth}, so both always give the same estimate for the same input.
+ *
+ * @param <T>
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class SparseHyperLogLog<T> implements HyperLogLog<T> {
+
+  static final byte MARK = (byte) 0xd8;
+  /** See {@link ClassicHyperLogLog#LEGACY_MARK}. */
+  static final byte LEGACY_MARK = (byte) 0xd7;
+
+  private static final int MIN_BUFFER_SIZE = 8;
+  private static final int MAX_BUFFER_SIZE = 1024;
+
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  private final long[] buffer;
+  private int bufferSize;
+  private byte[] list;
+  private int listLength;
+  private int size;
+
+  /**
+   * @param funnel calc hash
+   * @param log2m see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param registerWidth see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param hashStrategy see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int,
+   *     HashStrategy)}
+   */
+  public SparseHyperLogLog(
+      Funnel<? super T> funnel, int log2m, int registerWidth, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+    this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
+    this.log2m = log2m;
+    this.registerWidth = registerWidth;
+    this.buffer =
+        new long[Math.min(MAX_BUFFER_SIZE, Math.max(MIN_BUFFER_SIZE, (1 << log2m) >>> 6))];
+    this.list = Utils.emptyByteArray();
+  }
+
+  public SparseHyperLogLog(Funnel<? super T> funnel, int log2m, int registerWidth) {
+    this(funnel, log2m, registerWidth, HashStrategy.defaultStrategy());
+  }
+
+  public SparseHyperLogLog(Funnel<? super T> funnel) {
+    this(funnel, 11, 5);
+  }
+
+  public static <U> SparseHyperLogLog<U> fromByteArray(byte[] bytes, Funnel<? super U> funnel) {
+    Preconditions.checkNotNull(bytes, "null bytes");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkArgument(bytes.length >= 7, "bytes length is at least 7: %s", bytes.length);
+    boolean legacy = bytes[0] == LEGACY_MARK;
+    Preconditions.checkArgument(
+        legacy || bytes[0] == MARK, "first byte should be: %s, but: %s", MARK, bytes[0]);
+    Preconditions.checkArgument(
+        legacy || bytes.length >= 8, "bytes length is at least 8: %s", bytes.length);
+    byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
+    Preconditions.checkArgument(
+        checksum == bytes[bytes.length - 1],
+        "checksum not match, expected: %s, actual: %s",
+        checksum,
+        bytes[bytes.length - 1]);
+    HashStrategy hashStrategy = legacy ? HashStrategy.murmur3() : HashStrategy.fromId(bytes[1]);
+    // the prefix follows the mark and the strategy if any
+    int p = legacy ? 1 : 2;
+    byte prefix = bytes[p];
+    SparseHyperLogLog<U> hyperLogLog =
+        new SparseHyperLogLog<>(
+            funnel,
+            ClassicHyperLogLog.log2mOf(prefix),
+            ClassicHyperLogLog.registerWidthOf(prefix),
+            hashStrategy);
+    hyperLogLog.size = Ints.fromBytes(bytes[p + 1], bytes[p + 2], bytes[p + 3], bytes[p + 4]);
+    hyperLogLog.list = Arrays.copyOfRange(bytes, p + 5, bytes.length - 1);
+    hyperLogLog.listLength = hyperLogLog.list.length;
+    return hyperLogLog;
+  }
+
+  /**
+   * Streaming version of {@link #fromByteArray(byte[], Funnel)}, reads exactly the bytes written by
+   * {@link #writeTo(ChecksumOutput)}, or by {@link #toByteArray()} before hash strategies existed.
+   */
+  public static <U> SparseHyperLogLog<U> readFrom(ChecksumInput in, Funnel<? super U> funnel)
+      throws IOException {
+    Preconditions.checkNotNull(in, "null input");
+    Preconditions.checkNotNull(funnel, "null funnel");
+    byte mark = in.readByte();
+    Preconditions.checkArgument(
+        mark == MARK || mark == LEGACY_MARK, "first byte should be: %s, but: %s", MARK, mark);
+    return readBody(in, funnel, mark);
+  }
+
+  /** Reads what follows {@code mark}, the {@link #MARK} or the {@link #LEGACY_MARK}. */
+  static <U> SparseHyperLogLog<U> readBody(ChecksumInput in, Funnel<? super U> funnel, byte mark)
+      throws IOException {
+    HashStrategy hashStrategy =
+        mark == LEGACY_MARK ? HashStrategy.murmur3() : HashStrategy.fromId(in.readByte());
+    byte prefix = in.readByte();
+    SparseHyperLogLog<U> hyperLogLog =
+        new SparseHyperLogLog<>(
+            funnel,
+            ClassicHyperLogLog.log2mOf(prefix),
+            ClassicHyperLogLog.registerWidthOf(prefix),
+            hashStrategy);
+    int size = in.readInt();
+    Preconditions.checkArgument(size >= 0, "illegal size: %s", size);
+    // the list length is not serialized, but every pair is a varint of at least one byte: reading
+    // as many bytes as pairs are left never goes past the list
+    byte[] list = Utils.emptyByteArray();
+    int length = 0;
+    for (int left = size; left > 0; ) {
+      if (list.length - length < left) {
+        list = Arrays.copyOf(list, Math.max(length + left, list.length + (list.length >>> 1)));
+      }
+      in.readFully(list, length, left);
+      for (int end = length + left; length < end; ++length) {
+        if (list[length] >= 0) {
+          --left;
+        }
+      }
+    }
+    hyperLogLog.size = size;
+    hyperLogLog.list = list;
+    hyperLogLog.listLength = length;
+    in.verifyChecksum();
+    return hyperLogLog;
+  }
+
+  /** Like {@link #fromByteArray(byte[], Funnel)}, but refuses sketches of another hash strategy. */
+  public static <U> SparseHyperLogLog<U> fromByteArray(
+      byte[] bytes, Funnel<? super U> funnel, HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    SparseHyperLogLog<U> hyperLogLog = fromByteArray(bytes, funnel);
+    Preconditions.checkArgument(
+        hyperLogLog.hashStrategy == hashStrategy,
+        "hash strategy not match, expected: %s, actual: %s",
+        hashStrategy,
+        hyperLogLog.hashStrategy);
+    return hyperLogLog;
+  }
+
+  int log2m() {
+    return log2m;
+  }
+
+  int registerWidth() {
+    return registerWidth;
+  }
+
+  @Override
+  public void put(T value) {
+    long x = value != null ? hashStrategy.hashObject(value, funnel) : 0L;
+    putX(x);
+  }
+
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    putX(hash);
+  }
+
+  void putX(long x) {
+    int idx = (int) (x >>> (Long.SIZE - log2m)); // First p bits of x
+    int v = ClassicHyperLogLog.rho(x << log2m, registerWidth);
+    if (v > 0) {
+      putRegister(idx, v);
+    }
+  }
+
+  private void putRegister(int index, int value) {
+    buffer[bufferSize++] = ((long) index << registerWidth) | value;
+    if (bufferSize == buffer.length) {
+      flush();
+    }
+  }
+
+  /** Merges the insert buffer into the sorted list, keeping the max value of every index. */
+  private void flush() {
+    if (bufferSize == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, bufferSize);
+    int maxEntryBytes = Utils.varintSize(Utils.mask64(log2m + registerWidth));
+    ListWriter writer = new ListWriter(listLength + bufferSize * maxEntryBytes, registerWidth);
+    ListReader reader = new ListReader(list, size, registerWidth);
+    int i = 0;
+    boolean hasNext = reader.next();
+    while (hasNext || i < bufferSize) {
+      if (hasNext && (i == bufferSize || reader.key() <= buffer[i])) {
+        writer.write(reader.index, reader.value);
+        hasNext = reader.next();
+      } else {
+        long key = buffer[i++];
+        writer.write((int) (key >>> registerWidth), (int) (key & Utils.mask64(registerWidth)));
+      }
+    }
+    writer.finish();
+    list = writer.output;
+    listLength = writer.offset;
+    size = writer.count;
+    bufferSize = 0;
+  }
+
+  /** Serialized size as of the last buffer flush, cheap enough to be checked on every put. */
+  int compactSize() {
+    return listLength + 8;
+  }
+
+  void forEachRegister(RegisterConsumer consumer) {
+    Preconditions.checkNotNull(consumer);
+    flush();
+    ListReader reader = new ListReader(list, size, registerWidth);
+    while (reader.next()) {
+      consumer.accept(reader.index, reader.value);
+    }
+  }
+
+  @Override
+  public long estimatedCardinality() {
+    flush();
+    int m = 1 << log2m;
+    int v = m - size;
+    double x = v;
+    ListReader reader = new ListReader(list, size, registerWidth);
+    while (reader.next()) {
+      x += 1D / ClassicHyperLogLog.fastPowerOf2(reader.value);
+    }
+    return ClassicHyperLogLog.estimate(m, x, v);
+  }
+
+  @Override
+  public double relativeError() {
+    return 1.04 / Math.sqrt(1 << log2m);
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    flush();
+    byte[] bytes = new byte[listLength + 8];
+    bytes[0] = MARK;
+    bytes[1] = hashStrategy.id();
+    bytes[2] = ClassicHyperLogLog.makePrefix(log2m, registerWidth);
+    System.arraycopy(Ints.toByteArray(size), 0, bytes, 3, 4);
+    System.arraycopy(list, 0, bytes, 7, listLength);
+    byte checksum = Utils.checksum(bytes, 0, bytes.length - 1);
+    bytes[bytes.length - 1] = checksum;
+    return bytes;
+  }
+
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    Preconditions.checkNotNull(out, "null output");
+    flush();
+    out.writeByte(MARK);
+    out.writeByte(hashStrategy.id());
+    out.writeByte(ClassicHyperLogLog.makePrefix(log2m, registerWidth));
+    out.writeInt(size);
+    out.write(list, 0, listLength);
+    out.writeChecksum();
+  }
+
+  @Override
+  public HyperLogLog<T> union(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
+    if (other instanceof SparseHyperLogLog) {
+      return unionSparse((SparseHyperLogLog<T>) other);
+    }
+    if (other instanceof ExplicitHyperLogLog) {
+      return unionExplicit((ExplicitHyperLogLog<T>) other);
+    }
+    return other.union(this);
+  }
+
+  private SparseHyperLogLog<T> unionSparse(SparseHyperLogLog<T> other) {
+    Preconditions.checkArgument(log2m == other.log2m, "log2m not match!");
+    SparseHyperLogLog<T> result =
+        new SparseHyperLogLog<>(
+            funnel, log2m, Math.max(registerWidth, other.registerWidth), hashStrategy);
+    forEachRegister(result::putRegister);
+    other.forEachRegister(result::putRegister);
+    return result;
+  }
+
+  private SparseHyperLogLog<T> unionExplicit(ExplicitHyperLogLog<T> other) {
+    flush();
+    SparseHyperLogLog<T> result =
+        new SparseHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+    result.list = Arrays.copyOf(list, listLength);
+    result.listLength = listLength;
+    result.size = size;
+    other.forEachValue(result::putX);
+    return result;
+  }
+
+  /**
+   * Merges {@link ExplicitHyperLogLog}s and sparse sketches with no wider registers in place, any
+   * other sketch gives a new one like {@link #union(HyperLogLog)} does.
+   */
+  @Override
+  public HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
+    if (other instanceof AdaptiveHyperLogLog) {
+      return mergeFrom(((AdaptiveHyperLogLog<T>) other).delegate());
+    }
+    if (other instanceof SparseHyperLogLog) {
+      SparseHyperLogLog<T> that = (SparseHyperLogLog<T>) other;
+      Preconditions.checkArgument(log2m == that.log2m, "log2m not match!");
+      if (registerWidth >= that.registerWidth) {
+        that.forEachRegister(this::putRegister);
+        return this;
+      }
+    }
+    if (other instanceof ExplicitHyperLogLog) {
+      ((ExplicitHyperLogLog<T>) other).forEachValue(this::putX);
+      return this;
+    }
+    return union(other);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    SparseHyperLogLog<?> that = (SparseHyperLogLog<?>) o;
+    flush();
+    that.flush();
+    if (log2m != that.log2m
+        || registerWidth != that.registerWidth
+        || hashStrategy != that.hashStrategy
+        || size != that.size
+        || listLength != that.listLength
+        || !funnel.equals(that.funnel)) {
+      return false;
+    }
+    for (int i = 0; i < listLength; ++i) {
+      if (list[i] != that.list[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    flush();
+    int result = Objects.hash(funnel, hashStrategy, log2m, registerWidth);
+    for (int i = 0; i < listLength; ++i) {
+      result = 31 * result + list[i];
+    }
+    return result;
+  }
+
+  @Override
+  public int serializedSize() {
+    flush();
+    return listLength + 8;
+  }
+
+  @Override
+  public void reset() {
+    bufferSize = 0;
+    list = Utils.emptyByteArray();
+    listLength = 0;
+    size = 0;
+  }
+
+  private static final class ListReader {
+
+    private final byte[] input;
+    private final int width;
+    private int remaining;
+    private int offset;
+    private int index;
+    private int value;
+
+    ListReader(byte[] input, int size, int width) {
+      this.input = input;
+      this.remaining = size;
+      this.width = width;
+    }
+
+    boolean next() {
+      if (remaining == 0) {
+        return false;
+      }
+      long n = Utils.readVarint(input, offset);
+      offset += Utils.varintSize(n);
+      index += (int) (n >>> width);
+      value = (int) (n & Utils.mask64(width));
+      --remaining;
+      return true;
+    }
+
+    long key() {
+      return ((long) index << width) | value;
+    }
+  }
+
+  private static final class ListWriter {
+
+    private final byte[] output;
+    private final int width;
+    private int offset;
+    private int count;
+    private int lastIndex;
+    private int pendingIndex = -1;
+    private int pendingValue;
+
+    ListWriter(int capacity, int width) {
+      this.output = new byte[capacity];
+      this.width = width;
+    }
+
+    void write(int index, int value) {
+      if (index == pendingIndex) {
+        pendingValue = Math.max(pendingValue, value);
+        return;
+      }
+      finish();
+      pendingIndex = index;
+      pendingValue = value;
+    }
+
+    void finish() {
+      if (pendingIndex < 0) {
+        return;
+      }
+      long n = ((long) (pendingIndex - lastIndex) << width) | pendingValue;
+      offset = Utils.writeVarint(output, offset, n);
+      lastIndex = pendingIndex;
+      pendingIndex = -1;
+      ++count;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package org.jhll;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.AtomicUIntArray;
+import org.jhll.util.ChecksumOutput;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe sketch that, in the spirit of {@link java.util.concurrent.atomic.LongAdder}, keeps
+ * one register array per stripe. A thread only ever writes the stripe its id maps to, so hot
+ * registers are not bounced between cores. Reads ({@link #estimatedCardinality()}, {@link
+ * #toByteArray()}, {@link #union(HyperLogLog)}) fold all stripes with a register-wise max.
+ *
+ * <p>Stripes are allocated on first use and each costs as much as a dense register array, see
+ * {@link #sizeInBytes()}.
+ *
+ * @param <T>
+ */
+public final class StripedHyperLogLog<T> implements HyperLogLog<T> {
+
+  private final Funnel<? super T> funnel;
+  private final HashStrategy hashStrategy;
+  private final int log2m;
+  private final int registerWidth;
+  private final AtomicReferenceArray<AtomicUIntArray> stripes;
+
+  /**
+   * @param funnel calc hash
+   * @param log2m see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param registerWidth see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int)}
+   * @param stripes max number of register arrays, usually the number of writing threads
+   * @param hashStrategy see {@link ClassicHyperLogLog#ClassicHyperLogLog(Funnel, int, int,
+   *     HashStrategy)}
+   */
+  public StripedHyperLogLog(
+      Funnel<? super T> funnel,
+      int log2m,
+      int registerWidth,
+      int stripes,
+      HashStrategy hashStrategy) {
+    Preconditions.checkNotNull(funnel, "null funnel");
+    Preconditions.checkNotNull(hashStrategy, "null hashStrategy");
+    Preconditions.checkArgument(
+        log2m >= 4 && log2m <= 31, "illegal log2m(should be within [4, 31]): %s", log2m);
+    Preconditions.checkArgument(
+        registerWidth >= 1 && registerWidth <= 8,
+        "illegal registerWidth(should be within [1, 8]): %s",
+        registerWidth);
+    Preconditions.checkArgument(stripes > 0, "illegal stripes: %s", stripes);
+    this.funnel = funnel;
+    this.hashStrategy = hashStrategy;
+    this.log2m = log2m;
+    this.registerWidth = registerWidth;
+    this.stripes = new AtomicReferenceArray<>(stripes);
+  }
+
+  public StripedHyperLogLog(Funnel<? super T> funnel, int log2m, int registerWidth, int stripes) {
+    this(funnel, log2m, registerWidth, stripes, HashStrategy.defaultStrategy());
+  }
+
+  public StripedHyperLogLog(Funnel<? super T> funnel) {
+    this(funnel, 11, 5, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Reads the {@link ClassicHyperLogLog} format. */
+  public static <U> StripedHyperLogLog<U> fromByteArray(
+      byte[] bytes, Funnel<? super U> funnel, int stripes) {
+    ClassicHyperLogLog<U> classic = ClassicHyperLogLog.fromByteArray(bytes, funnel);
+    StripedHyperLogLog<U> hyperLogLog =
+        new StripedHyperLogLog<>(
+            funnel, classic.log2m(), classic.registerWidth(), stripes, classic.hashStrategy());
+    classic.forEachRegister(hyperLogLog.stripe()::set);
+    return hyperLogLog;
+  }
+
+  private AtomicUIntArray stripe() {
+    long h = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+    int i = (int) ((h >>> 32) % stripes.length());
+    AtomicUIntArray stripe = stripes.get(i);
+    if (stripe == null) {
+      stripe = new AtomicUIntArray(1 << log2m, registerWidth);
+      if (!stripes.compareAndSet(i, null, stripe)) {
+        stripe = stripes.get(i);
+      }
+    }
+    return stripe;
+  }
+
+  private int foldRegister(int index) {
+    int max = 0;
+    for (int i = 0; i < stripes.length(); ++i) {
+      AtomicUIntArray stripe = stripes.get(i);
+      if (stripe != null) {
+        max = Math.max(max, stripe.get(index));
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public void put(T value) {
+    long x = value != null ? hashStrategy.hashObject(value, funnel) : 0L;
+    putX(x);
+  }
+
+  @Override
+  public HashStrategy hashStrategy() {
+    return hashStrategy;
+  }
+
+  @Override
+  public void putHash(long hash) {
+    putX(hash);
+  }
+
+  private void putX(long x) {
+    int idx = (int) (x >>> (Long.SIZE - log2m)); // First p bits of x
+    int v = ClassicHyperLogLog.rho(x << log2m, registerWidth);
+    if (v > 0) {
+      stripe().setMax(idx, v);
+    }
+  }
+
+  /** Heap bytes held by the register arrays of all allocated stripes. */
+  public long sizeInBytes() {
+    long n = 0;
+    for (int i = 0; i < stripes.length(); ++i) {
+      if (stripes.get(i) != null) {
+        n += (long) AtomicUIntArray.requiredLongs(1 << log2m, registerWidth) << 3;
+      }
+    }
+    return n;
+  }
+
+  /** Folds all stripes into a point-in-time copy. */
+  public ClassicHyperLogLog<T> toClassic() {
+    ClassicHyperLogLog<T> classic =
+        new ClassicHyperLogLog<>(funnel, log2m, registerWidth, hashStrategy);
+    int m = 1 << log2m;
+    for (int i = 0; i < m; ++i) {
+      int v = foldRegister(i);
+      if (v != 0) {
+        classic.mergeRegister(i, v);
+      }
+    }
+    return classic;
+  }
+
+  @Override
+  public long estimatedCardinality() {
+    int m = 1 << log2m;
+    double x = 0;
+    int v = 0;
+    for (int i = 0; i < m; ++i) {
+      int s = foldRegister(i);
+      x += 1D / ClassicHyperLogLog.fastPowerOf2(s);
+      if (s == 0) {
+        ++v;
+      }
+    }
+    return ClassicHyperLogLog.estimate(m, x, v);
+  }
+
+  @Override
+  public double relativeError() {
+    return 1.04 / Math.sqrt(1 << log2m);
+  }
+
+  @Override
+  public int serializedSize() {
+    return ClassicHyperLogLog.requiredBytes(log2m, registerWidth);
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    return toClassic().toByteArray();
+  }
+
+  @Override
+  public void writeTo(ChecksumOutput out) throws IOException {
+    toClassic().writeTo(out);
+  }
+
+  /** Unions the folded stripes, the result is a plain, not thread-safe sketch. */
+  @Override
+  public HyperLogLog<T> union(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    HyperLogLog<T> that =
+        other instanceof StripedHyperLogLog ? ((StripedHyperLogLog<T>) other).toClassic() : other;
+    return toClassic().union(that);
+  }
+
+  /**
+   * Merges in place and thread-safely unless {@code other} has wider registers, in which case the
+   * result is a plain sketch like {@link #union(HyperLogLog)} returns.
+   */
+  @Override
+  public HyperLogLog<T> mergeFrom(HyperLogLog<T> other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(hashStrategy == other.hashStrategy(), "hash strategy not match!");
+    HyperLogLog<T> that = other;
+    if (that instanceof AdaptiveHyperLogLog) {
+      that = ((AdaptiveHyperLogLog<T>) that).delegate();
+    } else if (that instanceof ConcurrentHyperLogLog) {
+      that = ((ConcurrentHyperLogLog<T>) that).toClassic();
+    } else if (that instanceof StripedHyperLogLog) {
+      that = ((StripedHyperLogLog<T>) that).toClassic();
+    }
+    if (that instanceof ExplicitHyperLogLog) {
+      ((ExplicitHyperLogLog<T>) that).forEachValue(this::putX);
+      return this;
+    }
+    if (that instanceof ClassicHyperLogLog) {
+      ClassicHyperLogLog<T> classic = (ClassicHyperLogLog<T>) that;
+      Preconditions.checkArgument(log2m == classic.log2m(), "log2m not match!");
+      if (registerWidth >= classic.registerWidth()) {
+        classic.forEachRegister(stripe()::setMax);
+        return this;
+      }
+    }
+    if (that instanceof ClassicHyperLogLogView) {
+      ClassicHyperLogLogView<T> view = (ClassicHyperLogLogView<T>) that;
+      Preconditions.checkArgument(log2m == view.log2m(), "log2m not match!");
+      if (registerWidth >= view.registerWidth()) {
+        view.forEachRegister(stripe()::setMax);
+        return this;
+      }
+    }
+    if (that instanceof SparseHyperLogLog) {
+      SparseHyperLogLog<T> sparse = (SparseHyperLogLog<T>) that;
+      Preconditions.checkArgument(log2m == sparse.log2m(), "log2m not match!");
+      if (registerWidth >= sparse.registerWidth()) {
+        sparse.forEachRegister(stripe()::setMax);
+        return this;
+      }
+    }
+    return union(other);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    StripedHyperLogLog<?> that = (StripedHyperLogLog<?>) o;
+    return log2m == that.log2m
+        && registerWidth == that.registerWidth
+        && hashStrategy == that.hashStrategy
+        && funnel.equals(that.funnel)
+        && toClassic().equals(that.toClassic());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(funnel, hashStrategy, log2m, registerWidth, toClassic());
+  }
+
+  /** Drops all stripes, not atomic as a whole: values put concurrently may or may not survive. */
+  @Override
+  public void reset() {
+    for (int i = 0; i < stripes.length(); ++i) {
+      stripes.set(i, null);
+    }
+  }
+}
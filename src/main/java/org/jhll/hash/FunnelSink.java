@@ -0,0 +1,126 @@
+package org.jhll.hash;
+
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.primitives.Ints;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Collects what a {@link com.google.common.hash.Funnel} writes, in the same little-endian byte
+ * order as Guava's hashers, so the bytes can be fed to any {@link HashStrategy}. Instances are
+ * reused per thread.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class FunnelSink implements PrimitiveSink {
+
+  private byte[] bytes = new byte[64];
+  private int size;
+
+  byte[] bytes() {
+    return bytes;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void reset() {
+    size = 0;
+  }
+
+  private void ensureCapacity(int n) {
+    if (size + n > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(size + n, Ints.saturatedCast(bytes.length * 2L)));
+    }
+  }
+
+  @Override
+  public PrimitiveSink putByte(byte b) {
+    ensureCapacity(1);
+    bytes[size++] = b;
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putBytes(byte[] bytes) {
+    return putBytes(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public PrimitiveSink putBytes(byte[] bytes, int off, int len) {
+    ensureCapacity(len);
+    System.arraycopy(bytes, off, this.bytes, size, len);
+    size += len;
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putBytes(ByteBuffer bytes) {
+    int len = bytes.remaining();
+    ensureCapacity(len);
+    bytes.get(this.bytes, size, len);
+    size += len;
+    return this;
+  }
+
+  private void putLittleEndian(long value, int n) {
+    ensureCapacity(n);
+    for (int i = 0; i < n; ++i) {
+      bytes[size++] = (byte) (value >>> (i << 3));
+    }
+  }
+
+  @Override
+  public PrimitiveSink putShort(short s) {
+    putLittleEndian(s, Short.BYTES);
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putInt(int i) {
+    putLittleEndian(i, Integer.BYTES);
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putLong(long l) {
+    putLittleEndian(l, Long.BYTES);
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putFloat(float f) {
+    return putInt(Float.floatToRawIntBits(f));
+  }
+
+  @Override
+  public PrimitiveSink putDouble(double d) {
+    return putLong(Double.doubleToRawLongBits(d));
+  }
+
+  @Override
+  public PrimitiveSink putBoolean(boolean b) {
+    return putByte(b ? (byte) 1 : (byte) 0);
+  }
+
+  @Override
+  public PrimitiveSink putChar(char c) {
+    putLittleEndian(c, Character.BYTES);
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putUnencodedChars(CharSequence charSequence) {
+    for (int i = 0, len = charSequence.length(); i < len; ++i) {
+      putChar(charSequence.charAt(i));
+    }
+    return this;
+  }
+
+  @Override
+  public PrimitiveSink putString(CharSequence charSequence, Charset charset) {
+    return putBytes(charSequence.toString().getBytes(charset));
+  }
+}
@@ -0,0 +1,107 @@
+package org.jhll.hash;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import net.openhft.hashing.Access;
+import net.openhft.hashing.LongHashFunction;
+
+import java.nio.ByteOrder;
+
+/**
+ * The 64-bit hash function a sketch is built with. Its {@link #id()} is written into the serialized
+ * sketch, sketches built with different strategies can neither be merged nor deserialized as each
+ * other.
+ *
+ * <p>Every strategy hashes the bytes a {@link Funnel} writes in little-endian order, so {@code
+ * hashLong(v)} equals {@code hashObject(v, Funnels.longFunnel())}, and so on for ints, byte arrays
+ * and unencoded chars. {@link #murmur3()} and {@link #farmHash()} give the same values as Guava's
+ * {@code murmur3_128().asLong()} and {@code farmHashFingerprint64()}.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class HashStrategy {
+
+  private static final HashStrategy MURMUR3 =
+      new HashStrategy((byte) 0, "murmur3_128", LongHashFunction.murmur_3());
+  private static final HashStrategy FARM_HASH =
+      new HashStrategy((byte) 1, "farmHashFingerprint64", LongHashFunction.farmNa());
+  private static final HashStrategy XX_HASH64 =
+      new HashStrategy((byte) 2, "xxHash64", LongHashFunction.xx());
+  private static final HashStrategy WY_HASH =
+      new HashStrategy((byte) 3, "wyHash", LongHashFunction.wy_3());
+  private static final HashStrategy[] STRATEGIES = {MURMUR3, FARM_HASH, XX_HASH64, WY_HASH};
+
+  private static final ThreadLocal<FunnelSink> SINK = ThreadLocal.withInitial(FunnelSink::new);
+
+  private final byte id;
+  private final String name;
+  private final LongHashFunction function;
+
+  private HashStrategy(byte id, String name, LongHashFunction function) {
+    this.id = id;
+    this.name = name;
+    this.function = function;
+  }
+
+  public static HashStrategy murmur3() {
+    return MURMUR3;
+  }
+
+  public static HashStrategy farmHash() {
+    return FARM_HASH;
+  }
+
+  public static HashStrategy xxHash64() {
+    return XX_HASH64;
+  }
+
+  public static HashStrategy wyHash() {
+    return WY_HASH;
+  }
+
+  /** The strategy used when none is given, {@link #farmHash()}. */
+  public static HashStrategy defaultStrategy() {
+    return FARM_HASH;
+  }
+
+  public static HashStrategy fromId(byte id) {
+    Preconditions.checkArgument(
+        id >= 0 && id < STRATEGIES.length, "unknown hash strategy id: %s", id);
+    return STRATEGIES[id];
+  }
+
+  public byte id() {
+    return id;
+  }
+
+  public long hashLong(long value) {
+    return function.hashLong(value);
+  }
+
+  public long hashInt(int value) {
+    return function.hashInt(value);
+  }
+
+  public long hashBytes(byte[] value, int offset, int length) {
+    return function.hashBytes(value, offset, length);
+  }
+
+  public long hashChars(CharSequence value) {
+    if (value instanceof String) {
+      return function.hashChars((String) value);
+    }
+    return function.hash(
+        value, Access.toCharSequence(ByteOrder.LITTLE_ENDIAN), 0, (long) value.length() << 1);
+  }
+
+  public <T> long hashObject(T value, Funnel<? super T> funnel) {
+    FunnelSink sink = SINK.get();
+    sink.reset();
+    funnel.funnel(value, sink);
+    return function.hashBytes(sink.bytes(), 0, sink.size());
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
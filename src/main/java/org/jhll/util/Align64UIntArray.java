@@ -7,12 +7,16 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.RandomAccess;
+import java.util.function.IntConsumer;
 
 public final class Align64UIntArray implements Serializable, Cloneable, RandomAccess {
 
   private static final int LOG2_OF_64 = 6;
   private static final long serialVersionUID = -1651310095059455236L;
 
+  /** Values decoded at a time by {@link #forEach(IntConsumer)} and {@link #histogram()}. */
+  private static final int BATCH = 512;
+
   private final int length;
   private final int width;
   private final long[] words;
@@ -54,6 +58,10 @@ public final class Align64UIntArray implements Serializable, Cloneable, RandomAc
 
   public int get(int index) {
     Preconditions.checkPositionIndex(index, length);
+    return getUnchecked(index);
+  }
+
+  private int getUnchecked(int index) {
     int w = width;
     int fromBits = index * w;
     int arrayOffset = fromBits >>> LOG2_OF_64;
@@ -72,6 +80,10 @@ public final class Align64UIntArray implements Serializable, Cloneable, RandomAc
   public void set(int index, int val) {
     Preconditions.checkPositionIndex(index, length);
     checkValue(val);
+    setUnchecked(index, val);
+  }
+
+  private void setUnchecked(int index, int val) {
     int w = width;
     int fromBits = index * w;
     int arrayOffset = fromBits >>> LOG2_OF_64;
@@ -89,14 +101,208 @@ public final class Align64UIntArray implements Serializable, Cloneable, RandomAc
     }
   }
 
+  /**
+   * Sets every value to the max of itself and the value at the same index of {@code other}. Works
+   * on {@code 64 / width} values at a time.
+   */
+  public void setMaxAll(Align64UIntArray other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(
+        length == other.length && width == other.width,
+        "length/width not match: %s/%s, %s/%s",
+        length,
+        width,
+        other.length,
+        other.width);
+    int w = width;
+    int lanes = Long.SIZE / w;
+    int nBits = lanes * w;
+    long highBits = Utils.laneHighBits(w, lanes);
+    int steps = length / lanes;
+    for (int s = 0, fromBits = 0; s < steps; ++s, fromBits += nBits) {
+      long x = readBits(words, fromBits) >>> (Long.SIZE - nBits);
+      long y = readBits(other.words, fromBits) >>> (Long.SIZE - nBits);
+      long z = Utils.laneMax(x, y, w, highBits);
+      if (z != x) {
+        writeBits(words, fromBits, z << (Long.SIZE - nBits), nBits);
+      }
+    }
+    for (int i = steps * lanes; i < length; ++i) {
+      int v = other.get(i);
+      if (v > get(i)) {
+        set(i, v);
+      }
+    }
+  }
+
+  /** The 64 bits starting at {@code fromBits}, zero-padded past the last word. */
+  private static long readBits(long[] words, int fromBits) {
+    int arrayOffset = fromBits >>> LOG2_OF_64;
+    int bitOffset = fromBits - (arrayOffset << LOG2_OF_64);
+    long n = words[arrayOffset] << bitOffset;
+    if (bitOffset != 0 && arrayOffset + 1 < words.length) {
+      n |= words[arrayOffset + 1] >>> (Long.SIZE - bitOffset);
+    }
+    return n;
+  }
+
+  /** Writes the highest {@code nBits} of {@code bits} starting at {@code fromBits}. */
+  private static void writeBits(long[] words, int fromBits, long bits, int nBits) {
+    int arrayOffset = fromBits >>> LOG2_OF_64;
+    int bitOffset = fromBits - (arrayOffset << LOG2_OF_64);
+    long m = -1L << (Long.SIZE - nBits);
+    words[arrayOffset] = (words[arrayOffset] & ~(m >>> bitOffset)) | (bits >>> bitOffset);
+    if (bitOffset + nBits > Long.SIZE) {
+      int shift = Long.SIZE - bitOffset;
+      words[arrayOffset + 1] = (words[arrayOffset + 1] & ~(m << shift)) | (bits << shift);
+    }
+  }
+
   public int[] toIntArray() {
     int[] a = new int[length];
-    for (int i = 0; i < a.length; ++i) {
-      a[i] = get(i);
-    }
+    decode(0, a, length);
     return a;
   }
 
+  /** Passes every value to {@code action}, in index order. */
+  public void forEach(IntConsumer action) {
+    Preconditions.checkNotNull(action);
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      decode(from, batch, n);
+      for (int i = 0; i < n; ++i) {
+        action.accept(batch[i]);
+      }
+    }
+  }
+
+  /** Reads {@code dst.length} values from {@code from} into {@code dst}. */
+  public void decodeRange(int from, int[] dst) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(from, from + dst.length, length);
+    decode(from, dst, dst.length);
+  }
+
+  /**
+   * Sets {@code src.length} values from {@code from} to the ones of {@code src}, {@code 64 /
+   * width} values at a time. All values are checked before any is written.
+   */
+  public void encodeRange(int from, int[] src) {
+    Preconditions.checkNotNull(src);
+    Preconditions.checkPositionIndexes(from, from + src.length, length);
+    for (int v : src) {
+      checkValue(v);
+    }
+    int w = width;
+    int lanes = Long.SIZE / w;
+    int nBits = lanes * w;
+    int steps = src.length / lanes;
+    int i = 0;
+    for (int s = 0, fromBits = from * w; s < steps; ++s, fromBits += nBits) {
+      long x = 0;
+      for (int end = i + lanes; i < end; ++i) {
+        x = (x << w) | src[i];
+      }
+      writeBits(words, fromBits, x << (Long.SIZE - nBits), nBits);
+    }
+    for (; i < src.length; ++i) {
+      setUnchecked(from + i, src[i]);
+    }
+  }
+
+  /** Number of values equal to each of {@code 0} to {@code 2^width - 1}, indexed by value. */
+  public int[] histogram() {
+    int[] h = new int[1 << width];
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      decode(from, batch, n);
+      for (int i = 0; i < n; ++i) {
+        ++h[batch[i]];
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Decodes the {@code n} values from {@code from} into {@code dst} without any check, reading the
+   * {@code 64 / width} values of a step with a single {@link #readBits(long[], int)}. Widths that
+   * divide 64 never straddle words and have unrolled decoders.
+   */
+  private void decode(int from, int[] dst, int n) {
+    int w = width;
+    int i = 0;
+    if (w == 4 && (from & 15) == 0) {
+      i = decode4(words, from >>> 4, dst, n);
+    } else if (w == 8 && (from & 7) == 0) {
+      i = decode8(words, from >>> 3, dst, n);
+    } else {
+      int lanes = Long.SIZE / w;
+      int steps = n / lanes;
+      for (int s = 0, fromBits = from * w; s < steps; ++s, fromBits += lanes * w) {
+        long x = readBits(words, fromBits);
+        for (int end = i + lanes; i < end; ++i) {
+          dst[i] = (int) (x >>> (Long.SIZE - w));
+          x <<= w;
+        }
+      }
+    }
+    for (; i < n; ++i) {
+      dst[i] = getUnchecked(from + i);
+    }
+  }
+
+  /**
+   * 16 values of 4 bits per word from word {@code offset}.
+   *
+   * @return number of values decoded
+   */
+  private static int decode4(long[] words, int offset, int[] dst, int n) {
+    int steps = n >>> 4;
+    for (int s = 0, pos = 0; s < steps; ++s, pos += 16) {
+      long x = words[offset + s];
+      dst[pos] = (int) (x >>> 60);
+      dst[pos + 1] = (int) (x >>> 56) & 0xf;
+      dst[pos + 2] = (int) (x >>> 52) & 0xf;
+      dst[pos + 3] = (int) (x >>> 48) & 0xf;
+      dst[pos + 4] = (int) (x >>> 44) & 0xf;
+      dst[pos + 5] = (int) (x >>> 40) & 0xf;
+      dst[pos + 6] = (int) (x >>> 36) & 0xf;
+      dst[pos + 7] = (int) (x >>> 32) & 0xf;
+      dst[pos + 8] = (int) (x >>> 28) & 0xf;
+      dst[pos + 9] = (int) (x >>> 24) & 0xf;
+      dst[pos + 10] = (int) (x >>> 20) & 0xf;
+      dst[pos + 11] = (int) (x >>> 16) & 0xf;
+      dst[pos + 12] = (int) (x >>> 12) & 0xf;
+      dst[pos + 13] = (int) (x >>> 8) & 0xf;
+      dst[pos + 14] = (int) (x >>> 4) & 0xf;
+      dst[pos + 15] = (int) x & 0xf;
+    }
+    return steps << 4;
+  }
+
+  /**
+   * 8 values of 8 bits per word from word {@code offset}.
+   *
+   * @return number of values decoded
+   */
+  private static int decode8(long[] words, int offset, int[] dst, int n) {
+    int steps = n >>> 3;
+    for (int s = 0, pos = 0; s < steps; ++s, pos += 8) {
+      long x = words[offset + s];
+      dst[pos] = (int) (x >>> 56);
+      dst[pos + 1] = (int) (x >>> 48) & 0xff;
+      dst[pos + 2] = (int) (x >>> 40) & 0xff;
+      dst[pos + 3] = (int) (x >>> 32) & 0xff;
+      dst[pos + 4] = (int) (x >>> 24) & 0xff;
+      dst[pos + 5] = (int) (x >>> 16) & 0xff;
+      dst[pos + 6] = (int) (x >>> 8) & 0xff;
+      dst[pos + 7] = (int) x & 0xff;
+    }
+    return steps << 3;
+  }
+
   public void clear() {
     Arrays.fill(words, 0L);
   }
@@ -0,0 +1,301 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntConsumer;
+
+/**
+ * An {@link Align8UIntArray} of width 6, the usual register width. Every 3 bytes hold exactly 4
+ * values, so a value is read and written through the 24 bits of its group at a shift that only
+ * depends on {@code index & 3}, without the branch on values straddling bytes. The bytes are the
+ * same as the ones of an {@link Align8UIntArray} of width 6, the length must be a multiple of 4.
+ */
+public final class Align6UIntArray implements UIntArray, Serializable, Cloneable, RandomAccess {
+
+  private static final long serialVersionUID = -4127368559124307310L;
+  private static final int WIDTH = 6;
+  private static final int MASK = 0x3f;
+
+  /** Values decoded at a time by {@link #forEach(IntConsumer)} and {@link #histogram()}. */
+  private static final int BATCH = 512;
+
+  private final int length;
+  private final byte[] words;
+
+  public Align6UIntArray(int length) {
+    Preconditions.checkArgument(
+        length > 0 && (length & 3) == 0, "length should be a positive multiple of 4: %s", length);
+    this.length = length;
+    this.words = new byte[(length >>> 2) * 3];
+  }
+
+  private void checkValue(int value) {
+    if ((value & ~MASK) != 0) {
+      throw new ArrayStoreException("Int value overflow: " + value);
+    }
+  }
+
+  /** First byte of the group of 4 values {@code index} belongs to. */
+  private static int offsetOf(int index) {
+    return (index >>> 2) * 3;
+  }
+
+  /** Shift of the value at {@code index} within the 24 bits of its group. */
+  private static int shiftOf(int index) {
+    return 18 - WIDTH * (index & 3);
+  }
+
+  private static int read24(byte[] words, int offset) {
+    return (words[offset] & 0xff) << 16
+        | (words[offset + 1] & 0xff) << 8
+        | (words[offset + 2] & 0xff);
+  }
+
+  private static void write24(byte[] words, int offset, int x) {
+    words[offset] = (byte) (x >>> 16);
+    words[offset + 1] = (byte) (x >>> 8);
+    words[offset + 2] = (byte) x;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public int width() {
+    return WIDTH;
+  }
+
+  @Override
+  public int get(int index) {
+    Preconditions.checkElementIndex(index, length);
+    return (read24(words, offsetOf(index)) >>> shiftOf(index)) & MASK;
+  }
+
+  @Override
+  public void set(int index, int val) {
+    Preconditions.checkElementIndex(index, length);
+    checkValue(val);
+    setUnchecked(index, val);
+  }
+
+  private void setUnchecked(int index, int val) {
+    int offset = offsetOf(index);
+    int shift = shiftOf(index);
+    write24(words, offset, (read24(words, offset) & ~(MASK << shift)) | (val << shift));
+  }
+
+  /**
+   * Sets {@code val} at {@code index} if it is greater than the current value. There is no range
+   * check at all, callers must guarantee {@code index < length()} and {@code val < 2^6}.
+   *
+   * @return the previous value
+   */
+  @Override
+  public int getAndSetMaxUnchecked(int index, int val) {
+    int offset = offsetOf(index);
+    int shift = shiftOf(index);
+    int x = read24(words, offset);
+    int n = (x >>> shift) & MASK;
+    if (n < val) {
+      write24(words, offset, (x & ~(MASK << shift)) | (val << shift));
+    }
+    return n;
+  }
+
+  /**
+   * Sets every value to the max of itself and the value at the same index of {@code other}. Works
+   * on 8 values (6 bytes) at a time with {@link RegisterKernels#setMaxGroups(byte[], byte[], int,
+   * int)} if {@code other} holds its bytes in an array too.
+   */
+  @Override
+  public void setMaxAll(UIntArray other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(
+        length == other.length() && WIDTH == other.width(),
+        "length/width not match: %s/%s, %s/%s",
+        length,
+        WIDTH,
+        other.length(),
+        other.width());
+    byte[] b;
+    if (other instanceof Align6UIntArray) {
+      b = ((Align6UIntArray) other).words;
+    } else if (other instanceof Align8UIntArray) {
+      b = ((Align8UIntArray) other).getWords(false);
+    } else if (other instanceof DirectAlign8UIntArray) {
+      DirectAlign8UIntArray.setMaxAll(
+          ByteBuffer.wrap(words), 0, ((DirectAlign8UIntArray) other).buffer(), 0, length, WIDTH);
+      return;
+    } else {
+      for (int i = 0; i < length; ++i) {
+        int v = other.get(i);
+        if (v > get(i)) {
+          set(i, v);
+        }
+      }
+      return;
+    }
+    byte[] a = words;
+    int groups = length >>> 3;
+    RegisterKernels.get().setMaxGroups(a, b, groups, WIDTH);
+    int offset = groups * 6;
+    if (offset < a.length) {
+      // the last 4 values
+      int x = read24(a, offset);
+      long z = Utils.laneMax(x, read24(b, offset), WIDTH, Utils.laneHighBits(WIDTH, 4));
+      write24(a, offset, (int) z);
+    }
+  }
+
+  @Override
+  public int[] toIntArray() {
+    int[] a = new int[length];
+    Align8UIntArray.decode(words, WIDTH, 0, a, length);
+    return a;
+  }
+
+  @Override
+  public void forEach(IntConsumer action) {
+    Preconditions.checkNotNull(action);
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      Align8UIntArray.decode(words, WIDTH, from, batch, n);
+      for (int i = 0; i < n; ++i) {
+        action.accept(batch[i]);
+      }
+    }
+  }
+
+  @Override
+  public void decodeRange(int from, int[] dst) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(from, from + dst.length, length);
+    Align8UIntArray.decode(words, WIDTH, from, dst, dst.length);
+  }
+
+  /** Checks all values before writing any, then packs them 4 values (3 bytes) at a time. */
+  @Override
+  public void encodeRange(int from, int[] src) {
+    Preconditions.checkNotNull(src);
+    Preconditions.checkPositionIndexes(from, from + src.length, length);
+    for (int v : src) {
+      checkValue(v);
+    }
+    int n = src.length;
+    int i = 0;
+    for (; i < n && ((from + i) & 3) != 0; ++i) {
+      setUnchecked(from + i, src[i]);
+    }
+    for (int offset = offsetOf(from + i); i + 4 <= n; i += 4, offset += 3) {
+      write24(words, offset, src[i] << 18 | src[i + 1] << 12 | src[i + 2] << 6 | src[i + 3]);
+    }
+    for (; i < n; ++i) {
+      setUnchecked(from + i, src[i]);
+    }
+  }
+
+  @Override
+  public int[] histogram() {
+    RegisterKernels kernels = RegisterKernels.get();
+    int[] h = new int[1 << WIDTH];
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      Align8UIntArray.decode(words, WIDTH, from, batch, n);
+      kernels.addToHistogram(batch, n, h);
+    }
+    return h;
+  }
+
+  @Override
+  public void clear() {
+    byte zero = 0;
+    Arrays.fill(words, zero);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toIntArray());
+  }
+
+  @SuppressWarnings("MethodDoesntCallSuperMethod")
+  @Override
+  public Align6UIntArray clone() {
+    Align6UIntArray copy = new Align6UIntArray(length);
+    copy.setWords(words, 0);
+    return copy;
+  }
+
+  public byte[] getWords(boolean copy) {
+    if (copy) {
+      return Arrays.copyOf(words, words.length);
+    } else {
+      return words;
+    }
+  }
+
+  @Override
+  public int sizeInBytes() {
+    return words.length;
+  }
+
+  @Override
+  public void getWords(byte[] dst, int offset) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(offset, offset + words.length, dst.length);
+    System.arraycopy(words, 0, dst, offset, words.length);
+  }
+
+  @Override
+  public void setWords(byte[] src, int offset) {
+    Preconditions.checkNotNull(src);
+    Preconditions.checkArgument(offset >= 0, "illegal offset: %s", offset);
+    Preconditions.checkArgument(src.length >= offset + words.length, "capacity not enough!");
+    System.arraycopy(src, offset, words, 0, words.length);
+  }
+
+  @Override
+  public void writeWords(ChecksumOutput out) throws IOException {
+    out.write(words, 0, words.length);
+  }
+
+  @Override
+  public void readWords(ChecksumInput in) throws IOException {
+    in.readFully(words, 0, words.length);
+  }
+
+  /** Equal to any array of the same values, an {@link Align8UIntArray} of width 6 included. */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o instanceof DirectAlign8UIntArray) return o.equals(this);
+    if (!(o instanceof UIntArray)) return false;
+    UIntArray that = (UIntArray) o;
+    if (length != that.length() || WIDTH != that.width()) {
+      return false;
+    }
+    if (that instanceof Align6UIntArray) {
+      return Arrays.equals(words, ((Align6UIntArray) that).words);
+    }
+    byte[] other = new byte[that.sizeInBytes()];
+    that.getWords(other, 0);
+    return Arrays.equals(words, other);
+  }
+
+  /** The same as the one of an {@link Align8UIntArray} of the same values. */
+  @Override
+  public int hashCode() {
+    int result = Objects.hash(length, WIDTH);
+    result = 31 * result + Arrays.hashCode(words);
+    return result;
+  }
+}
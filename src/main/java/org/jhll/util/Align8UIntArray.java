@@ -3,15 +3,22 @@ package org.jhll.util;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.RandomAccess;
+import java.util.function.IntConsumer;
 
-public final class Align8UIntArray implements Serializable, Cloneable, RandomAccess {
+public final class Align8UIntArray implements UIntArray, Serializable, Cloneable, RandomAccess {
 
   private static final long serialVersionUID = 8779437312286023931L;
   private static final int LOG2_OF_8 = 3;
+
+  /** Values decoded at a time by {@link #forEach(IntConsumer)} and {@link #histogram()}. */
+  private static final int BATCH = 512;
+
   private final int length;
   private final int width;
   private final byte[] words;
@@ -37,16 +44,24 @@ public final class Align8UIntArray implements Serializable, Cloneable, RandomAcc
     }
   }
 
+  @Override
   public int length() {
     return length;
   }
 
+  @Override
   public int width() {
     return width;
   }
 
+  @Override
   public int get(int index) {
     Preconditions.checkPositionIndex(index, length);
+    return get(words, width, index);
+  }
+
+  /** Reads the value at {@code index} of the values packed in {@code words}, without any check. */
+  static int get(byte[] words, int width, int index) {
     int w = width;
     int fromBits = index * w;
     int arrayOffset = fromBits >>> LOG2_OF_8;
@@ -62,9 +77,14 @@ public final class Align8UIntArray implements Serializable, Cloneable, RandomAcc
     }
   }
 
+  @Override
   public void set(int index, int val) {
     Preconditions.checkPositionIndex(index, length);
     checkValue(val);
+    setUnchecked(index, val);
+  }
+
+  private void setUnchecked(int index, int val) {
     int w = width;
     int fromBits = index * w;
     int arrayOffset = fromBits >>> LOG2_OF_8;
@@ -82,14 +102,276 @@ public final class Align8UIntArray implements Serializable, Cloneable, RandomAcc
     }
   }
 
+  /**
+   * Sets {@code val} at {@code index} if it is greater than the current value. There is no range
+   * check at all, callers must guarantee {@code index < length()} and {@code val < 2^width}.
+   *
+   * @return the previous value
+   */
+  @Override
+  public int getAndSetMaxUnchecked(int index, int val) {
+    int w = width;
+    int fromBits = index * w;
+    int arrayOffset = fromBits >>> LOG2_OF_8;
+    int bitOffset = fromBits - (arrayOffset << LOG2_OF_8);
+    int distance = Byte.SIZE - w - bitOffset;
+    if (distance >= 0) {
+      int word = words[arrayOffset];
+      int n = (word >>> distance) & Utils.mask32(w);
+      if (n >= val) {
+        return n;
+      }
+      int e = ~(Utils.mask32(w) << distance);
+      words[arrayOffset] = (byte) ((word & e) | (val << distance));
+      return n;
+    } else {
+      int word = words[arrayOffset];
+      int word1 = Byte.toUnsignedInt(words[arrayOffset + 1]);
+      int n = (word & Utils.mask32(distance + w)) << -distance;
+      n |= word1 >>> (Byte.SIZE + distance);
+      if (n >= val) {
+        return n;
+      }
+      int e = ~Utils.mask32(w + distance);
+      words[arrayOffset] = (byte) ((word & e) | (val >>> -distance));
+      int e1 = Utils.mask32(Byte.SIZE + distance);
+      words[arrayOffset + 1] = (byte) ((word1 & e1) | (val << (Byte.SIZE + distance)));
+      return n;
+    }
+  }
+
+  /**
+   * Sets every value to the max of itself and the value at the same index of {@code other}. Works
+   * on 8 values ({@code width} bytes) at a time with {@link RegisterKernels#setMaxGroups(byte[],
+   * byte[], int, int)} if {@code other} holds its bytes in an array too.
+   */
+  @Override
+  public void setMaxAll(UIntArray other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(
+        length == other.length() && width == other.width(),
+        "length/width not match: %s/%s, %s/%s",
+        length,
+        width,
+        other.length(),
+        other.width());
+    if (other instanceof DirectAlign8UIntArray) {
+      DirectAlign8UIntArray.setMaxAll(
+          ByteBuffer.wrap(words), 0, ((DirectAlign8UIntArray) other).buffer(), 0, length, width);
+      return;
+    }
+    byte[] b;
+    if (other instanceof Align8UIntArray) {
+      b = ((Align8UIntArray) other).words;
+    } else if (other instanceof Align6UIntArray) {
+      b = ((Align6UIntArray) other).getWords(false);
+    } else {
+      for (int i = 0; i < length; ++i) {
+        int v = other.get(i);
+        if (v > get(i)) {
+          set(i, v);
+        }
+      }
+      return;
+    }
+    int groups = length >>> LOG2_OF_8;
+    RegisterKernels.get().setMaxGroups(words, b, groups, width);
+    for (int i = groups << LOG2_OF_8; i < length; ++i) {
+      int v = other.get(i);
+      if (v > get(i)) {
+        set(i, v);
+      }
+    }
+  }
+
+  @Override
   public int[] toIntArray() {
     int[] a = new int[length];
-    for (int i = 0; i < a.length; ++i) {
-      a[i] = get(i);
-    }
+    decode(words, width, 0, a, length);
     return a;
   }
 
+  @Override
+  public void forEach(IntConsumer action) {
+    Preconditions.checkNotNull(action);
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      decode(words, width, from, batch, n);
+      for (int i = 0; i < n; ++i) {
+        action.accept(batch[i]);
+      }
+    }
+  }
+
+  @Override
+  public void decodeRange(int from, int[] dst) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(from, from + dst.length, length);
+    decode(words, width, from, dst, dst.length);
+  }
+
+  /**
+   * Checks all values before writing any, then packs them 8 values ({@code width} bytes) at a time
+   * as far as {@code from} allows.
+   */
+  @Override
+  public void encodeRange(int from, int[] src) {
+    Preconditions.checkNotNull(src);
+    Preconditions.checkPositionIndexes(from, from + src.length, length);
+    for (int v : src) {
+      checkValue(v);
+    }
+    int n = src.length;
+    int i = 0;
+    for (; i < n && ((from + i) & 7) != 0; ++i) {
+      setUnchecked(from + i, src[i]);
+    }
+    int w = width;
+    int groups = (n - i) >>> LOG2_OF_8;
+    int offset = ((from + i) >>> LOG2_OF_8) * w;
+    for (int g = 0; g < groups; ++g, offset += w) {
+      long x = 0;
+      for (int end = i + 8; i < end; ++i) {
+        x = (x << w) | src[i];
+      }
+      for (int b = offset + w - 1; b >= offset; --b) {
+        words[b] = (byte) x;
+        x >>>= Byte.SIZE;
+      }
+    }
+    for (; i < n; ++i) {
+      setUnchecked(from + i, src[i]);
+    }
+  }
+
+  @Override
+  public int[] histogram() {
+    RegisterKernels kernels = RegisterKernels.get();
+    int[] h = new int[1 << width];
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      decode(words, width, from, batch, n);
+      kernels.addToHistogram(batch, n, h);
+    }
+    return h;
+  }
+
+  /**
+   * Decodes the {@code n} values from {@code from} of the values packed in {@code words} into
+   * {@code dst} without any check. Values are decoded one by one up to the next multiple of 8,
+   * whose group starts at a byte boundary, and group by group from there on, with unrolled decoders
+   * for the usual register widths.
+   */
+  static void decode(byte[] words, int width, int from, int[] dst, int n) {
+    int i = 0;
+    for (; i < n && ((from + i) & 7) != 0; ++i) {
+      dst[i] = get(words, width, from + i);
+    }
+    int groups = (n - i) >>> LOG2_OF_8;
+    int offset = ((from + i) >>> LOG2_OF_8) * width;
+    switch (width) {
+      case 4:
+        decode4(words, offset, dst, i, groups);
+        break;
+      case 5:
+        decode5(words, offset, dst, i, groups);
+        break;
+      case 6:
+        decode6(words, offset, dst, i, groups);
+        break;
+      case 8:
+        for (int k = 0; k < groups << LOG2_OF_8; ++k) {
+          dst[i + k] = words[offset + k] & 0xff;
+        }
+        break;
+      default:
+        decodeGroups(words, offset, width, dst, i, groups);
+    }
+    for (i += groups << LOG2_OF_8; i < n; ++i) {
+      dst[i] = get(words, width, from + i);
+    }
+  }
+
+  /** 8 values of 4 bits in 4 bytes. */
+  private static void decode4(byte[] words, int offset, int[] dst, int pos, int groups) {
+    for (int g = 0; g < groups; ++g, offset += 4, pos += 8) {
+      int x =
+          (words[offset] & 0xff) << 24
+              | (words[offset + 1] & 0xff) << 16
+              | (words[offset + 2] & 0xff) << 8
+              | (words[offset + 3] & 0xff);
+      dst[pos] = x >>> 28;
+      dst[pos + 1] = (x >>> 24) & 0xf;
+      dst[pos + 2] = (x >>> 20) & 0xf;
+      dst[pos + 3] = (x >>> 16) & 0xf;
+      dst[pos + 4] = (x >>> 12) & 0xf;
+      dst[pos + 5] = (x >>> 8) & 0xf;
+      dst[pos + 6] = (x >>> 4) & 0xf;
+      dst[pos + 7] = x & 0xf;
+    }
+  }
+
+  /** 8 values of 5 bits in 5 bytes. */
+  private static void decode5(byte[] words, int offset, int[] dst, int pos, int groups) {
+    for (int g = 0; g < groups; ++g, offset += 5, pos += 8) {
+      long x =
+          (words[offset] & 0xffL) << 32
+              | (words[offset + 1] & 0xffL) << 24
+              | (words[offset + 2] & 0xffL) << 16
+              | (words[offset + 3] & 0xffL) << 8
+              | (words[offset + 4] & 0xffL);
+      dst[pos] = (int) (x >>> 35);
+      dst[pos + 1] = (int) (x >>> 30) & 0x1f;
+      dst[pos + 2] = (int) (x >>> 25) & 0x1f;
+      dst[pos + 3] = (int) (x >>> 20) & 0x1f;
+      dst[pos + 4] = (int) (x >>> 15) & 0x1f;
+      dst[pos + 5] = (int) (x >>> 10) & 0x1f;
+      dst[pos + 6] = (int) (x >>> 5) & 0x1f;
+      dst[pos + 7] = (int) x & 0x1f;
+    }
+  }
+
+  /** 8 values of 6 bits in 6 bytes, as two halves of 4 values in 3 bytes. */
+  private static void decode6(byte[] words, int offset, int[] dst, int pos, int groups) {
+    for (int g = 0; g < groups; ++g, offset += 6, pos += 8) {
+      int x =
+          (words[offset] & 0xff) << 16
+              | (words[offset + 1] & 0xff) << 8
+              | (words[offset + 2] & 0xff);
+      int y =
+          (words[offset + 3] & 0xff) << 16
+              | (words[offset + 4] & 0xff) << 8
+              | (words[offset + 5] & 0xff);
+      dst[pos] = x >>> 18;
+      dst[pos + 1] = (x >>> 12) & 0x3f;
+      dst[pos + 2] = (x >>> 6) & 0x3f;
+      dst[pos + 3] = x & 0x3f;
+      dst[pos + 4] = y >>> 18;
+      dst[pos + 5] = (y >>> 12) & 0x3f;
+      dst[pos + 6] = (y >>> 6) & 0x3f;
+      dst[pos + 7] = y & 0x3f;
+    }
+  }
+
+  /** 8 values of {@code w} bits in {@code w} bytes. */
+  private static void decodeGroups(
+      byte[] words, int offset, int w, int[] dst, int pos, int groups) {
+    int mask = Utils.mask32(w);
+    for (int g = 0; g < groups; ++g, offset += w, pos += 8) {
+      long x = 0;
+      for (int b = offset; b < offset + w; ++b) {
+        x = (x << Byte.SIZE) | (words[b] & 0xff);
+      }
+      for (int k = 7; k >= 0; --k) {
+        dst[pos + k] = (int) x & mask;
+        x >>>= w;
+      }
+    }
+  }
+
+  @Override
   public void clear() {
     byte zero = 0;
     Arrays.fill(words, zero);
@@ -116,6 +398,19 @@ public final class Align8UIntArray implements Serializable, Cloneable, RandomAcc
     }
   }
 
+  @Override
+  public int sizeInBytes() {
+    return words.length;
+  }
+
+  @Override
+  public void getWords(byte[] dst, int offset) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(offset, offset + words.length, dst.length);
+    System.arraycopy(words, 0, dst, offset, words.length);
+  }
+
+  @Override
   public void setWords(byte[] src, int offset) {
     Preconditions.checkNotNull(src);
     Preconditions.checkArgument(offset >= 0, "illegal offset: %s", offset);
@@ -123,9 +418,22 @@ public final class Align8UIntArray implements Serializable, Cloneable, RandomAcc
     System.arraycopy(src, offset, words, 0, words.length);
   }
 
+  @Override
+  public void writeWords(ChecksumOutput out) throws IOException {
+    out.write(words, 0, words.length);
+  }
+
+  @Override
+  public void readWords(ChecksumInput in) throws IOException {
+    in.readFully(words, 0, words.length);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
+    if (o instanceof DirectAlign8UIntArray || o instanceof Align6UIntArray) {
+      return o.equals(this);
+    }
     if (o == null || getClass() != o.getClass()) return false;
     Align8UIntArray array = (Align8UIntArray) o;
     return length == array.length && width == array.width && Arrays.equals(words, array.words);
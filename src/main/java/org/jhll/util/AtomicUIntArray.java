@@ -0,0 +1,116 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Unsigned ints packed into an {@link AtomicLongArray}. Unlike {@link Align64UIntArray} a value
+ * never spans two words ({@code 64 / width} values per word, the remaining bits are unused), so
+ * every value can be updated with a single compare-and-set.
+ */
+public final class AtomicUIntArray implements Serializable {
+
+  private static final long serialVersionUID = -4232873525484370622L;
+
+  private final int length;
+  private final int width;
+  private final int valuesPerWord;
+  private final long mask;
+  private final AtomicLongArray words;
+
+  public AtomicUIntArray(int length, int width) {
+    Preconditions.checkArgument(length > 0, "length should > 0: %s", length);
+    Preconditions.checkArgument(width > 0 && width <= 31, "width should within [0, 31]: %s", width);
+    this.length = length;
+    this.width = width;
+    this.valuesPerWord = Long.SIZE / width;
+    this.mask = Utils.mask64(width);
+    this.words = new AtomicLongArray(requiredLongs(length, width));
+  }
+
+  public static int requiredLongs(int length, int width) {
+    int valuesPerWord = Long.SIZE / width;
+    int w = length / valuesPerWord;
+    return w * valuesPerWord == length ? w : w + 1;
+  }
+
+  private void checkValue(int value) {
+    if (value < 0 || value > mask) {
+      throw new ArrayStoreException("Int value overflow: " + value);
+    }
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int get(int index) {
+    Preconditions.checkElementIndex(index, length);
+    int wordIndex = index / valuesPerWord;
+    int shift = (index - wordIndex * valuesPerWord) * width;
+    return (int) ((words.get(wordIndex) >>> shift) & mask);
+  }
+
+  public void set(int index, int val) {
+    Preconditions.checkElementIndex(index, length);
+    checkValue(val);
+    int wordIndex = index / valuesPerWord;
+    int shift = (index - wordIndex * valuesPerWord) * width;
+    long e = ~(mask << shift);
+    long n = (long) val << shift;
+    long word;
+    do {
+      word = words.get(wordIndex);
+    } while (!words.compareAndSet(wordIndex, word, (word & e) | n));
+  }
+
+  /**
+   * Atomically sets {@code val} at {@code index} if it is greater than the current value, no
+   * concurrent update is ever lost.
+   *
+   * @return whether the value was updated
+   */
+  public boolean setMax(int index, int val) {
+    Preconditions.checkElementIndex(index, length);
+    checkValue(val);
+    int wordIndex = index / valuesPerWord;
+    int shift = (index - wordIndex * valuesPerWord) * width;
+    long e = ~(mask << shift);
+    long n = (long) val << shift;
+    long word;
+    do {
+      word = words.get(wordIndex);
+      if (((word >>> shift) & mask) >= val) {
+        return false;
+      }
+    } while (!words.compareAndSet(wordIndex, word, (word & e) | n));
+    return true;
+  }
+
+  public int[] toIntArray() {
+    int[] a = new int[length];
+    for (int i = 0; i < a.length; ++i) {
+      a[i] = get(i);
+    }
+    return a;
+  }
+
+  /** Not atomic as a whole: values set concurrently may or may not survive. */
+  public void clear() {
+    for (int i = 0; i < words.length(); ++i) {
+      words.set(i, 0L);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toIntArray());
+  }
+}
@@ -0,0 +1,23 @@
+package org.jhll.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the memory of {@link DirectAlign8UIntArray}s. Buffers are handed back through {@link
+ * #free(ByteBuffer)} once their array is closed, so pooling or arena allocators can reuse them.
+ */
+public interface ByteBufferAllocator {
+
+  /** A buffer of at least {@code capacity} bytes, positioned at 0, content is not relevant. */
+  ByteBuffer allocate(int capacity);
+
+  void free(ByteBuffer buffer);
+
+  /**
+   * Allocates with {@link ByteBuffer#allocateDirect(int)}, {@link #free(ByteBuffer)} does nothing
+   * and the memory is released once the buffer is garbage collected.
+   */
+  static ByteBufferAllocator direct() {
+    return DirectByteBufferAllocator.INSTANCE;
+  }
+}
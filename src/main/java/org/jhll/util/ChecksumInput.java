@@ -0,0 +1,197 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a serialized sketch from a stream, channel or buffer piece by piece, checking the trailing
+ * checksum of {@link Utils#checksum(byte[], int, int)} on the fly, see {@link ChecksumOutput}.
+ *
+ * <p>Exactly the bytes of one sketch are consumed and nothing is read ahead, so several sketches
+ * can be read from one source. Readers ask for small pieces, an unbuffered stream is best wrapped
+ * in a {@link java.io.BufferedInputStream}.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class ChecksumInput {
+
+  private final Hasher hasher = Hashing.crc32c().newHasher();
+  private final InputStream stream;
+  private final ReadableByteChannel channel;
+  private final ByteBuffer source;
+
+  /** Big-endian duplicate of the source buffer, or room for one value of a stream or channel. */
+  private final ByteBuffer buffer;
+
+  private boolean finished;
+
+  private ChecksumInput(InputStream stream, ReadableByteChannel channel, ByteBuffer source) {
+    this.stream = stream;
+    this.channel = channel;
+    this.source = source;
+    this.buffer =
+        source != null ? source.duplicate().order(ByteOrder.BIG_ENDIAN) : ByteBuffer.allocate(8);
+  }
+
+  public static ChecksumInput of(InputStream in) {
+    Preconditions.checkNotNull(in, "null inputStream");
+    return new ChecksumInput(in, null, null);
+  }
+
+  public static ChecksumInput of(ReadableByteChannel in) {
+    Preconditions.checkNotNull(in, "null channel");
+    return new ChecksumInput(null, in, null);
+  }
+
+  /** Reads from the position of {@code in}, which is advanced as bytes are read. */
+  public static ChecksumInput of(ByteBuffer in) {
+    Preconditions.checkNotNull(in, "null buffer");
+    return new ChecksumInput(null, null, in);
+  }
+
+  /** Makes the next {@code n} bytes available in {@link #buffer}, without hashing them. */
+  private void fill(int n) throws IOException {
+    Preconditions.checkState(!finished, "checksum already read");
+    if (source != null) {
+      if (buffer.remaining() < n) {
+        throw new EOFException();
+      }
+      return;
+    }
+    buffer.clear().limit(n);
+    readRaw(buffer);
+    buffer.flip();
+  }
+
+  private void hashFilled(int n) {
+    if (source != null) {
+      ByteBuffer b = buffer.duplicate();
+      b.limit(b.position() + n);
+      hasher.putBytes(b);
+    } else {
+      hasher.putBytes(buffer.array(), 0, n);
+    }
+  }
+
+  private void sync() {
+    if (source != null) {
+      source.position(buffer.position());
+    }
+  }
+
+  public byte readByte() throws IOException {
+    fill(1);
+    hashFilled(1);
+    byte b = buffer.get();
+    sync();
+    return b;
+  }
+
+  public int readInt() throws IOException {
+    fill(Integer.BYTES);
+    hashFilled(Integer.BYTES);
+    int n = buffer.getInt();
+    sync();
+    return n;
+  }
+
+  public long readLong() throws IOException {
+    fill(Long.BYTES);
+    hashFilled(Long.BYTES);
+    long n = buffer.getLong();
+    sync();
+    return n;
+  }
+
+  /** Reads an unsigned LEB128 varint like {@link Utils#readVarint(byte[], int)}. */
+  public long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      byte b = readByte();
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("malformed varint");
+  }
+
+  public void readFully(byte[] dst, int offset, int length) throws IOException {
+    Preconditions.checkNotNull(dst, "null dst");
+    Preconditions.checkPositionIndexes(offset, offset + length, dst.length);
+    Preconditions.checkState(!finished, "checksum already read");
+    readRaw(ByteBuffer.wrap(dst, offset, length));
+    hasher.putBytes(dst, offset, length);
+  }
+
+  /** Fills all remaining bytes of {@code dst}, leaving it with no remaining. */
+  public void readFully(ByteBuffer dst) throws IOException {
+    Preconditions.checkNotNull(dst, "null dst");
+    Preconditions.checkState(!finished, "checksum already read");
+    ByteBuffer filled = dst.duplicate();
+    readRaw(dst);
+    filled.limit(dst.position());
+    hasher.putBytes(filled);
+  }
+
+  private void readRaw(ByteBuffer dst) throws IOException {
+    if (source != null) {
+      if (buffer.remaining() < dst.remaining()) {
+        throw new EOFException();
+      }
+      ByteBuffer chunk = buffer.duplicate();
+      chunk.limit(chunk.position() + dst.remaining());
+      dst.put(chunk);
+      buffer.position(chunk.position());
+      sync();
+    } else if (channel != null) {
+      while (dst.hasRemaining()) {
+        if (channel.read(dst) < 0) {
+          throw new EOFException();
+        }
+      }
+    } else if (dst.hasArray()) {
+      byte[] a = dst.array();
+      int offset = dst.arrayOffset() + dst.position();
+      for (int n = 0, length = dst.remaining(); n < length; ) {
+        int read = stream.read(a, offset + n, length - n);
+        if (read < 0) {
+          throw new EOFException();
+        }
+        n += read;
+        dst.position(dst.position() + read);
+      }
+    } else {
+      ByteBuffer chunk = ByteBuffer.allocate(Math.min(dst.remaining(), 8192));
+      while (dst.hasRemaining()) {
+        chunk.clear().limit(Math.min(chunk.capacity(), dst.remaining()));
+        readRaw(chunk);
+        chunk.flip();
+        dst.put(chunk);
+      }
+    }
+  }
+
+  /**
+   * Reads the checksum byte and compares it with the one of all bytes read so far. Nothing can be
+   * read afterwards.
+   *
+   * @throws IllegalArgumentException if the checksum does not match
+   */
+  public void verifyChecksum() throws IOException {
+    fill(1);
+    finished = true;
+    byte expected = hasher.hash().asBytes()[0];
+    byte actual = buffer.get();
+    sync();
+    Preconditions.checkArgument(
+        expected == actual, "checksum not match, expected: %s, actual: %s", expected, actual);
+  }
+}
@@ -0,0 +1,212 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a serialized sketch to a stream, channel or buffer piece by piece, computing the same
+ * trailing checksum as {@link Utils#checksum(byte[], int, int)} on the fly. Memory stays constant
+ * whatever the size of the sketch: stream and channel writes go through a small staging buffer,
+ * large arrays bypass it, buffer writes go straight to the target.
+ *
+ * <p>Values are written big-endian regardless of the order of a target buffer. Nothing is written
+ * past {@link #writeChecksum()}, the stream or channel is neither flushed nor closed.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class ChecksumOutput {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Hasher hasher = Hashing.crc32c().newHasher();
+  private final OutputStream stream;
+  private final WritableByteChannel channel;
+  private final ByteBuffer target;
+
+  /** Staged bytes of a stream or channel, a big-endian duplicate of the target buffer otherwise. */
+  private final ByteBuffer buffer;
+
+  /** Position of {@link #buffer} up to which bytes were hashed, target buffers only. */
+  private int hashed;
+
+  private boolean finished;
+
+  private ChecksumOutput(OutputStream stream, WritableByteChannel channel, ByteBuffer target) {
+    this.stream = stream;
+    this.channel = channel;
+    this.target = target;
+    if (target != null) {
+      this.buffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+      this.hashed = buffer.position();
+    } else {
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+  }
+
+  public static ChecksumOutput of(OutputStream out) {
+    Preconditions.checkNotNull(out, "null outputStream");
+    return new ChecksumOutput(out, null, null);
+  }
+
+  public static ChecksumOutput of(WritableByteChannel out) {
+    Preconditions.checkNotNull(out, "null channel");
+    return new ChecksumOutput(null, out, null);
+  }
+
+  /** Writes from the position of {@code out}, which is advanced as bytes are written. */
+  public static ChecksumOutput of(ByteBuffer out) {
+    Preconditions.checkNotNull(out, "null buffer");
+    Preconditions.checkArgument(!out.isReadOnly(), "read-only buffer");
+    return new ChecksumOutput(null, null, out);
+  }
+
+  private void ensure(int n) throws IOException {
+    Preconditions.checkState(!finished, "checksum already written");
+    if (target == null && buffer.remaining() < n) {
+      drain(true);
+    }
+  }
+
+  public void writeByte(int value) throws IOException {
+    ensure(1);
+    buffer.put((byte) value);
+    sync();
+  }
+
+  public void writeInt(int value) throws IOException {
+    ensure(Integer.BYTES);
+    buffer.putInt(value);
+    sync();
+  }
+
+  public void writeLong(long value) throws IOException {
+    ensure(Long.BYTES);
+    buffer.putLong(value);
+    sync();
+  }
+
+  /** Writes an unsigned LEB128 varint like {@link Utils#writeVarint(byte[], int, long)}. */
+  public void writeVarint(long value) throws IOException {
+    ensure(10);
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+    sync();
+  }
+
+  public void write(byte[] src, int offset, int length) throws IOException {
+    Preconditions.checkNotNull(src, "null src");
+    Preconditions.checkPositionIndexes(offset, offset + length, src.length);
+    ensure(0);
+    if (target != null || length < buffer.remaining()) {
+      buffer.put(src, offset, length);
+      sync();
+      return;
+    }
+    drain(true);
+    if (length < BUFFER_SIZE) {
+      buffer.put(src, offset, length);
+      return;
+    }
+    hasher.putBytes(src, offset, length);
+    if (stream != null) {
+      stream.write(src, offset, length);
+    } else {
+      writeFully(ByteBuffer.wrap(src, offset, length));
+    }
+  }
+
+  /** Writes all remaining bytes of {@code src}, leaving it with no remaining. */
+  public void write(ByteBuffer src) throws IOException {
+    Preconditions.checkNotNull(src, "null src");
+    ensure(0);
+    if (target != null) {
+      buffer.put(src);
+      sync();
+    } else if (src.hasArray()) {
+      write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+      src.position(src.limit());
+    } else {
+      while (src.hasRemaining()) {
+        if (!buffer.hasRemaining()) {
+          drain(true);
+        }
+        int n = Math.min(buffer.remaining(), src.remaining());
+        ByteBuffer chunk = src.duplicate();
+        chunk.limit(chunk.position() + n);
+        buffer.put(chunk);
+        src.position(src.position() + n);
+      }
+    }
+  }
+
+  /**
+   * Writes the checksum of all bytes written so far, then hands any staged bytes over to the
+   * stream or channel. Nothing can be written afterwards.
+   */
+  public void writeChecksum() throws IOException {
+    ensure(1);
+    if (target != null) {
+      hashPending();
+    } else {
+      hasher.putBytes(buffer.array(), 0, buffer.position());
+    }
+    finished = true;
+    buffer.put(hasher.hash().asBytes()[0]);
+    if (target != null) {
+      sync();
+    } else {
+      drain(false);
+    }
+  }
+
+  /** Hands any staged bytes over to the stream or channel, without writing a checksum. */
+  public void flush() throws IOException {
+    if (target == null) {
+      drain(!finished);
+    }
+  }
+
+  private void sync() {
+    if (target != null) {
+      target.position(buffer.position());
+    }
+  }
+
+  private void hashPending() {
+    ByteBuffer pending = buffer.duplicate();
+    pending.limit(buffer.position()).position(hashed);
+    hasher.putBytes(pending);
+    hashed = buffer.position();
+  }
+
+  private void drain(boolean hash) throws IOException {
+    if (buffer.position() == 0) {
+      return;
+    }
+    if (hash) {
+      hasher.putBytes(buffer.array(), 0, buffer.position());
+    }
+    buffer.flip();
+    if (stream != null) {
+      stream.write(buffer.array(), 0, buffer.limit());
+    } else {
+      writeFully(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void writeFully(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src);
+    }
+  }
+}
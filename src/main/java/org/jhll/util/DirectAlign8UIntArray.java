@@ -0,0 +1,413 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * An {@link Align8UIntArray} whose bytes live in a {@link ByteBuffer}, usually off-heap. Arrays
+ * taken from a {@link ByteBufferAllocator} should be {@link #close() closed} to give the buffer
+ * back, any access afterwards fails.
+ */
+public final class DirectAlign8UIntArray implements UIntArray, Closeable {
+
+  private static final int LOG2_OF_8 = 3;
+
+  /** Values decoded at a time by {@link #forEach(IntConsumer)} and {@link #histogram()}. */
+  private static final int BATCH = 512;
+
+  private final int length;
+  private final int width;
+  private final int sizeInBytes;
+  private final ByteBufferAllocator allocator;
+  private ByteBuffer buffer;
+
+  public DirectAlign8UIntArray(int length, int width, ByteBufferAllocator allocator) {
+    Preconditions.checkArgument(length > 0, "length should > 0: %s", length);
+    Preconditions.checkArgument(width > 0 && width <= 8, "width should within [0, 8]: %s", width);
+    Preconditions.checkNotNull(allocator, "null allocator");
+    this.length = length;
+    this.width = width;
+    this.sizeInBytes = Align8UIntArray.requiredBytes(length, width);
+    this.allocator = allocator;
+    ByteBuffer allocated = allocator.allocate(sizeInBytes);
+    Preconditions.checkArgument(
+        allocated.capacity() >= sizeInBytes,
+        "allocated %s bytes, but %s required",
+        allocated.capacity(),
+        sizeInBytes);
+    this.buffer = allocated;
+    clear();
+  }
+
+  private DirectAlign8UIntArray(int length, int width, ByteBuffer buffer) {
+    this.length = length;
+    this.width = width;
+    this.sizeInBytes = Align8UIntArray.requiredBytes(length, width);
+    this.allocator = null;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Views the bytes of {@code buffer} from its position as packed values without copying, writes
+   * go to the buffer. Closing the array does not free the buffer.
+   */
+  public static DirectAlign8UIntArray wrap(ByteBuffer buffer, int length, int width) {
+    Preconditions.checkNotNull(buffer, "null buffer");
+    Preconditions.checkArgument(length > 0, "length should > 0: %s", length);
+    Preconditions.checkArgument(width > 0 && width <= 8, "width should within [0, 8]: %s", width);
+    int required = Align8UIntArray.requiredBytes(length, width);
+    Preconditions.checkArgument(
+        buffer.remaining() >= required,
+        "buffer remaining should be at least %s: %s",
+        required,
+        buffer.remaining());
+    ByteBuffer slice = buffer.slice();
+    slice.limit(required);
+    return new DirectAlign8UIntArray(length, width, slice);
+  }
+
+  ByteBuffer buffer() {
+    ByteBuffer b = buffer;
+    Preconditions.checkState(b != null, "closed");
+    return b;
+  }
+
+  private void checkValue(int value) {
+    if (value < 0 || value >= (1 << width)) {
+      throw new ArrayStoreException("Int value overflow: " + value);
+    }
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public int width() {
+    return width;
+  }
+
+  @Override
+  public int get(int index) {
+    Preconditions.checkPositionIndex(index, length);
+    return get(buffer(), 0, width, index);
+  }
+
+  /**
+   * Reads the value at {@code index} of the values packed from {@code offset} of {@code buffer},
+   * without any check, for callers managing many arrays in one buffer.
+   */
+  public static int get(ByteBuffer buffer, int offset, int width, int index) {
+    int w = width;
+    int fromBits = index * w;
+    int arrayOffset = offset + (fromBits >>> LOG2_OF_8);
+    int bitOffset = fromBits & 7;
+    int distance = Byte.SIZE - w - bitOffset;
+    if (distance >= 0) {
+      return (buffer.get(arrayOffset) >>> distance) & Utils.mask32(w);
+    } else {
+      int n = buffer.get(arrayOffset) & Utils.mask32(distance + w);
+      n <<= -distance;
+      n |= (Byte.toUnsignedInt(buffer.get(arrayOffset + 1)) >>> (Byte.SIZE + distance));
+      return n;
+    }
+  }
+
+  @Override
+  public void set(int index, int val) {
+    Preconditions.checkPositionIndex(index, length);
+    checkValue(val);
+    ByteBuffer b = buffer();
+    int w = width;
+    int fromBits = index * w;
+    int arrayOffset = fromBits >>> LOG2_OF_8;
+    int bitOffset = fromBits - (arrayOffset << LOG2_OF_8);
+    int distance = Byte.SIZE - w - bitOffset;
+    if (distance >= 0) {
+      int e = ~(Utils.mask32(w) << distance);
+      b.put(arrayOffset, (byte) ((b.get(arrayOffset) & e) | (val << distance)));
+    } else {
+      int e = ~Utils.mask32(w + distance);
+      b.put(arrayOffset, (byte) ((b.get(arrayOffset) & e) | (val >>> -distance)));
+      int e1 = Utils.mask32(Byte.SIZE + distance);
+      b.put(
+          arrayOffset + 1,
+          (byte) ((b.get(arrayOffset + 1) & e1) | (val << (Byte.SIZE + distance))));
+    }
+  }
+
+  @Override
+  public int getAndSetMaxUnchecked(int index, int val) {
+    return getAndSetMaxUnchecked(buffer(), 0, width, index, val);
+  }
+
+  /** Like {@link #get(ByteBuffer, int, int, int)}, see {@link #getAndSetMaxUnchecked(int, int)}. */
+  public static int getAndSetMaxUnchecked(
+      ByteBuffer buffer, int offset, int width, int index, int val) {
+    ByteBuffer b = buffer;
+    int w = width;
+    int fromBits = index * w;
+    int arrayOffset = offset + (fromBits >>> LOG2_OF_8);
+    int bitOffset = fromBits & 7;
+    int distance = Byte.SIZE - w - bitOffset;
+    if (distance >= 0) {
+      int word = b.get(arrayOffset);
+      int n = (word >>> distance) & Utils.mask32(w);
+      if (n >= val) {
+        return n;
+      }
+      int e = ~(Utils.mask32(w) << distance);
+      b.put(arrayOffset, (byte) ((word & e) | (val << distance)));
+      return n;
+    } else {
+      int word = b.get(arrayOffset);
+      int word1 = Byte.toUnsignedInt(b.get(arrayOffset + 1));
+      int n = (word & Utils.mask32(distance + w)) << -distance;
+      n |= word1 >>> (Byte.SIZE + distance);
+      if (n >= val) {
+        return n;
+      }
+      int e = ~Utils.mask32(w + distance);
+      b.put(arrayOffset, (byte) ((word & e) | (val >>> -distance)));
+      int e1 = Utils.mask32(Byte.SIZE + distance);
+      b.put(arrayOffset + 1, (byte) ((word1 & e1) | (val << (Byte.SIZE + distance))));
+      return n;
+    }
+  }
+
+  /** See {@link Align8UIntArray#setMaxAll(UIntArray)}. */
+  @Override
+  public void setMaxAll(UIntArray other) {
+    Preconditions.checkNotNull(other);
+    Preconditions.checkArgument(
+        length == other.length() && width == other.width(),
+        "length/width not match: %s/%s, %s/%s",
+        length,
+        width,
+        other.length(),
+        other.width());
+    ByteBuffer b;
+    if (other instanceof DirectAlign8UIntArray) {
+      b = ((DirectAlign8UIntArray) other).buffer();
+    } else if (other instanceof Align8UIntArray) {
+      b = ByteBuffer.wrap(((Align8UIntArray) other).getWords(false));
+    } else if (other instanceof Align6UIntArray) {
+      b = ByteBuffer.wrap(((Align6UIntArray) other).getWords(false));
+    } else {
+      for (int i = 0; i < length; ++i) {
+        int v = other.get(i);
+        if (v > get(i)) {
+          set(i, v);
+        }
+      }
+      return;
+    }
+    setMaxAll(buffer(), 0, b, 0, length, width);
+  }
+
+  /**
+   * Like {@link #get(ByteBuffer, int, int, int)}, sets each of the {@code length} values packed
+   * from {@code offset} of {@code buffer} to the max of itself and the one at the same index
+   * packed from {@code otherOffset} of {@code other}.
+   */
+  public static void setMaxAll(
+      ByteBuffer buffer, int offset, ByteBuffer other, int otherOffset, int length, int width) {
+    ByteBuffer a = buffer;
+    ByteBuffer b = other;
+    int w = width;
+    long highBits = Utils.laneHighBits(w, Byte.SIZE);
+    int groups = length >>> LOG2_OF_8;
+    for (int g = 0, from = 0; g < groups; ++g, from += w) {
+      long x = 0;
+      long y = 0;
+      for (int i = from; i < from + w; ++i) {
+        x = (x << Byte.SIZE) | (a.get(offset + i) & 0xff);
+        y = (y << Byte.SIZE) | (b.get(otherOffset + i) & 0xff);
+      }
+      long z = Utils.laneMax(x, y, w, highBits);
+      if (z != x) {
+        for (int i = offset + from + w - 1; i >= offset + from; --i) {
+          a.put(i, (byte) z);
+          z >>>= Byte.SIZE;
+        }
+      }
+    }
+    for (int i = groups << LOG2_OF_8; i < length; ++i) {
+      int v = get(b, otherOffset, w, i);
+      if (v > get(a, offset, w, i)) {
+        getAndSetMaxUnchecked(a, offset, w, i, v);
+      }
+    }
+  }
+
+  @Override
+  public int[] toIntArray() {
+    int[] a = new int[length];
+    decode(0, a, length);
+    return a;
+  }
+
+  @Override
+  public void forEach(IntConsumer action) {
+    Preconditions.checkNotNull(action);
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      decode(from, batch, n);
+      for (int i = 0; i < n; ++i) {
+        action.accept(batch[i]);
+      }
+    }
+  }
+
+  @Override
+  public void decodeRange(int from, int[] dst) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(from, from + dst.length, length);
+    decode(from, dst, dst.length);
+  }
+
+  @Override
+  public int[] histogram() {
+    int[] h = new int[1 << width];
+    int[] batch = new int[Math.min(BATCH, length)];
+    for (int from = 0; from < length; from += batch.length) {
+      int n = Math.min(batch.length, length - from);
+      decode(from, batch, n);
+      for (int i = 0; i < n; ++i) {
+        ++h[batch[i]];
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Decodes the {@code n} values from {@code from} into {@code dst} with absolute gets, without
+   * copying the buffer out: one by one up to the next multiple of 8, whose group starts at a byte
+   * boundary, and group by group from there on, like {@link Align8UIntArray} does.
+   */
+  private void decode(int from, int[] dst, int n) {
+    ByteBuffer b = buffer();
+    int w = width;
+    int i = 0;
+    for (; i < n && ((from + i) & 7) != 0; ++i) {
+      dst[i] = get(b, 0, w, from + i);
+    }
+    int mask = Utils.mask32(w);
+    int offset = ((from + i) >>> LOG2_OF_8) * w;
+    for (; i + Byte.SIZE <= n; i += Byte.SIZE, offset += w) {
+      long x = 0;
+      for (int k = offset; k < offset + w; ++k) {
+        x = (x << Byte.SIZE) | (b.get(k) & 0xff);
+      }
+      for (int k = 7; k >= 0; --k) {
+        dst[i + k] = (int) x & mask;
+        x >>>= w;
+      }
+    }
+    for (; i < n; ++i) {
+      dst[i] = get(b, 0, w, from + i);
+    }
+  }
+
+  @Override
+  public void clear() {
+    ByteBuffer b = buffer();
+    for (int i = 0; i < sizeInBytes; ++i) {
+      b.put(i, (byte) 0);
+    }
+  }
+
+  @Override
+  public int sizeInBytes() {
+    return sizeInBytes;
+  }
+
+  @Override
+  public void getWords(byte[] dst, int offset) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(offset, offset + sizeInBytes, dst.length);
+    ByteBuffer b = buffer().duplicate();
+    b.position(0);
+    b.get(dst, offset, sizeInBytes);
+  }
+
+  @Override
+  public void setWords(byte[] src, int offset) {
+    Preconditions.checkNotNull(src);
+    Preconditions.checkArgument(offset >= 0, "illegal offset: %s", offset);
+    Preconditions.checkArgument(src.length >= offset + sizeInBytes, "capacity not enough!");
+    ByteBuffer b = buffer().duplicate();
+    b.position(0);
+    b.put(src, offset, sizeInBytes);
+  }
+
+  @Override
+  public void writeWords(ChecksumOutput out) throws IOException {
+    ByteBuffer b = buffer().duplicate();
+    b.position(0).limit(sizeInBytes);
+    out.write(b);
+  }
+
+  @Override
+  public void readWords(ChecksumInput in) throws IOException {
+    ByteBuffer b = buffer().duplicate();
+    b.position(0).limit(sizeInBytes);
+    in.readFully(b);
+  }
+
+  /** Gives the buffer back to its allocator, wrapped buffers are just released. */
+  @Override
+  public void close() {
+    ByteBuffer b = buffer;
+    if (b != null) {
+      buffer = null;
+      if (allocator != null) {
+        allocator.free(b);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toIntArray());
+  }
+
+  /** Equal to any {@link UIntArray} of the same length, width and values. */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof UIntArray)) return false;
+    UIntArray that = (UIntArray) o;
+    if (length != that.length() || width != that.width()) {
+      return false;
+    }
+    byte[] words = new byte[sizeInBytes];
+    that.getWords(words, 0);
+    ByteBuffer b = buffer();
+    for (int i = 0; i < sizeInBytes; ++i) {
+      if (b.get(i) != words[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Same as {@link Align8UIntArray#hashCode()} for equal values. */
+  @Override
+  public int hashCode() {
+    ByteBuffer b = buffer();
+    int h = 1;
+    for (int i = 0; i < sizeInBytes; ++i) {
+      h = 31 * h + b.get(i);
+    }
+    return 31 * Objects.hash(length, width) + h;
+  }
+}
@@ -0,0 +1,18 @@
+package org.jhll.util;
+
+import java.nio.ByteBuffer;
+
+final class DirectByteBufferAllocator implements ByteBufferAllocator {
+
+  static final DirectByteBufferAllocator INSTANCE = new DirectByteBufferAllocator();
+
+  private DirectByteBufferAllocator() {}
+
+  @Override
+  public ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity);
+  }
+
+  @Override
+  public void free(ByteBuffer buffer) {}
+}
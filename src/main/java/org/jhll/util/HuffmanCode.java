@@ -0,0 +1,247 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A canonical Huffman code over the symbols {@code [0, n)}, described by nothing but the code
+ * length of every symbol. Codes are written most significant bit first, decoding walks one length
+ * at a time like zlib's puff, which is cheap for the short codes of skewed inputs.
+ */
+public final class HuffmanCode {
+
+  /** Codes are kept in a long, frequencies summing to at most 2^32 never need more than 46 bits. */
+  private static final int MAX_LENGTH = 63;
+
+  private final int[] lengths;
+  private final long[] codes;
+
+  /** Number of symbols of each code length. */
+  private final int[] counts;
+
+  /** Symbols ordered by code length, then by symbol. */
+  private final int[] symbols;
+
+  private HuffmanCode(int[] lengths) {
+    this.lengths = lengths;
+    this.codes = new long[lengths.length];
+    int max = 0;
+    for (int length : lengths) {
+      max = Math.max(max, length);
+    }
+    this.counts = new int[max + 1];
+    int n = 0;
+    for (int length : lengths) {
+      if (length > 0) {
+        ++counts[length];
+        ++n;
+      }
+    }
+    this.symbols = new int[n];
+    int[] offsets = new int[max + 2];
+    for (int len = 1; len <= max; ++len) {
+      offsets[len + 1] = offsets[len] + counts[len];
+    }
+    for (int s = 0; s < lengths.length; ++s) {
+      if (lengths[s] > 0) {
+        symbols[offsets[lengths[s]]++] = s;
+      }
+    }
+    long code = 0;
+    int last = 0;
+    for (int s : symbols) {
+      code <<= lengths[s] - last;
+      last = lengths[s];
+      codes[s] = code++;
+    }
+  }
+
+  /**
+   * The optimal code for symbols occurring {@code frequencies[s]} times. A single occurring
+   * symbol gets a code of length 0, which writes no bits at all.
+   */
+  public static HuffmanCode fromFrequencies(long[] frequencies) {
+    Preconditions.checkNotNull(frequencies, "null frequencies");
+    int n = frequencies.length;
+    long[] weights = Arrays.copyOf(frequencies, 2 * n);
+    int[] parents = new int[2 * n];
+    PriorityQueue<Integer> queue =
+        new PriorityQueue<>(Math.max(n, 1), (a, b) -> Long.compare(weights[a], weights[b]));
+    for (int s = 0; s < n; ++s) {
+      Preconditions.checkArgument(frequencies[s] >= 0, "negative frequency: %s", frequencies[s]);
+      if (frequencies[s] > 0) {
+        queue.add(s);
+      }
+    }
+    Preconditions.checkArgument(!queue.isEmpty(), "no symbol occurs");
+    int next = n;
+    while (queue.size() > 1) {
+      int a = queue.poll();
+      int b = queue.poll();
+      weights[next] = weights[a] + weights[b];
+      parents[a] = next;
+      parents[b] = next;
+      queue.add(next++);
+    }
+    int root = queue.poll();
+    int[] lengths = new int[n];
+    for (int s = 0; s < n; ++s) {
+      if (frequencies[s] > 0) {
+        int length = 0;
+        for (int node = s; node != root; node = parents[node]) {
+          ++length;
+        }
+        Preconditions.checkArgument(length <= MAX_LENGTH, "frequencies too skewed");
+        lengths[s] = length;
+      }
+    }
+    return new HuffmanCode(lengths);
+  }
+
+  /**
+   * The canonical code of the given code lengths, 0 for symbols that do not occur. Unlike {@link
+   * #fromFrequencies(long[])}, a single symbol needs a length of at least 1.
+   *
+   * @throws IllegalArgumentException if no prefix code has these lengths
+   */
+  public static HuffmanCode fromLengths(int[] lengths) {
+    Preconditions.checkNotNull(lengths, "null lengths");
+    int n = 0;
+    double kraft = 0;
+    for (int length : lengths) {
+      Preconditions.checkArgument(
+          length >= 0 && length <= MAX_LENGTH, "illegal code length: %s", length);
+      if (length > 0) {
+        ++n;
+        kraft += Math.pow(2, -length);
+      }
+    }
+    Preconditions.checkArgument(n > 0, "no symbol occurs");
+    Preconditions.checkArgument(kraft <= 1, "not a prefix code: %s", Arrays.toString(lengths));
+    return new HuffmanCode(lengths.clone());
+  }
+
+  public int length(int symbol) {
+    return lengths[symbol];
+  }
+
+  public long code(int symbol) {
+    return codes[symbol];
+  }
+
+  /** Number of bits of {@code frequencies[s]} occurrences of every symbol. */
+  public long encodedBits(long[] frequencies) {
+    long bits = 0;
+    for (int s = 0; s < frequencies.length; ++s) {
+      bits += frequencies[s] * lengths[s];
+    }
+    return bits;
+  }
+
+  /** Reads one code. There must be at least one symbol with a code length above 0. */
+  public int decode(BitReader in) throws IOException {
+    long code = 0;
+    long first = 0;
+    int index = 0;
+    for (int len = 1; len < counts.length; ++len) {
+      code |= in.readBit();
+      int count = counts[len];
+      if (code - first < count) {
+        return symbols[index + (int) (code - first)];
+      }
+      index += count;
+      first = (first + count) << 1;
+      code <<= 1;
+    }
+    throw new IllegalArgumentException("malformed code");
+  }
+
+  /** Packs bits most significant first into bytes, staged in a small buffer. */
+  public static final class BitWriter {
+
+    private final ChecksumOutput out;
+    private final byte[] chunk = new byte[4096];
+    private int offset;
+    private int current;
+    private int filled;
+
+    public BitWriter(ChecksumOutput out) {
+      this.out = Preconditions.checkNotNull(out, "null output");
+    }
+
+    /** Writes the lowest {@code length} bits of {@code bits}. */
+    public void write(long bits, int length) throws IOException {
+      for (int left = length; left > 0; ) {
+        int n = Math.min(left, Byte.SIZE - filled);
+        current = (current << n) | (int) ((bits >>> (left - n)) & Utils.mask64(n));
+        filled += n;
+        left -= n;
+        if (filled == Byte.SIZE) {
+          chunk[offset++] = (byte) current;
+          current = 0;
+          filled = 0;
+          if (offset == chunk.length) {
+            out.write(chunk, 0, offset);
+            offset = 0;
+          }
+        }
+      }
+    }
+
+    /** Pads the last byte with zeros and writes out all bytes. */
+    public void finish() throws IOException {
+      if (filled > 0) {
+        write(0, Byte.SIZE - filled);
+      }
+      out.write(chunk, 0, offset);
+      offset = 0;
+    }
+  }
+
+  /** Reads bits written by {@link BitWriter}, exactly {@code bytes} bytes in small pieces. */
+  public static final class BitReader {
+
+    private final ChecksumInput in;
+    private final byte[] chunk;
+    private long left;
+    private int offset;
+    private int limit;
+    private int current;
+    private int remainingBits;
+
+    public BitReader(ChecksumInput in, long bytes) {
+      Preconditions.checkNotNull(in, "null input");
+      Preconditions.checkArgument(bytes >= 0, "illegal bytes: %s", bytes);
+      this.in = in;
+      this.left = bytes;
+      this.chunk = new byte[(int) Math.min(bytes, 4096)];
+    }
+
+    public int readBit() throws IOException {
+      if (remainingBits == 0) {
+        if (offset == limit) {
+          Preconditions.checkArgument(left > 0, "malformed code: no bits left");
+          limit = (int) Math.min(left, chunk.length);
+          in.readFully(chunk, 0, limit);
+          left -= limit;
+          offset = 0;
+        }
+        current = chunk[offset++];
+        remainingBits = Byte.SIZE;
+      }
+      return (current >>> --remainingBits) & 1;
+    }
+
+    /** Reads the padding and any bytes left unread. */
+    public void finish() throws IOException {
+      while (left > 0) {
+        int n = (int) Math.min(left, chunk.length);
+        in.readFully(chunk, 0, n);
+        left -= n;
+      }
+    }
+  }
+}
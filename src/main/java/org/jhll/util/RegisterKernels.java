@@ -0,0 +1,107 @@
+package org.jhll.util;
+
+/**
+ * Loops over whole register arrays, scalar here. On Java 17 and later the multi-release jar adds
+ * {@code VectorRegisterKernels}, which does the same with the Vector API and is picked by {@link
+ * #get()} when the {@code jdk.incubator.vector} module is resolved, i.e. the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}. Otherwise the scalar kernels are used.
+ */
+public class RegisterKernels {
+
+  private static final RegisterKernels SCALAR = new RegisterKernels();
+  private static final RegisterKernels INSTANCE = load();
+
+  RegisterKernels() {}
+
+  /** The fastest kernels available in this JVM. */
+  public static RegisterKernels get() {
+    return INSTANCE;
+  }
+
+  /** The scalar kernels, e.g. to compare against. */
+  public static RegisterKernels scalar() {
+    return SCALAR;
+  }
+
+  private static RegisterKernels load() {
+    try {
+      Class<?> vector = Class.forName("org.jhll.util.VectorRegisterKernels");
+      return (RegisterKernels) vector.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // not on Java 17+, module not resolved, or no usable vector shape
+      return SCALAR;
+    }
+  }
+
+  /** Whether these kernels use SIMD instructions. */
+  public boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Sets each of the first {@code groups * 8} values of {@code a} to the max of itself and the
+   * value at the same index of {@code b}. Both hold values of {@code width} bits packed like in an
+   * {@link Align8UIntArray}, so 8 values take {@code width} bytes.
+   */
+  public void setMaxGroups(byte[] a, byte[] b, int groups, int width) {
+    setMaxGroups(a, b, 0, groups, width);
+  }
+
+  /** {@link #setMaxGroups(byte[], byte[], int, int)} of the groups {@code [from, to)}. */
+  static void setMaxGroups(byte[] a, byte[] b, int from, int to, int width) {
+    int w = width;
+    long highBits = Utils.laneHighBits(w, Byte.SIZE);
+    for (int g = from, offset = from * w; g < to; ++g, offset += w) {
+      long x = 0;
+      long y = 0;
+      for (int i = offset; i < offset + w; ++i) {
+        x = (x << Byte.SIZE) | (a[i] & 0xff);
+        y = (y << Byte.SIZE) | (b[i] & 0xff);
+      }
+      long z = Utils.laneMax(x, y, w, highBits);
+      if (z != x) {
+        for (int i = offset + w - 1; i >= offset; --i) {
+          a[i] = (byte) z;
+          z >>>= Byte.SIZE;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sum of {@code 2^-values[i]} over the first {@code n} values, the denominator of the
+   * HyperLogLog estimate. Exact as long as the sum fits in the 53 bits of a double, i.e. the
+   * largest value plus {@code log2(n)} is at most 53, so the order of the additions does not
+   * matter.
+   */
+  public double harmonicSum(int[] values, int n) {
+    double x = 0;
+    for (int i = 0; i < n; ++i) {
+      x += inversePowerOf2(values[i]);
+    }
+    return x;
+  }
+
+  /** Number of zeros among the first {@code n} values. */
+  public int zeroCount(int[] values, int n) {
+    int zeros = 0;
+    for (int i = 0; i < n; ++i) {
+      if (values[i] == 0) {
+        ++zeros;
+      }
+    }
+    return zeros;
+  }
+
+  /** Adds the first {@code n} values to {@code histogram}, indexed by value. */
+  public void addToHistogram(int[] values, int n, int[] histogram) {
+    for (int i = 0; i < n; ++i) {
+      ++histogram[values[i]];
+    }
+  }
+
+  /** {@code 2^-v} built from its exponent bits, exact for {@code v < 1023}. */
+  static double inversePowerOf2(int v) {
+    return Double.longBitsToDouble((1023L - v) << 52);
+  }
+}
@@ -0,0 +1,89 @@
+package org.jhll.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Fixed-length array of unsigned ints, {@link #width()} bits each, packed most significant bit
+ * first into consecutive bytes exactly like {@link Align8UIntArray}. Implementations only differ
+ * in where the bytes live, their words are interchangeable.
+ */
+public interface UIntArray {
+
+  int length();
+
+  int width();
+
+  int get(int index);
+
+  void set(int index, int val);
+
+  /**
+   * Sets {@code val} at {@code index} if it is greater than the current value. There is no range
+   * check at all, callers must guarantee {@code index < length()} and {@code val < 2^width}.
+   *
+   * @return the previous value
+   */
+  int getAndSetMaxUnchecked(int index, int val);
+
+  /**
+   * Sets every value to the max of itself and the value at the same index of {@code other}, which
+   * must have the same length and width.
+   */
+  void setMaxAll(UIntArray other);
+
+  int[] toIntArray();
+
+  /** Passes every value to {@code action}, in index order. */
+  default void forEach(IntConsumer action) {
+    Preconditions.checkNotNull(action);
+    int length = length();
+    for (int i = 0; i < length; ++i) {
+      action.accept(get(i));
+    }
+  }
+
+  /** Reads {@code dst.length} values from {@code from} into {@code dst}. */
+  default void decodeRange(int from, int[] dst) {
+    Preconditions.checkNotNull(dst);
+    Preconditions.checkPositionIndexes(from, from + dst.length, length());
+    for (int i = 0; i < dst.length; ++i) {
+      dst[i] = get(from + i);
+    }
+  }
+
+  /** Sets {@code src.length} values from {@code from} to the ones of {@code src}. */
+  default void encodeRange(int from, int[] src) {
+    Preconditions.checkNotNull(src);
+    Preconditions.checkPositionIndexes(from, from + src.length, length());
+    for (int i = 0; i < src.length; ++i) {
+      set(from + i, src[i]);
+    }
+  }
+
+  /** Number of values equal to each of {@code 0} to {@code 2^width - 1}, indexed by value. */
+  default int[] histogram() {
+    int[] h = new int[1 << width()];
+    forEach(v -> ++h[v]);
+    return h;
+  }
+
+  void clear();
+
+  /** Number of bytes holding the packed values. */
+  int sizeInBytes();
+
+  /** Copies the packed values to {@code dst}, {@link #sizeInBytes()} bytes from {@code offset}. */
+  void getWords(byte[] dst, int offset);
+
+  /** Reads the packed values from {@code src}, {@link #sizeInBytes()} bytes from {@code offset}. */
+  void setWords(byte[] src, int offset);
+
+  /** Writes the packed values to {@code out}, {@link #sizeInBytes()} bytes. */
+  void writeWords(ChecksumOutput out) throws IOException;
+
+  /** Reads the packed values from {@code in}, {@link #sizeInBytes()} bytes. */
+  void readWords(ChecksumInput in) throws IOException;
+}
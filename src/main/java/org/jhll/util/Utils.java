@@ -1,7 +1,10 @@
 package org.jhll.util;
 
+import com.google.common.base.Preconditions;
 import com.google.common.hash.Hashing;
 
+import java.nio.ByteBuffer;
+
 public final class Utils {
 
   private static final byte[] EMPTY = new byte[0];
@@ -26,7 +29,81 @@ public final class Utils {
     return (1L << width) - 1L;
   }
 
+  /** The highest bit of each of the {@code lanes} lowest {@code width}-bit lanes of a long. */
+  public static long laneHighBits(int width, int lanes) {
+    long h = 0;
+    for (int i = 0; i < lanes; ++i) {
+      h |= 1L << (i * width + width - 1);
+    }
+    return h;
+  }
+
+  /**
+   * Lane-wise unsigned max of two longs holding packed {@code width}-bit values, bits outside of
+   * {@code highBits}' lanes must be 0 in both.
+   *
+   * @param highBits see {@link #laneHighBits(int, int)}
+   */
+  public static long laneMax(long x, long y, int width, long highBits) {
+    // the high bit of each lane of d is set iff the lane's low bits of x >= the ones of y
+    long d = (x | highBits) - (y & ~highBits);
+    long ge = ((x & ~y) | (~(x ^ y) & d)) & highBits;
+    long m = (ge >>> (width - 1)) * mask64(width);
+    return (x & m) | (y & ~m);
+  }
+
+  public static int varintSize(long value) {
+    int n = 1;
+    while ((value & ~0x7fL) != 0) {
+      value >>>= 7;
+      ++n;
+    }
+    return n;
+  }
+
+  /**
+   * Writes {@code value} as an unsigned LEB128 varint.
+   *
+   * @return the offset right after the last written byte
+   */
+  public static int writeVarint(byte[] output, int offset, long value) {
+    while ((value & ~0x7fL) != 0) {
+      output[offset++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    output[offset++] = (byte) value;
+    return offset;
+  }
+
+  /** Reads an unsigned LEB128 varint, use {@link #varintSize(long)} to advance the offset. */
+  public static long readVarint(byte[] input, int offset) {
+    return readVarint(input, offset, input.length);
+  }
+
+  /**
+   * Like {@link #readVarint(byte[], int)}, but refuses to read at or beyond {@code limit}.
+   *
+   * @throws IllegalArgumentException if the varint is not terminated before {@code limit}
+   */
+  public static long readVarint(byte[] input, int offset, int limit) {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      Preconditions.checkArgument(offset < limit, "truncated varint");
+      byte b = input[offset++];
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("malformed varint");
+  }
+
   public static byte checksum(byte[] input, int offset, int length) {
     return Hashing.crc32c().hashBytes(input, offset, length).asBytes()[0];
   }
+
+  /** Like {@link #checksum(byte[], int, int)} over the remaining bytes, which are not consumed. */
+  public static byte checksum(ByteBuffer input) {
+    return Hashing.crc32c().hashBytes(input.duplicate()).asBytes()[0];
+  }
 }
@@ -0,0 +1,154 @@
+package org.jhll.util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link RegisterKernels} on the Vector API, in {@code META-INF/versions/17} of the jar and only
+ * loaded when {@code jdk.incubator.vector} is resolved. The histogram stays scalar: the API has no
+ * conflict-free scatter to count equal values of a vector with.
+ */
+final class VectorRegisterKernels extends RegisterKernels {
+
+  private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Byte> BYTES =
+      VectorSpecies.of(byte.class, LONGS.vectorShape());
+  private static final VectorSpecies<Double> DOUBLES =
+      VectorSpecies.of(double.class, LONGS.vectorShape());
+
+  /** As many ints as there are longs, widened to them lane by lane. */
+  private static final VectorSpecies<Integer> INTS =
+      VectorSpecies.of(int.class, VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+  /** Shuffles and masks of {@link #setMaxGroups(byte[], byte[], int, int)} by width. */
+  private final Layout[] layouts = new Layout[Byte.SIZE + 1];
+
+  VectorRegisterKernels() {
+    if (LONGS.length() < 2) {
+      throw new IllegalStateException("no vector shape wider than a long");
+    }
+    for (int w = 1; w <= Byte.SIZE; ++w) {
+      layouts[w] = new Layout(w);
+    }
+  }
+
+  @Override
+  public boolean isVectorized() {
+    return true;
+  }
+
+  /**
+   * Spreads the groups of 8 values ({@code width} bytes) that fit in a vector into one long lane
+   * each, takes the lane-wise max of {@link Utils#laneMax(long, long, int, long)} on all of them at
+   * once and packs them back.
+   */
+  @Override
+  public void setMaxGroups(byte[] a, byte[] b, int groups, int width) {
+    Layout layout = layouts[width];
+    int lanes = LONGS.length();
+    int step = lanes * width;
+    int g = 0;
+    int offset = 0;
+    int bound = a.length - BYTES.length();
+    for (; g + lanes <= groups && offset <= bound; g += lanes, offset += step) {
+      ByteVector va = ByteVector.fromArray(BYTES, a, offset);
+      ByteVector vb = ByteVector.fromArray(BYTES, b, offset);
+      LongVector x = va.rearrange(layout.spread).and(layout.spreadBytes).reinterpretAsLongs();
+      LongVector y = vb.rearrange(layout.spread).and(layout.spreadBytes).reinterpretAsLongs();
+      ByteVector z = laneMax(x, y, width, layout.highBits).reinterpretAsBytes();
+      // the bytes past the groups are written back as they were
+      ByteVector packed = z.rearrange(layout.pack).and(layout.groupBytes);
+      packed.or(va.and(layout.groupBytes.not())).intoArray(a, offset);
+    }
+    setMaxGroups(a, b, g, groups, width);
+  }
+
+  /** {@link Utils#laneMax(long, long, int, long)} with the multiplication done by shifts. */
+  private static LongVector laneMax(LongVector x, LongVector y, int width, long highBits) {
+    LongVector d = x.or(highBits).sub(y.and(~highBits));
+    LongVector ge = x.and(y.not()).or(x.lanewise(VectorOperators.XOR, y).not().and(d)).and(highBits);
+    // high bit of each lane to all bits of it, modulo 2^64 even for the top lane of width 8
+    LongVector m =
+        ge.lanewise(VectorOperators.LSHL, 1).sub(ge.lanewise(VectorOperators.LSHR, width - 1));
+    return x.and(m).or(y.and(m.not()));
+  }
+
+  @Override
+  public double harmonicSum(int[] values, int n) {
+    DoubleVector acc = DoubleVector.zero(DOUBLES);
+    int i = 0;
+    for (int bound = INTS.loopBound(n); i < bound; i += INTS.length()) {
+      LongVector v =
+          (LongVector)
+              IntVector.fromArray(INTS, values, i).convertShape(VectorOperators.I2L, LONGS, 0);
+      // 2^-v from its exponent bits, see RegisterKernels.inversePowerOf2
+      acc = acc.add(v.neg().add(1023L).lanewise(VectorOperators.LSHL, 52).reinterpretAsDoubles());
+    }
+    double x = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < n; ++i) {
+      x += inversePowerOf2(values[i]);
+    }
+    return x;
+  }
+
+  @Override
+  public int zeroCount(int[] values, int n) {
+    int zeros = 0;
+    int i = 0;
+    for (int bound = INTS.loopBound(n); i < bound; i += INTS.length()) {
+      zeros += IntVector.fromArray(INTS, values, i).eq(0).trueCount();
+    }
+    for (; i < n; ++i) {
+      if (values[i] == 0) {
+        ++zeros;
+      }
+    }
+    return zeros;
+  }
+
+  /**
+   * Moves the big-endian bytes of group {@code k} to long lane {@code k} of a vector, least
+   * significant byte first as lanes are reinterpreted, and back.
+   */
+  private static final class Layout {
+
+    final VectorShuffle<Byte> spread;
+
+    /** All ones in the bytes of a long lane that a group is spread to. */
+    final ByteVector spreadBytes;
+
+    final VectorShuffle<Byte> pack;
+
+    /** All ones in the bytes the groups are packed to. */
+    final ByteVector groupBytes;
+
+    final long highBits;
+
+    Layout(int width) {
+      int n = BYTES.length();
+      int[] spreadIndexes = new int[n];
+      byte[] spreadBytes = new byte[n];
+      int[] packIndexes = new int[n];
+      byte[] groupBytes = new byte[n];
+      for (int k = 0; k < LONGS.length(); ++k) {
+        for (int j = 0; j < width; ++j) {
+          spreadIndexes[k * Long.BYTES + j] = k * width + width - 1 - j;
+          spreadBytes[k * Long.BYTES + j] = -1;
+          packIndexes[k * width + width - 1 - j] = k * Long.BYTES + j;
+          groupBytes[k * width + width - 1 - j] = -1;
+        }
+      }
+      this.spread = VectorShuffle.fromArray(BYTES, spreadIndexes, 0);
+      this.spreadBytes = ByteVector.fromArray(BYTES, spreadBytes, 0);
+      this.pack = VectorShuffle.fromArray(BYTES, packIndexes, 0);
+      this.groupBytes = ByteVector.fromArray(BYTES, groupBytes, 0);
+      this.highBits = Utils.laneHighBits(width, Byte.SIZE);
+    }
+  }
+}
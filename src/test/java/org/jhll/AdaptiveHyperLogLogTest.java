@@ -0,0 +1,130 @@
+package org.jhll;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.jhll.util.ChecksumInput;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+public class AdaptiveHyperLogLogTest {
+
+  private static void putLongs(HyperLogLog<Long> hyperLogLog, long fromValue, int num) {
+    for (int i = 0; i < num; ++i) {
+      hyperLogLog.put(fromValue + i);
+    }
+  }
+
+  @Test
+  public void testPromotion() {
+    AdaptiveHyperLogLog<Long> adaptive = new AdaptiveHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    int denseBytes = ClassicHyperLogLog.requiredBytes(11, 5);
+
+    putLongs(adaptive, 0, 100);
+    putLongs(classic, 0, 100);
+    assertTrue(adaptive.delegate() instanceof ExplicitHyperLogLog);
+    assertEquals(100, adaptive.estimatedCardinality());
+
+    putLongs(adaptive, 100, 400);
+    putLongs(classic, 100, 400);
+    assertTrue(adaptive.delegate() instanceof SparseHyperLogLog);
+    assertTrue(adaptive.serializedSize() <= denseBytes);
+    assertEquals(classic.estimatedCardinality(), adaptive.estimatedCardinality());
+
+    putLongs(adaptive, 500, 100000);
+    putLongs(classic, 500, 100000);
+    assertTrue(adaptive.delegate() instanceof ClassicHyperLogLog);
+    assertEquals(classic, adaptive.delegate());
+    assertArrayEquals(classic.toByteArray(), adaptive.toByteArray());
+  }
+
+  @Test
+  public void testUnion() {
+    AdaptiveHyperLogLog<Long> adaptive = new AdaptiveHyperLogLog<>(Funnels.longFunnel());
+    putLongs(adaptive, 0, 100);
+    AdaptiveHyperLogLog<Long> adaptive1 = new AdaptiveHyperLogLog<>(Funnels.longFunnel());
+    putLongs(adaptive1, 50, 100);
+    HyperLogLog<Long> union = adaptive.union(adaptive1);
+    assertTrue(union instanceof AdaptiveHyperLogLog);
+    assertEquals(150, union.estimatedCardinality());
+
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    putLongs(classic, 50, 100000);
+    HyperLogLog<Long> union1 = classic.union(adaptive);
+    assertTrue(union1 instanceof AdaptiveHyperLogLog);
+    assertEquals(
+        classic.union(adaptive.delegate()), ((AdaptiveHyperLogLog<Long>) union1).delegate());
+  }
+
+  @Test
+  public void testSerialization() {
+    Funnel<Long> funnel = Funnels.longFunnel();
+    int[] nums = {10, 300, 100000};
+    for (int num : nums) {
+      AdaptiveHyperLogLog<Long> hyperLogLog = new AdaptiveHyperLogLog<>(funnel, 12, 6);
+      putLongs(hyperLogLog, Long.MAX_VALUE >>> 2, num);
+      byte[] bytes = hyperLogLog.toByteArray();
+      assertEquals(hyperLogLog.serializedSize(), bytes.length);
+      AdaptiveHyperLogLog<Long> hyperLogLog1 =
+          AdaptiveHyperLogLog.fromByteArray(bytes, funnel, 12, 6);
+      assertEquals(hyperLogLog, hyperLogLog1);
+    }
+  }
+
+  @Test
+  public void testMergeFrom() {
+    AdaptiveHyperLogLog<Long> adaptive = new AdaptiveHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    for (int i = 0; i < 50; ++i) {
+      AdaptiveHyperLogLog<Long> next = new AdaptiveHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+      putLongs(next, i * 100, 100);
+      putLongs(classic, i * 100, 100);
+      assertSame(adaptive, adaptive.mergeFrom(next));
+    }
+    assertTrue(adaptive.delegate() instanceof ClassicHyperLogLog);
+    assertEquals(classic, adaptive.delegate());
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    AdaptiveHyperLogLog<Long> hyperLogLog = new AdaptiveHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (long i = 0; i < 100000; ++i) {
+      hyperLogLog.putLong(i);
+      if (i == 10 || i == 500 || i == 99999) {
+        hyperLogLog.writeTo(out);
+      }
+    }
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    AdaptiveHyperLogLog<Long> read = null;
+    for (int i = 0; i < 3; ++i) {
+      read = AdaptiveHyperLogLog.readFrom(ChecksumInput.of(in), Funnels.longFunnel(), 11, 5);
+    }
+    assertEquals(0, in.available());
+    assertArrayEquals(hyperLogLog.toByteArray(), read.toByteArray());
+  }
+
+  @Test
+  public void testMergeMismatchedConfig() {
+    AdaptiveHyperLogLog<Long> hyperLogLog = new AdaptiveHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    classic.putLong(1L);
+    assertThrows(IllegalArgumentException.class, () -> hyperLogLog.mergeFrom(classic));
+    assertThrows(IllegalArgumentException.class, () -> hyperLogLog.union(classic));
+    assertEquals(0, hyperLogLog.estimatedCardinality());
+
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16);
+    explicit.putLong(1L);
+    assertSame(hyperLogLog, hyperLogLog.mergeFrom(explicit));
+    assertEquals(1, hyperLogLog.estimatedCardinality());
+  }
+}
@@ -0,0 +1,93 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(BatchPutBenchmark.BATCH_SIZE)
+// @Threads(3)
+@Fork(1)
+/**
+ * Scores are per element.
+ *
+ * <pre>
+ * Benchmark                              Mode  Cnt   Score    Error  Units
+ * BatchPutBenchmark.classicPutAll        avgt    3   8.130 ± 13.163  ns/op
+ * BatchPutBenchmark.classicPutAllLongs   avgt    3  19.870 ± 33.980  ns/op
+ * BatchPutBenchmark.classicPutHashLoop   avgt    3  12.026 ±  0.367  ns/op
+ * BatchPutBenchmark.classicPutLongLoop   avgt    3  22.687 ±  1.215  ns/op
+ * BatchPutBenchmark.explicitPutAll       avgt    3  42.257 ± 19.554  ns/op
+ * BatchPutBenchmark.explicitPutHashLoop  avgt    3  90.736 ± 14.020  ns/op
+ * </pre>
+ */
+public class BatchPutBenchmark {
+
+  static final int BATCH_SIZE = 10000;
+
+  private HyperLogLog<Long> classicHyperLogLog;
+
+  private long[] values;
+
+  @Setup
+  public void setup() {
+    classicHyperLogLog = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    values = ThreadLocalRandom.current().longs(BATCH_SIZE).toArray();
+  }
+
+  @Benchmark
+  public void classicPutHashLoop() {
+    for (long value : values) {
+      classicHyperLogLog.putHash(value);
+    }
+  }
+
+  @Benchmark
+  public void classicPutAll() {
+    classicHyperLogLog.putAll(values);
+  }
+
+  @Benchmark
+  public void classicPutLongLoop() {
+    for (long value : values) {
+      classicHyperLogLog.putLong(value);
+    }
+  }
+
+  @Benchmark
+  public void classicPutAllLongs() {
+    classicHyperLogLog.putAllLongs(values);
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> explicitPutHashLoop() {
+    HyperLogLog<Long> explicitHyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16);
+    for (long value : values) {
+      explicitHyperLogLog.putHash(value);
+    }
+    return explicitHyperLogLog;
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> explicitPutAll() {
+    HyperLogLog<Long> explicitHyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16);
+    explicitHyperLogLog.putAll(values);
+    return explicitHyperLogLog;
+  }
+}
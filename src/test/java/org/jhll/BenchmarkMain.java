@@ -0,0 +1,31 @@
+package org.jhll;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Entry point of the benchmarks jar built by {@code mvn -Pbenchmarks -DskipTests package}. Takes
+ * the usual JMH command line, e.g. {@code java -jar java-hyperloglog-1.0-SNAPSHOT-benchmarks.jar
+ * SketchBenchmark -p log2m=14 -t 4 -rf json}, and always adds the GC profiler so that allocation
+ * rates are reported next to the scores.
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {}
+
+  public static void main(String[] args)
+      throws CommandLineOptionException, IOException, RunnerException {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+    new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+  }
+}
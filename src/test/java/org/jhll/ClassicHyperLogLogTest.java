@@ -2,10 +2,28 @@ package org.jhll;
 
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
+import com.google.common.io.BaseEncoding;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ByteBufferAllocator;
+import org.jhll.util.ChecksumInput;
+import org.jhll.util.ChecksumOutput;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class ClassicHyperLogLogTest {
 
@@ -16,7 +34,8 @@ public class ClassicHyperLogLogTest {
   }
 
   private void verifyRelativeError(int num) {
-    ClassicHyperLogLog<Long> hyperLogLog = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> hyperLogLog =
+        new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, HashStrategy.murmur3());
     putLongs(hyperLogLog, Long.MAX_VALUE >>> 1, num);
     long cardinality = hyperLogLog.estimatedCardinality();
     double err = (cardinality - num) / ((double) num);
@@ -26,10 +45,12 @@ public class ClassicHyperLogLogTest {
   }
 
   private void verifyUnion(int num) {
-    ClassicHyperLogLog<Long> hyperLogLog1 = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> hyperLogLog1 =
+        new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, HashStrategy.murmur3());
     putLongs(hyperLogLog1, Long.MAX_VALUE >>> 1, num);
 
-    ClassicHyperLogLog<Long> hyperLogLog2 = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> hyperLogLog2 =
+        new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, HashStrategy.murmur3());
     putLongs(hyperLogLog2, (Long.MAX_VALUE - num) >>> 1, num);
 
     HyperLogLog<Long> hyperLogLog = hyperLogLog1.union(hyperLogLog2);
@@ -50,6 +71,26 @@ public class ClassicHyperLogLogTest {
     verifyRelativeError(1999999);
   }
 
+  @Test
+  public void testHashStrategies() {
+    HashStrategy[] strategies = {
+      HashStrategy.murmur3(),
+      HashStrategy.farmHash(),
+      HashStrategy.xxHash64(),
+      HashStrategy.wyHash()
+    };
+    int[] nums = {1027, 37659, 1999999};
+    for (HashStrategy strategy : strategies) {
+      for (int num : nums) {
+        ClassicHyperLogLog<Long> hyperLogLog =
+            new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, strategy);
+        putLongs(hyperLogLog, Long.MAX_VALUE >>> 1, num);
+        double err = (hyperLogLog.estimatedCardinality() - num) / ((double) num);
+        assertTrue(strategy + ": " + err, Math.abs(err) < 3 * hyperLogLog.relativeError());
+      }
+    }
+  }
+
   @Test
   public void testUnion() {
     verifyUnion(109);
@@ -69,4 +110,371 @@ public class ClassicHyperLogLogTest {
     ClassicHyperLogLog<Long> hyperLogLog1 = ClassicHyperLogLog.fromByteArray(bytes, funnel);
     assertEquals(hyperLogLog, hyperLogLog1);
   }
+
+  @Test
+  public void testSerializationPrefix() {
+    Funnel<Long> funnel = Funnels.longFunnel();
+    ClassicHyperLogLog<Long> hyperLogLog = new ClassicHyperLogLog<>(funnel, 16, 8);
+    putLongs(hyperLogLog, 0, 1000);
+    ClassicHyperLogLog<Long> hyperLogLog1 =
+        ClassicHyperLogLog.fromByteArray(hyperLogLog.toByteArray(), funnel);
+    assertEquals(hyperLogLog, hyperLogLog1);
+  }
+
+  @Test
+  public void testPrimitivePuts() {
+    ClassicHyperLogLog<Long> longs = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> longs1 = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Integer> ints = new ClassicHyperLogLog<>(Funnels.integerFunnel());
+    ClassicHyperLogLog<Integer> ints1 = new ClassicHyperLogLog<>(Funnels.integerFunnel());
+    ClassicHyperLogLog<byte[]> bytes = new ClassicHyperLogLog<>(Funnels.byteArrayFunnel());
+    ClassicHyperLogLog<byte[]> bytes1 = new ClassicHyperLogLog<>(Funnels.byteArrayFunnel());
+    ClassicHyperLogLog<CharSequence> chars =
+        new ClassicHyperLogLog<>(Funnels.unencodedCharsFunnel());
+    ClassicHyperLogLog<CharSequence> chars1 =
+        new ClassicHyperLogLog<>(Funnels.unencodedCharsFunnel());
+    for (int i = 0; i < 10000; ++i) {
+      longs.put(i * 31L);
+      longs1.putLong(i * 31L);
+      ints.put(i);
+      ints1.putInt(i);
+      byte[] value = ("value" + i).getBytes(StandardCharsets.UTF_8);
+      bytes.put(value);
+      bytes1.putBytes(value, 0, value.length);
+      chars.put("value" + i);
+      chars1.putCharSequence(new StringBuilder("value").append(i));
+    }
+    assertEquals(longs, longs1);
+    assertEquals(ints, ints1);
+    assertEquals(bytes, bytes1);
+    assertEquals(chars, chars1);
+  }
+
+  @Test
+  public void testHashStrategyMismatch() {
+    ClassicHyperLogLog<Long> hyperLogLog =
+        new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, HashStrategy.murmur3());
+    ClassicHyperLogLog<Long> hyperLogLog1 =
+        new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, HashStrategy.wyHash());
+    assertThrows(IllegalArgumentException.class, () -> hyperLogLog.union(hyperLogLog1));
+    byte[] bytes = hyperLogLog.toByteArray();
+    assertEquals(
+        HashStrategy.murmur3(),
+        ClassicHyperLogLog.fromByteArray(bytes, Funnels.longFunnel()).hashStrategy());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ClassicHyperLogLog.fromByteArray(bytes, Funnels.longFunnel(), HashStrategy.wyHash()));
+  }
+
+  @Test
+  public void testPutAll() {
+    long[] values = ThreadLocalRandom.current().longs(100000).toArray();
+    ClassicHyperLogLog<Long> expected = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    for (long value : values) {
+      expected.putHash(value);
+    }
+    ClassicHyperLogLog<Long> hyperLogLog = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    hyperLogLog.putAll(values, 0, 500);
+    hyperLogLog.putAll(values, 500, values.length - 500);
+    assertEquals(expected, hyperLogLog);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(values.length << 3);
+    buffer.asLongBuffer().put(values);
+    hyperLogLog.reset();
+    hyperLogLog.putAll(buffer);
+    assertEquals(0, buffer.remaining());
+    assertEquals(expected, hyperLogLog);
+
+    for (long value : values) {
+      expected.putLong(value);
+    }
+    hyperLogLog.putAllLongs(values);
+    assertEquals(expected, hyperLogLog);
+  }
+
+  @Test
+  public void testIncrementalEstimate() {
+    for (int width = 1; width <= 8; ++width) {
+      ClassicHyperLogLog<Long> hyperLogLog =
+          new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, width);
+      for (int n = 0; n < 50000; ++n) {
+        hyperLogLog.putLong(ThreadLocalRandom.current().nextLong());
+        if (n % 997 != 0) {
+          continue;
+        }
+        ClassicHyperLogLog<Long> recounted =
+            ClassicHyperLogLog.fromByteArray(hyperLogLog.toByteArray(), Funnels.longFunnel());
+        assertEquals(recounted.estimatedCardinality(), hyperLogLog.estimatedCardinality());
+        // keeps counting incrementally after the recount
+        recounted.putLong(-n);
+        hyperLogLog.putLong(-n);
+        assertEquals(recounted.estimatedCardinality(), hyperLogLog.estimatedCardinality());
+      }
+      HyperLogLog<Long> union =
+          hyperLogLog.union(new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, width));
+      union.putLong(1);
+      hyperLogLog.putLong(1);
+      assertEquals(hyperLogLog.estimatedCardinality(), union.estimatedCardinality());
+      hyperLogLog.reset();
+      assertEquals(0, hyperLogLog.estimatedCardinality());
+    }
+  }
+
+  @Test
+  public void testMergeFrom() {
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> classic1 = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> narrow = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 3);
+    SparseHyperLogLog<Long> sparse = new SparseHyperLogLog<>(Funnels.longFunnel());
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    AdaptiveHyperLogLog<Long> adaptive = new AdaptiveHyperLogLog<>(Funnels.longFunnel());
+    putLongs(classic, 0, 10000);
+    putLongs(classic1, 5000, 10000);
+    putLongs(narrow, 20000, 10000);
+    putLongs(sparse, 40000, 100);
+    putLongs(explicit, 50000, 100);
+    putLongs(adaptive, 60000, 100);
+
+    HyperLogLog<Long> expected =
+        classic
+            .union(classic1)
+            .union(narrow)
+            .union(sparse)
+            .union(explicit)
+            .union(adaptive.delegate());
+    assertSame(classic, classic.mergeFrom(classic1));
+    assertSame(classic, classic.mergeFrom(narrow));
+    assertSame(classic, classic.mergeFrom(sparse));
+    assertSame(classic, classic.mergeFrom(explicit));
+    assertSame(classic, classic.mergeFrom(adaptive));
+    assertEquals(expected, classic);
+    assertEquals(expected.estimatedCardinality(), classic.estimatedCardinality());
+
+    // wider registers can not be merged in place
+    ClassicHyperLogLog<Long> wide = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 6);
+    HyperLogLog<Long> merged = narrow.mergeFrom(wide);
+    assertNotSame(narrow, merged);
+    assertEquals(narrow.union(wide), merged);
+  }
+
+  @Test
+  public void testOffHeap() {
+    ClassicHyperLogLog<Long> heap = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    try (ClassicHyperLogLog<Long> direct =
+            new ClassicHyperLogLog<>(
+                Funnels.longFunnel(),
+                14,
+                6,
+                HashStrategy.defaultStrategy(),
+                ByteBufferAllocator.direct());
+        ClassicHyperLogLog<Long> direct1 =
+            ClassicHyperLogLog.fromByteArray(
+                heap.toByteArray(), Funnels.longFunnel(), ByteBufferAllocator.direct())) {
+      for (long i = 0; i < 100000; ++i) {
+        heap.putLong(i);
+        direct.putLong(i);
+        direct1.putLong(-i);
+      }
+      assertEquals(heap, direct);
+      assertArrayEquals(heap.toByteArray(), direct.toByteArray());
+      assertEquals(heap.estimatedCardinality(), direct.estimatedCardinality());
+
+      HyperLogLog<Long> union = direct.union(direct1);
+      assertEquals(heap.union(direct1), union);
+      assertSame(direct, direct.mergeFrom(direct1));
+      assertEquals(union, direct);
+      ((ClassicHyperLogLog<Long>) union).close();
+    }
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    ClassicHyperLogLog<Long> hyperLogLog = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 6);
+    ClassicHyperLogLog<Long> offHeap =
+        new ClassicHyperLogLog<>(
+            Funnels.longFunnel(),
+            12,
+            6,
+            HashStrategy.defaultStrategy(),
+            ByteBufferAllocator.direct());
+    for (long i = 0; i < 100000; ++i) {
+      hyperLogLog.putLong(i);
+      offHeap.putLong(i);
+    }
+    byte[] bytes = hyperLogLog.toByteArray();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    hyperLogLog.writeTo(out);
+    offHeap.writeTo(Channels.newChannel(out));
+    assertEquals(2 * bytes.length, out.size());
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertEquals(
+        hyperLogLog, ClassicHyperLogLog.readFrom(ChecksumInput.of(in), Funnels.longFunnel()));
+    assertEquals(
+        hyperLogLog,
+        ClassicHyperLogLog.readFrom(
+            ChecksumInput.of(Channels.newChannel(in)), Funnels.longFunnel()));
+    assertEquals(0, in.available());
+
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+    offHeap.writeTo(buffer);
+    assertArrayEquals(bytes, buffer.array());
+    buffer.flip();
+    assertEquals(
+        hyperLogLog, ClassicHyperLogLog.readFrom(ChecksumInput.of(buffer), Funnels.longFunnel()));
+    assertEquals(0, buffer.remaining());
+    offHeap.close();
+  }
+
+  @Test
+  public void testCompressed() throws IOException {
+    for (int w = 1; w <= 8; ++w) {
+      for (long n : new long[] {0, 100, 1000000}) {
+        ClassicHyperLogLog<Long> hyperLogLog =
+            new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, w);
+        for (long i = 0; i < n; ++i) {
+          hyperLogLog.putLong(i);
+        }
+        byte[] compressed = hyperLogLog.toCompressedByteArray();
+        assertEquals(hyperLogLog.compressedSize(), compressed.length);
+        assertEquals(
+            hyperLogLog, ClassicHyperLogLog.fromByteArray(compressed, Funnels.longFunnel()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hyperLogLog.writeCompressedTo(ChecksumOutput.of(out));
+        assertArrayEquals(compressed, out.toByteArray());
+        ClassicHyperLogLog<Long> read =
+            ClassicHyperLogLog.readFrom(
+                ChecksumInput.of(new ByteArrayInputStream(compressed)), Funnels.longFunnel());
+        assertEquals(hyperLogLog, read);
+        assertEquals(hyperLogLog.estimatedCardinality(), read.estimatedCardinality());
+      }
+    }
+
+    ClassicHyperLogLog<Long> dense = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    for (long i = 0; i < 1000000; ++i) {
+      dense.putLong(i);
+    }
+    byte[] compressed = dense.toCompressedByteArray();
+    assertTrue(compressed.length < dense.serializedSize() / 2);
+
+    byte[] corrupted = compressed.clone();
+    corrupted[compressed.length / 2] ^= 1;
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ClassicHyperLogLog.fromByteArray(corrupted, Funnels.longFunnel()));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ClassicHyperLogLog.fromByteArray(
+                Arrays.copyOf(compressed, compressed.length - 1), Funnels.longFunnel()));
+  }
+
+  @Test
+  public void testMergeCompressedFrom() throws IOException {
+    ClassicHyperLogLog<Long> a = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 6);
+    ClassicHyperLogLog<Long> b = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+    for (long i = 0; i < 100000; ++i) {
+      a.putLong(i);
+      b.putLong(i + 50000);
+    }
+    HyperLogLog<Long> expected = a.union(b);
+    a.estimatedCardinality();
+    a.mergeCompressedFrom(ChecksumInput.of(ByteBuffer.wrap(b.toCompressedByteArray())));
+    assertEquals(expected, a);
+    assertEquals(expected.estimatedCardinality(), a.estimatedCardinality());
+
+    ClassicHyperLogLog<Long> narrow = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+    ChecksumInput wider = ChecksumInput.of(ByteBuffer.wrap(a.toCompressedByteArray()));
+    assertThrows(IllegalArgumentException.class, () -> narrow.mergeCompressedFrom(wider));
+  }
+
+  @Test
+  public void testDelta() throws IOException {
+    ClassicHyperLogLog<Long> source = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    assertThrows(IllegalStateException.class, source::toDeltaByteArray);
+    for (long i = 0; i < 1000000; ++i) {
+      source.putLong(i);
+    }
+    byte[] checkpoint = source.toByteArray();
+    source.markClean();
+    assertEquals(0, source.dirtyRegisters());
+
+    for (long i = 1000000; i < 1010000; ++i) {
+      source.putLong(i);
+    }
+    byte[] first = source.toDeltaByteArray();
+    assertEquals(source.deltaSize(), first.length);
+    assertTrue(first.length < checkpoint.length / 4);
+    source.markClean();
+    for (long i = 1010000; i < 1020000; ++i) {
+      source.putLong(i);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    source.writeDeltaTo(ChecksumOutput.of(out));
+    byte[] second = out.toByteArray();
+    assertArrayEquals(source.toDeltaByteArray(), second);
+
+    // out of order and duplicated
+    ClassicHyperLogLog<Long> target =
+        ClassicHyperLogLog.fromByteArray(checkpoint, Funnels.longFunnel());
+    target.applyDelta(second);
+    target.applyDelta(first);
+    target.applyDeltaFrom(ChecksumInput.of(new ByteArrayInputStream(second)));
+    assertEquals(source, target);
+    assertEquals(source.estimatedCardinality(), target.estimatedCardinality());
+
+    // relayed by a narrower width sketch
+    ClassicHyperLogLog<Long> narrow = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 5);
+    narrow.markClean();
+    narrow.putLong(-1L);
+    ClassicHyperLogLog<Long> wide = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    wide.markClean();
+    wide.applyDelta(narrow.toDeltaByteArray());
+    assertEquals(1, wide.dirtyRegisters());
+    assertThrows(IllegalArgumentException.class, () -> narrow.applyDelta(first));
+
+    byte[] corrupted = first.clone();
+    corrupted[first.length / 2] ^= 1;
+    ClassicHyperLogLog<Long> untouched =
+        ClassicHyperLogLog.fromByteArray(checkpoint, Funnels.longFunnel());
+    assertThrows(IllegalArgumentException.class, () -> untouched.applyDelta(corrupted));
+    assertArrayEquals(checkpoint, untouched.toByteArray());
+
+    // in place merges are tracked too
+    ClassicHyperLogLog<Long> other = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    for (long i = 0; i < 10000; ++i) {
+      other.putLong(-i);
+    }
+    byte[] beforeMerge = source.toByteArray();
+    source.markClean();
+    assertSame(source, source.mergeFrom(other));
+    assertTrue(source.dirtyRegisters() > 0);
+    ClassicHyperLogLog<Long> merged =
+        ClassicHyperLogLog.fromByteArray(beforeMerge, Funnels.longFunnel());
+    merged.applyDelta(source.toDeltaByteArray());
+    assertEquals(source, merged);
+
+    source.reset();
+    assertThrows(IllegalStateException.class, source::dirtyRegisters);
+  }
+
+  /** 0..99 in log2m 4, width 5, written by toByteArray() before hash strategies existed. */
+  @Test
+  public void testLegacyFormat() throws IOException {
+    byte[] bytes = BaseEncoding.base16().lowerCase().decode("c72531c8510ca321047118438f");
+    Funnel<Long> funnel = Funnels.longFunnel();
+    ClassicHyperLogLog<Long> expected =
+        new ClassicHyperLogLog<>(funnel, 4, 5, HashStrategy.murmur3());
+    putLongs(expected, 0, 100);
+    assertEquals(expected, ClassicHyperLogLog.fromByteArray(bytes, funnel));
+    assertEquals(
+        expected,
+        ClassicHyperLogLog.readFrom(ChecksumInput.of(new ByteArrayInputStream(bytes)), funnel));
+    assertEquals(expected, HyperLogLogs.fromByteArray(bytes, funnel));
+    assertEquals(103, ClassicHyperLogLog.fromByteArray(bytes, funnel).estimatedCardinality());
+    // written back in the current format
+    assertEquals(ClassicHyperLogLog.MARK, expected.toByteArray()[0]);
+    assertEquals(expected, ClassicHyperLogLog.fromByteArray(expected.toByteArray(), funnel));
+  }
 }
@@ -0,0 +1,147 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class ClassicHyperLogLogViewTest {
+
+  private static ClassicHyperLogLog<Long> classic(int log2m, int w, long from, long to) {
+    ClassicHyperLogLog<Long> hyperLogLog = new ClassicHyperLogLog<>(Funnels.longFunnel(), log2m, w);
+    for (long i = from; i < to; ++i) {
+      hyperLogLog.putLong(i);
+    }
+    return hyperLogLog;
+  }
+
+  @Test
+  public void testWrap() {
+    for (int w = 1; w <= 8; ++w) {
+      ClassicHyperLogLog<Long> hyperLogLog = classic(11, w, 0, 100000);
+      byte[] bytes = hyperLogLog.toByteArray();
+      ClassicHyperLogLogView<Long> view =
+          ClassicHyperLogLogView.wrap(bytes, Funnels.longFunnel()).verifyChecksum();
+      assertEquals(hyperLogLog.estimatedCardinality(), view.estimatedCardinality());
+      assertEquals(hyperLogLog.serializedSize(), view.serializedSize());
+      assertEquals(hyperLogLog.relativeError(), view.relativeError(), 0);
+      assertEquals(hyperLogLog.hashStrategy(), view.hashStrategy());
+      assertArrayEquals(bytes, view.toByteArray());
+      assertEquals(hyperLogLog, view.toClassic());
+    }
+  }
+
+  @Test
+  public void testWrapByteBuffer() {
+    ClassicHyperLogLog<Long> hyperLogLog = classic(12, 6, 0, 50000);
+    byte[] bytes = hyperLogLog.toByteArray();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 10);
+    buffer.position(7);
+    buffer.put(bytes);
+    buffer.position(7).limit(7 + bytes.length);
+    ClassicHyperLogLogView<Long> view =
+        ClassicHyperLogLogView.wrap(buffer, Funnels.longFunnel()).verifyChecksum();
+    assertEquals(7, buffer.position());
+    assertEquals(7 + bytes.length, buffer.limit());
+    assertEquals(hyperLogLog.estimatedCardinality(), view.estimatedCardinality());
+    assertEquals(hyperLogLog, view.toClassic());
+  }
+
+  /** The estimate decodes registers batch by batch, without copying the viewed bytes. */
+  @Test
+  public void testEstimateAllocation() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    long thread = Thread.currentThread().getId();
+    for (int w = 5; w <= 6; ++w) {
+      byte[] bytes = classic(16, w, 0, 200000).toByteArray();
+      ClassicHyperLogLogView<Long> view =
+          ClassicHyperLogLogView.wrap(ByteBuffer.wrap(bytes), Funnels.longFunnel());
+      long estimate = 0;
+      for (int i = 0; i < 100; ++i) {
+        estimate += view.estimatedCardinality();
+      }
+      int calls = 100;
+      long before = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < calls; ++i) {
+        estimate += view.estimatedCardinality();
+      }
+      long perCall = (threads.getThreadAllocatedBytes(thread) - before) / calls;
+      assertTrue(estimate > 0);
+      // one batch of decoded registers at most, far below the 40+ KB of registers
+      assertTrue("allocated " + perCall + " bytes per estimate", perCall < 4096);
+    }
+  }
+
+  @Test
+  public void testChecksum() {
+    byte[] bytes = classic(11, 5, 0, 10000).toByteArray();
+    bytes[20] ^= 1;
+    ClassicHyperLogLogView<Long> view = ClassicHyperLogLogView.wrap(bytes, Funnels.longFunnel());
+    assertFalse(view.isChecksumValid());
+    try {
+      view.verifyChecksum();
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      ClassicHyperLogLogView.wrap(new byte[] {1, 2, 3, 4, 5}, Funnels.longFunnel());
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testUnion() {
+    ClassicHyperLogLog<Long> a = classic(11, 5, 0, 60000);
+    ClassicHyperLogLog<Long> b = classic(11, 5, 30000, 90000);
+    ClassicHyperLogLogView<Long> view =
+        ClassicHyperLogLogView.wrap(b.toByteArray(), Funnels.longFunnel());
+    HyperLogLog<Long> expected = a.union(b);
+    assertEquals(expected, a.union(view));
+    assertEquals(expected, view.union(a));
+
+    ClassicHyperLogLog<Long> acc = classic(11, 5, 0, 60000);
+    assertSame(acc, acc.mergeFrom(view));
+    assertEquals(expected, acc);
+    assertEquals(expected.estimatedCardinality(), acc.estimatedCardinality());
+
+    // wider receiver
+    ClassicHyperLogLog<Long> wide = classic(11, 6, 0, 60000);
+    assertSame(wide, wide.mergeFrom(view));
+    assertEquals(wide.union(b), wide);
+  }
+
+  @Test
+  public void testReadOnly() {
+    ClassicHyperLogLogView<Long> view =
+        ClassicHyperLogLogView.wrap(classic(11, 5, 0, 100).toByteArray(), Funnels.longFunnel());
+    try {
+      view.putLong(1L);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      view.reset();
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    assertTrue(view.estimatedCardinality() > 0);
+  }
+}
@@ -0,0 +1,94 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ConcurrentHyperLogLogTest {
+
+  @Test
+  public void testConcurrentPuts() throws InterruptedException {
+    int threads = 8;
+    int num = 200000;
+    ConcurrentHyperLogLog<Long> concurrent =
+        new ConcurrentHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    for (long i = 0; i < (long) threads * num; ++i) {
+      classic.putLong(i);
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; ++t) {
+      long from = (long) t * num;
+      Thread worker =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+                for (long i = from; i < from + num; ++i) {
+                  concurrent.putLong(i);
+                  if ((i & 0xfff) == 0) {
+                    concurrent.estimatedCardinality();
+                  }
+                }
+              });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(classic, concurrent.toClassic());
+    assertEquals(classic.estimatedCardinality(), concurrent.estimatedCardinality());
+  }
+
+  @Test
+  public void testSerialization() {
+    ConcurrentHyperLogLog<Long> hyperLogLog = new ConcurrentHyperLogLog<>(Funnels.longFunnel());
+    for (long i = 0; i < 100000; ++i) {
+      hyperLogLog.putLong(i);
+    }
+    byte[] bytes = hyperLogLog.toByteArray();
+    assertEquals(hyperLogLog.serializedSize(), bytes.length);
+    assertEquals(
+        hyperLogLog.toClassic(), ClassicHyperLogLog.fromByteArray(bytes, Funnels.longFunnel()));
+    ConcurrentHyperLogLog<Long> hyperLogLog1 =
+        ConcurrentHyperLogLog.fromByteArray(bytes, Funnels.longFunnel());
+    assertEquals(hyperLogLog, hyperLogLog1);
+    assertArrayEquals(bytes, hyperLogLog1.toByteArray());
+  }
+
+  @Test
+  public void testMergeFrom() {
+    ConcurrentHyperLogLog<Long> concurrent = new ConcurrentHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ClassicHyperLogLog<Long> viewed = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    for (long i = 0; i < 10000; ++i) {
+      concurrent.putLong(i);
+      classic.putLong(i + 5000);
+      viewed.putLong(i + 20000);
+      explicit.putLong(-i);
+    }
+    HyperLogLog<Long> expected = concurrent.union(classic).union(viewed).union(explicit);
+    assertSame(concurrent, concurrent.mergeFrom(classic));
+    assertSame(
+        concurrent,
+        concurrent.mergeFrom(
+            ClassicHyperLogLogView.wrap(viewed.toByteArray(), Funnels.longFunnel())));
+    assertSame(concurrent, concurrent.mergeFrom(explicit));
+    assertEquals(expected, concurrent.toClassic());
+  }
+}
@@ -0,0 +1,68 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+/**
+ * log2m = 16, registerWidth = 6. {@code estimateScan} walks all registers, as {@link
+ * ConcurrentHyperLogLog} still does.
+ *
+ * <pre>
+ * Benchmark                           Mode  Cnt       Score      Error  Units
+ * EstimateBenchmark.estimate          avgt    3     196.773 ±   58.235  ns/op
+ * EstimateBenchmark.estimateAfterPut  avgt    3     242.122 ±  140.176  ns/op
+ * EstimateBenchmark.estimateScan      avgt    3  565496.829 ± 7598.865  ns/op
+ * </pre>
+ */
+public class EstimateBenchmark {
+
+  private ClassicHyperLogLog<Long> classic;
+
+  private ConcurrentHyperLogLog<Long> concurrent;
+
+  @Setup
+  public void setup() {
+    classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 16, 6);
+    concurrent = new ConcurrentHyperLogLog<>(Funnels.longFunnel(), 16, 6);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < 1000000; ++i) {
+      long value = random.nextLong();
+      classic.putLong(value);
+      concurrent.putLong(value);
+    }
+  }
+
+  @Benchmark
+  public long estimate() {
+    return classic.estimatedCardinality();
+  }
+
+  @Benchmark
+  public long estimateAfterPut() {
+    classic.putLong(ThreadLocalRandom.current().nextLong());
+    return classic.estimatedCardinality();
+  }
+
+  @Benchmark
+  public long estimateScan() {
+    return concurrent.estimatedCardinality();
+  }
+}
@@ -1,13 +1,28 @@
 package org.jhll;
 
 import com.google.common.hash.Funnels;
+import com.google.common.io.BaseEncoding;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumInput;
+import org.jhll.util.ChecksumOutput;
+import org.jhll.util.Utils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class ExplicitHyperLogLogTest {
 
@@ -51,4 +66,180 @@ public class ExplicitHyperLogLogTest {
     assertNotSame(explicitHyperLogLog1, explicitHyperLogLog);
     assertEquals(explicitHyperLogLog1, explicitHyperLogLog);
   }
+
+  @Test
+  public void testPrimitivePuts() {
+    ExplicitHyperLogLog<Long> hyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    ExplicitHyperLogLog<Long> hyperLogLog1 = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    for (long i = 0; i < 100; ++i) {
+      hyperLogLog.put(i);
+      hyperLogLog1.putLong(i);
+    }
+    assertEquals(hyperLogLog, hyperLogLog1);
+  }
+
+  @Test
+  public void testPutAll() {
+    long[] values = ThreadLocalRandom.current().longs(1000).toArray();
+    ExplicitHyperLogLog<Long> hyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    ExplicitHyperLogLog<Long> hyperLogLog1 = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    for (long value : values) {
+      hyperLogLog.putHash(value);
+      hyperLogLog.putLong(value);
+    }
+    hyperLogLog1.putAll(LongBuffer.wrap(values));
+    hyperLogLog1.putAllLongs(values);
+    assertEquals(hyperLogLog, hyperLogLog1);
+  }
+
+  @Test
+  public void testMergeFrom() {
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    ExplicitHyperLogLog<Long> explicit1 = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    for (long i = 0; i < 1000; ++i) {
+      explicit.putLong(i);
+      explicit1.putLong(i + 500);
+    }
+    HyperLogLog<Long> expected = explicit.union(explicit1);
+    assertSame(explicit, explicit.mergeFrom(explicit1));
+    assertEquals(expected, explicit);
+
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    for (long i = 0; i < 10000; ++i) {
+      classic.putLong(-i);
+    }
+    HyperLogLog<Long> promoted = explicit.mergeFrom(classic);
+    assertTrue(promoted instanceof ClassicHyperLogLog);
+    assertEquals(classic.union(explicit), promoted);
+    assertEquals(1500, explicit.estimatedCardinality());
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    ExplicitHyperLogLog<Long> hyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    hyperLogLog.putAll(ThreadLocalRandom.current().longs(5000).toArray());
+    byte[] bytes = hyperLogLog.toByteArray();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    hyperLogLog.writeTo(out);
+    // written in the order of the set, not sorted like toByteArray()
+    assertEquals(bytes.length, out.size());
+    ExplicitHyperLogLog<Long> read =
+        ExplicitHyperLogLog.readFrom(
+            ChecksumInput.of(new ByteArrayInputStream(out.toByteArray())), Funnels.longFunnel());
+    assertEquals(hyperLogLog, read);
+    assertEquals(
+        hyperLogLog, ExplicitHyperLogLog.fromByteArray(out.toByteArray(), Funnels.longFunnel()));
+    assertEquals(
+        hyperLogLog,
+        ExplicitHyperLogLog.readFrom(
+            ChecksumInput.of(new ByteArrayInputStream(bytes)), Funnels.longFunnel()));
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    new ExplicitHyperLogLog<Long>(Funnels.longFunnel(), 10).writeTo(buffer);
+    buffer.flip();
+    assertEquals(
+        0,
+        ExplicitHyperLogLog.readFrom(ChecksumInput.of(buffer), Funnels.longFunnel())
+            .estimatedCardinality());
+
+    // a hostile length runs out of bytes instead of presizing a huge set
+    byte[] hostile = Arrays.copyOf(bytes, 6);
+    ByteBuffer.wrap(hostile).putInt(2, Integer.MAX_VALUE);
+    assertThrows(
+        IOException.class,
+        () ->
+            ExplicitHyperLogLog.readFrom(
+                ChecksumInput.of(new ByteArrayInputStream(hostile)), Funnels.longFunnel()));
+  }
+
+  @Test
+  public void testCompact() throws IOException {
+    ExplicitHyperLogLog<Long> hyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    hyperLogLog.putAll(ThreadLocalRandom.current().longs(100000).toArray());
+    hyperLogLog.putHash(Long.MIN_VALUE);
+    hyperLogLog.putHash(Long.MAX_VALUE);
+    hyperLogLog.putHash(0);
+    byte[] full = hyperLogLog.toByteArray();
+    byte[] compact = hyperLogLog.toCompactByteArray();
+    assertTrue(compact.length <= full.length);
+    assertEquals(hyperLogLog, ExplicitHyperLogLog.fromByteArray(compact, Funnels.longFunnel()));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    hyperLogLog.writeCompactTo(ChecksumOutput.of(out), Long.SIZE);
+    assertArrayEquals(compact, out.toByteArray());
+    assertEquals(
+        hyperLogLog,
+        ExplicitHyperLogLog.readFrom(
+            ChecksumInput.of(new ByteArrayInputStream(compact)), Funnels.longFunnel()));
+
+    byte[] truncated = hyperLogLog.toCompactByteArray(32);
+    assertTrue(truncated.length < full.length / 2);
+    ExplicitHyperLogLog<Long> read =
+        ExplicitHyperLogLog.fromByteArray(truncated, Funnels.longFunnel());
+    read.forEachValue(value -> assertEquals(0, value & 0xffffffffL));
+    assertEquals(hyperLogLog.estimatedCardinality(), read.estimatedCardinality(), 10);
+
+    // log2m + 2^registerWidth - 1 bits still promote to the same registers
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    ClassicHyperLogLog<Long> classic1 = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    classic.mergeFrom(hyperLogLog);
+    classic1.mergeFrom(
+        ExplicitHyperLogLog.fromByteArray(
+            hyperLogLog.toCompactByteArray(11 + 31), Funnels.longFunnel()));
+    assertEquals(classic, classic1);
+
+    byte[] empty = new ExplicitHyperLogLog<Long>(Funnels.longFunnel(), 10).toCompactByteArray(7);
+    assertEquals(8, empty.length);
+    assertEquals(
+        0, ExplicitHyperLogLog.fromByteArray(empty, Funnels.longFunnel()).estimatedCardinality());
+    ExplicitHyperLogLog<Long> small = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    small.putAllLongs(new long[] {1, 2, 3});
+    assertEquals(
+        3,
+        AdaptiveHyperLogLog.fromByteArray(small.toCompactByteArray(), Funnels.longFunnel(), 11, 5)
+            .estimatedCardinality());
+  }
+
+  @Test
+  public void testMalformedCompact() {
+    ExplicitHyperLogLog<Long> hyperLogLog = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    hyperLogLog.putAllLongs(new long[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+    for (int len : new int[] {20, 5, Integer.MAX_VALUE}) {
+      byte[] bytes = hyperLogLog.toCompactByteArray();
+      ByteBuffer.wrap(bytes).putInt(3, len);
+      bytes[bytes.length - 1] = Utils.checksum(bytes, 0, bytes.length - 1);
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> ExplicitHyperLogLog.fromByteArray(bytes, Funnels.longFunnel()));
+      // a longer stream runs out of bytes, a shorter one reads a delta as the checksum
+      Class<? extends Exception> streamed =
+          len < 10 ? IllegalArgumentException.class : IOException.class;
+      assertThrows(
+          streamed,
+          () ->
+              ExplicitHyperLogLog.readFrom(
+                  ChecksumInput.of(new ByteArrayInputStream(bytes)), Funnels.longFunnel()));
+    }
+  }
+
+  /** 0..2, written by toByteArray() before hash strategies existed. */
+  @Test
+  public void testLegacyFormat() throws IOException {
+    byte[] bytes =
+        BaseEncoding.base16()
+            .lowerCase()
+            .decode("e700000003de0820a06c76c0a8004403b7fb05c44a28df63b7cc57c3cb04");
+    ExplicitHyperLogLog<Long> expected =
+        new ExplicitHyperLogLog<>(Funnels.longFunnel(), 4, HashStrategy.murmur3());
+    for (long i = 0; i < 3; ++i) {
+      expected.put(i);
+    }
+    assertEquals(expected, ExplicitHyperLogLog.fromByteArray(bytes, Funnels.longFunnel()));
+    assertEquals(
+        expected,
+        ExplicitHyperLogLog.readFrom(
+            ChecksumInput.of(new ByteArrayInputStream(bytes)), Funnels.longFunnel()));
+    assertEquals(expected, HyperLogLogs.fromByteArray(bytes, Funnels.longFunnel()));
+    assertEquals(ExplicitHyperLogLog.MARK, expected.toByteArray()[0]);
+  }
 }
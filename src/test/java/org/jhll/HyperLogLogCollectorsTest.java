@@ -0,0 +1,51 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class HyperLogLogCollectorsTest {
+
+  @Test
+  public void testCollect() {
+    ClassicHyperLogLog<Long> expected = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    for (long i = 0; i < 1000000; ++i) {
+      expected.putLong(i);
+    }
+    assertEquals(
+        expected,
+        LongStream.range(0, 1000000)
+            .boxed()
+            .collect(HyperLogLogCollectors.toClassic(Funnels.longFunnel(), 14, 6)));
+    assertEquals(
+        expected,
+        LongStream.range(0, 1000000)
+            .parallel()
+            .boxed()
+            .collect(HyperLogLogCollectors.toClassic(Funnels.longFunnel(), 14, 6)));
+    assertEquals(expected, HyperLogLogCollectors.ofLongs(LongStream.range(0, 1000000), 14, 6));
+    assertEquals(
+        expected, HyperLogLogCollectors.ofLongs(LongStream.range(0, 1000000).parallel(), 14, 6));
+
+    ClassicHyperLogLog<Integer> ints = new ClassicHyperLogLog<>(Funnels.integerFunnel(), 14, 6);
+    for (int i = 0; i < 1000000; ++i) {
+      ints.put(i);
+    }
+    assertEquals(ints, HyperLogLogCollectors.ofInts(IntStream.range(0, 1000000).parallel(), 14, 6));
+    assertEquals(
+        ints,
+        IntStream.range(0, 1000000)
+            .boxed()
+            .parallel()
+            .collect(HyperLogLogCollectors.toClassic(Funnels.integerFunnel(), 14, 6)));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> HyperLogLogCollectors.toClassic(Funnels.longFunnel(), 3, 6));
+  }
+}
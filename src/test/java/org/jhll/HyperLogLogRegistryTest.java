@@ -0,0 +1,152 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogRegistryTest {
+
+  @Test
+  public void testEviction() {
+    int bytes = ClassicHyperLogLog.requiredBytes(10, 5);
+    List<Integer> spilled = new ArrayList<>();
+    Map<Integer, HyperLogLog<Long>> sketches = new ConcurrentHashMap<>();
+    HyperLogLogRegistry<Integer, Long> registry =
+        new HyperLogLogRegistry<>(
+            () -> new ClassicHyperLogLog<>(Funnels.longFunnel(), 10, 5),
+            10L * bytes,
+            1,
+            (key, sketch) -> {
+              spilled.add(key);
+              sketches.put(key, sketch);
+            });
+    for (int key = 0; key < 10; ++key) {
+      registry.putLong(key, key);
+    }
+    assertEquals(10, registry.size());
+    assertEquals(10L * bytes, registry.sizeInBytes());
+    registry.putLong(0, 100L);
+    assertEquals(1, registry.hitCount());
+
+    for (int key = 10; key < 15; ++key) {
+      registry.putLong(key, key);
+    }
+    assertEquals(10, registry.size());
+    assertEquals(5, registry.evictionCount());
+    assertEquals(15, registry.missCount());
+    // 0 was used recently
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5), spilled);
+    assertEquals(2, registry.estimatedCardinality(0));
+    assertEquals(0, registry.estimatedCardinality(1));
+
+    registry.merge(1, sketches.get(1));
+    assertEquals(1, registry.estimatedCardinality(1));
+    assertEquals(6, registry.evictionCount());
+
+    HyperLogLog<Long> removed = registry.remove(1);
+    assertEquals(1, removed.estimatedCardinality());
+    assertNull(registry.remove(1));
+    assertEquals(9L * bytes, registry.sizeInBytes());
+
+    registry.spillAll();
+    assertEquals(0, registry.size());
+    assertEquals(0, registry.sizeInBytes());
+    assertEquals(15, spilled.size());
+    assertEquals(6, registry.evictionCount());
+  }
+
+  @Test
+  public void testReweigh() {
+    List<HyperLogLog<Long>> spilled = new ArrayList<>();
+    int denseBytes = ClassicHyperLogLog.requiredBytes(12, 5);
+    HyperLogLogRegistry<String, Long> registry =
+        new HyperLogLogRegistry<>(
+            () -> new AdaptiveHyperLogLog<>(Funnels.longFunnel(), 12, 5),
+            denseBytes + 500,
+            1,
+            (key, sketch) -> spilled.add(sketch));
+    for (int key = 0; key < 100; ++key) {
+      registry.putLong("small-" + key, key);
+    }
+    assertEquals(100, registry.size());
+    assertTrue(spilled.isEmpty());
+
+    for (long i = 0; i < 100000; ++i) {
+      registry.putLong("large", i);
+    }
+    assertTrue(registry.sizeInBytes() <= denseBytes + 500);
+    assertTrue(registry.evictionCount() > 0);
+    assertEquals(spilled.size(), registry.evictionCount());
+    long estimate = registry.estimatedCardinality("large");
+    assertTrue(Math.abs(estimate - 100000) < 100000 * 0.05);
+  }
+
+  @Test
+  public void testConcurrentPuts() throws InterruptedException {
+    int threads = 8;
+    int keys = 64;
+    int num = 20000;
+    Map<Integer, HyperLogLog<Long>> spilled = new ConcurrentHashMap<>();
+    HyperLogLogRegistry<Integer, Long> registry =
+        new HyperLogLogRegistry<>(
+            () -> new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16),
+            1 << 16,
+            4,
+            (key, sketch) -> spilled.merge(key, sketch, HyperLogLog::mergeFrom));
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; ++t) {
+      long from = (long) t * num;
+      Thread worker =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+                for (long i = from; i < from + num; ++i) {
+                  registry.putLong((int) (i % keys), i);
+                }
+              });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals((long) threads * num, registry.hitCount() + registry.missCount());
+    assertTrue(registry.evictionCount() > 0);
+
+    registry.spillAll();
+    assertEquals(keys, spilled.size());
+    // explicit sketches are exact, no put got lost
+    for (Map.Entry<Integer, HyperLogLog<Long>> entry : spilled.entrySet()) {
+      assertEquals((long) threads * num / keys, entry.getValue().estimatedCardinality());
+    }
+  }
+
+  @Test
+  public void testRemoveUnknown() {
+    HyperLogLogRegistry<String, Long> registry =
+        new HyperLogLogRegistry<>(
+            () -> new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16), 1024, (k, s) -> {});
+    assertNull(registry.remove("a"));
+    registry.put("a", 1L);
+    HyperLogLog<Long> sketch = registry.remove("a");
+    assertSame(sketch.getClass(), ExplicitHyperLogLog.class);
+  }
+}
@@ -0,0 +1,100 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThrows;
+
+public class HyperLogLogsTest {
+
+  @Test
+  public void testUnionAll() {
+    ClassicHyperLogLog<Long> expected = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+    List<HyperLogLog<Long>> sketches = new ArrayList<>();
+    List<byte[]> bytes = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      HyperLogLog<Long> sketch;
+      switch (i % 4) {
+        case 0:
+          sketch = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16);
+          break;
+        case 1:
+          sketch = new SparseHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+          break;
+        default:
+          sketch = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+      }
+      for (long v = i * 100L; v < i * 100L + 100; ++v) {
+        sketch.putLong(v);
+        expected.putLong(v);
+      }
+      sketches.add(sketch);
+      bytes.add(
+          i % 4 == 3
+              ? ((ClassicHyperLogLog<Long>) sketch).toCompressedByteArray()
+              : sketch.toByteArray());
+    }
+    List<byte[]> before = new ArrayList<>();
+    sketches.forEach(s -> before.add(s.toByteArray()));
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      HyperLogLog<Long> union = HyperLogLogs.unionAll(sketches, pool);
+      assertEquals(expected, union);
+      assertEquals(expected, HyperLogLogs.unionAll(sketches));
+      assertEquals(expected, HyperLogLogs.unionAll(bytes, Funnels.longFunnel(), pool));
+      assertEquals(expected, HyperLogLogs.unionAll(new ArrayList<>(sketches).subList(0, 1000)));
+      for (int i = 0; i < sketches.size(); ++i) {
+        assertArrayEquals(before.get(i), sketches.get(i).toByteArray());
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    HyperLogLog<Long> single = HyperLogLogs.unionAll(Collections.singletonList(sketches.get(2)));
+    assertNotSame(sketches.get(2), single);
+    assertEquals(sketches.get(2), single);
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> HyperLogLogs.unionAll(Collections.<HyperLogLog<Long>>emptyList()));
+
+    byte[] corrupted = sketches.get(2).toByteArray();
+    corrupted[100] ^= 1;
+    List<byte[]> withCorrupted = new ArrayList<>(bytes);
+    withCorrupted.set(500, corrupted);
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> HyperLogLogs.unionAll(withCorrupted, Funnels.longFunnel()));
+  }
+
+  @Test
+  public void testFromByteArray() {
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16);
+    explicit.putLong(1);
+    SparseHyperLogLog<Long> sparse = new SparseHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+    sparse.putLong(1);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 5);
+    classic.putLong(1);
+    assertEquals(
+        explicit, HyperLogLogs.fromByteArray(explicit.toByteArray(), Funnels.longFunnel()));
+    assertEquals(
+        explicit, HyperLogLogs.fromByteArray(explicit.toCompactByteArray(), Funnels.longFunnel()));
+    assertEquals(sparse, HyperLogLogs.fromByteArray(sparse.toByteArray(), Funnels.longFunnel()));
+    assertEquals(
+        classic, HyperLogLogs.fromByteArray(classic.toByteArray(), Funnels.longFunnel()));
+    assertEquals(
+        classic,
+        HyperLogLogs.fromByteArray(classic.toCompressedByteArray(), Funnels.longFunnel()));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> HyperLogLogs.fromByteArray(new byte[] {1, 2, 3}, Funnels.longFunnel()));
+  }
+}
@@ -0,0 +1,145 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.jhll.hash.HashStrategy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class MappedHyperLogLogStoreTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPutAndReopen() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sketches");
+    int keys = 100;
+    ClassicHyperLogLog<Long>[] expected = newSketches(keys);
+    try (MappedHyperLogLogStore<Long> store =
+        MappedHyperLogLogStore.create(file, Funnels.longFunnel(), 11, 5, keys)) {
+      assertTrue(store.capacity() >= keys);
+      for (long i = 0; i < 200000; ++i) {
+        int key = (int) (i % keys);
+        store.putLong(key * 31L, i);
+        expected[key].putLong(i);
+      }
+      assertEquals(keys, store.size());
+      for (int key = 0; key < keys; ++key) {
+        assertEquals(expected[key].estimatedCardinality(), store.estimate(key * 31L));
+        assertArrayEquals(expected[key].toByteArray(), store.toByteArray(key * 31L));
+      }
+      assertFalse(store.contains(1));
+      assertEquals(0, store.estimate(1));
+      assertNull(store.toByteArray(1));
+      store.force();
+    }
+
+    try (MappedHyperLogLogStore<Long> store =
+        MappedHyperLogLogStore.open(file, Funnels.longFunnel())) {
+      assertEquals(keys, store.size());
+      for (int key = 0; key < keys; ++key) {
+        assertEquals(expected[key], store.get(key * 31L));
+      }
+      store.put(0, 42L);
+      expected[0].put(42L);
+      assertEquals(expected[0], store.get(0));
+    }
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sketches");
+    try (MappedHyperLogLogStore<Long> store =
+        MappedHyperLogLogStore.create(file, Funnels.longFunnel(), 11, 5, 10)) {
+      ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+      SparseHyperLogLog<Long> sparse = new SparseHyperLogLog<>(Funnels.longFunnel());
+      ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+      for (long i = 0; i < 10000; ++i) {
+        classic.putLong(i);
+        store.putLong(7, -i);
+      }
+      for (long i = 0; i < 100; ++i) {
+        sparse.putLong(i + 20000);
+        explicit.putLong(i + 30000);
+      }
+      HyperLogLog<Long> expected =
+          store.get(7).union(classic).union(sparse).union(explicit);
+      store.merge(7, classic.toByteArray());
+      store.merge(7, sparse.toByteArray());
+      store.merge(7, explicit.toByteArray());
+      assertEquals(expected, store.get(7));
+
+      store.merge(8, classic.toByteArray());
+      assertEquals(classic, store.get(8));
+
+      byte[] corrupted = classic.toByteArray();
+      corrupted[10] ^= 1;
+      assertThrows(IllegalArgumentException.class, () -> store.merge(8, corrupted));
+      ClassicHyperLogLog<Long> murmur3 =
+          new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5, HashStrategy.murmur3());
+      assertThrows(IllegalArgumentException.class, () -> store.merge(8, murmur3.toByteArray()));
+      assertEquals(classic, store.get(8));
+
+      byte[] other = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 5).toByteArray();
+      assertThrows(IllegalArgumentException.class, () -> store.merge(7, other));
+    }
+  }
+
+  @Test
+  public void testFull() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sketches");
+    try (MappedHyperLogLogStore<Long> store =
+        MappedHyperLogLogStore.create(file, Funnels.longFunnel(), 4, 5, 3)) {
+      // 4 entries, 3 of which may be used
+      assertEquals(3, store.capacity());
+      for (int key = 0; key < store.capacity(); ++key) {
+        store.putLong(key, key);
+      }
+      store.putLong(0, 1);
+      assertThrows(IllegalStateException.class, () -> store.putLong(-1, 1));
+      assertFalse(store.contains(-1));
+    }
+    assertThrows(
+        IOException.class,
+        () -> MappedHyperLogLogStore.create(file, Funnels.longFunnel(), 4, 5, 3));
+  }
+
+  @Test
+  public void testOpenCorruptedHeader() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sketches");
+    MappedHyperLogLogStore.create(file, Funnels.longFunnel(), 4, 5, 3).close();
+    byte[] header = Files.readAllBytes(file);
+    // log2m, registerWidth, capacity and size at offsets 6, 7, 8 and 12
+    int[][] corruptions = {{6, 40}, {7, 9}, {11, 3}, {15, 4}};
+    for (int[] corruption : corruptions) {
+      byte[] bytes = header.clone();
+      bytes[corruption[0]] = (byte) corruption[1];
+      Files.write(file, bytes);
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> MappedHyperLogLogStore.open(file, Funnels.longFunnel()));
+    }
+    Files.write(file, header);
+    MappedHyperLogLogStore.open(file, Funnels.longFunnel()).close();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ClassicHyperLogLog<Long>[] newSketches(int n) {
+    ClassicHyperLogLog<Long>[] sketches = new ClassicHyperLogLog[n];
+    for (int i = 0; i < n; ++i) {
+      sketches[i] = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    }
+    return sketches;
+  }
+}
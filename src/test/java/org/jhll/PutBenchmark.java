@@ -0,0 +1,93 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+// @Threads(3)
+@Fork(1)
+/**
+ *
+ *
+ * <pre>
+ * Benchmark                           Mode  Cnt    Score     Error  Units
+ * PutBenchmark.putBytes               avgt    3   33.667 ±  13.987  ns/op
+ * PutBenchmark.putBytesObject         avgt    3   74.884 ± 111.804  ns/op
+ * PutBenchmark.putCharSequence        avgt    3   34.904 ±  34.362  ns/op
+ * PutBenchmark.putCharSequenceObject  avgt    3  138.818 ± 195.363  ns/op
+ * PutBenchmark.putLong                avgt    3   27.031 ±   7.919  ns/op
+ * PutBenchmark.putLongObject          avgt    3   88.869 ±  17.466  ns/op
+ * </pre>
+ */
+public class PutBenchmark {
+
+  private ClassicHyperLogLog<Long> longHyperLogLog;
+
+  private ClassicHyperLogLog<byte[]> bytesHyperLogLog;
+
+  private ClassicHyperLogLog<CharSequence> charsHyperLogLog;
+
+  private byte[] bytes;
+
+  private String chars;
+
+  private long value;
+
+  @Setup
+  public void setup() {
+    longHyperLogLog = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    bytesHyperLogLog = new ClassicHyperLogLog<>(Funnels.byteArrayFunnel());
+    charsHyperLogLog = new ClassicHyperLogLog<>(Funnels.unencodedCharsFunnel());
+    chars = "0123456789abcdef";
+    bytes = chars.getBytes(StandardCharsets.UTF_8);
+    value = 0;
+  }
+
+  @Benchmark
+  public void putLongObject() {
+    longHyperLogLog.put(++value);
+  }
+
+  @Benchmark
+  public void putLong() {
+    longHyperLogLog.putLong(++value);
+  }
+
+  @Benchmark
+  public void putBytesObject() {
+    bytes[0] = (byte) ++value;
+    bytesHyperLogLog.put(bytes);
+  }
+
+  @Benchmark
+  public void putBytes() {
+    bytes[0] = (byte) ++value;
+    bytesHyperLogLog.putBytes(bytes, 0, bytes.length);
+  }
+
+  @Benchmark
+  public void putCharSequenceObject() {
+    charsHyperLogLog.put(chars);
+  }
+
+  @Benchmark
+  public void putCharSequence() {
+    charsHyperLogLog.putCharSequence(chars);
+  }
+}
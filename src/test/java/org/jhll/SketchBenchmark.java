@@ -0,0 +1,161 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+/**
+ * The main operations of {@link ClassicHyperLogLog} and {@link ExplicitHyperLogLog} over {@code
+ * log2m}, {@code registerWidth} and {@code cardinality}, the number of distinct values the read
+ * benchmarks see. Puts go to a sketch per thread except for {@code concurrentPut}, which shares one
+ * {@link ConcurrentHyperLogLog}, so {@code -t} compares single- and multi-threaded runs. Best run
+ * from the benchmarks jar, see {@link BenchmarkMain}, which adds the GC profiler.
+ *
+ * <p>{@code -p log2m=14 -p registerWidth=6 -p cardinality=1000000}, single core, scores with the
+ * allocation of {@code gc.alloc.rate.norm}:
+ *
+ * <pre>
+ * Benchmark                        Score (ns/op)             Error        B/op
+ * classicEstimatedCardinality            181.476 ±         240.878         ≈ 0
+ * classicFromByteArray                 18023.597 ±       26807.966       12848
+ * classicPut                              27.537 ±          25.874         ≈ 0
+ * classicToByteArray                   19675.530 ±       11682.603       12512
+ * classicUnion                         42617.457 ±       61724.289       12680
+ * concurrentPut                           18.278 ±          13.890         ≈ 0
+ * explicitEstimatedCardinality             1.366 ±           1.613         ≈ 0
+ * explicitFromByteArray             94564709.076 ±    73316678.469    11816244
+ * explicitPut                            177.598 ±          80.048         ≈ 0
+ * explicitToByteArray              159215914.770 ±   216311603.437    16000397
+ * </pre>
+ */
+public class SketchBenchmark {
+
+  @Param({"11", "14", "16"})
+  public int log2m;
+
+  @Param({"5", "6"})
+  public int registerWidth;
+
+  @Param({"1000", "1000000"})
+  public int cardinality;
+
+  private ClassicHyperLogLog<Long> classic;
+
+  private ClassicHyperLogLog<Long> other;
+
+  private byte[] classicBytes;
+
+  private ExplicitHyperLogLog<Long> explicit;
+
+  private byte[] explicitBytes;
+
+  private ConcurrentHyperLogLog<Long> concurrent;
+
+  @Setup
+  public void setup() {
+    classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), log2m, registerWidth);
+    other = new ClassicHyperLogLog<>(Funnels.longFunnel(), log2m, registerWidth);
+    explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), cardinality);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < cardinality; ++i) {
+      long value = random.nextLong();
+      classic.putLong(value);
+      explicit.putLong(value);
+      other.putLong(random.nextLong());
+    }
+    classicBytes = classic.toByteArray();
+    explicitBytes = explicit.toByteArray();
+    concurrent = new ConcurrentHyperLogLog<>(Funnels.longFunnel(), log2m, registerWidth);
+  }
+
+  @State(Scope.Thread)
+  public static class PerThread {
+
+    private ClassicHyperLogLog<Long> classic;
+
+    private ExplicitHyperLogLog<Long> explicit;
+
+    private int cardinality;
+
+    private long next;
+
+    @Setup
+    public void setup(SketchBenchmark benchmark) {
+      classic =
+          new ClassicHyperLogLog<>(
+              Funnels.longFunnel(), benchmark.log2m, benchmark.registerWidth);
+      explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), benchmark.cardinality);
+      cardinality = benchmark.cardinality;
+      next = ThreadLocalRandom.current().nextLong();
+    }
+  }
+
+  @Benchmark
+  public void classicPut(PerThread state) {
+    state.classic.putLong(state.next++);
+  }
+
+  /** Cycles through {@code cardinality} values, so the set stops growing. */
+  @Benchmark
+  public void explicitPut(PerThread state) {
+    state.explicit.putLong(state.next++ % state.cardinality);
+  }
+
+  @Benchmark
+  public void concurrentPut(PerThread state) {
+    concurrent.putLong(state.next++);
+  }
+
+  @Benchmark
+  public long classicEstimatedCardinality() {
+    return classic.estimatedCardinality();
+  }
+
+  @Benchmark
+  public long explicitEstimatedCardinality() {
+    return explicit.estimatedCardinality();
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> classicUnion() {
+    return classic.union(other);
+  }
+
+  @Benchmark
+  public byte[] classicToByteArray() {
+    return classic.toByteArray();
+  }
+
+  @Benchmark
+  public ClassicHyperLogLog<Long> classicFromByteArray() {
+    return ClassicHyperLogLog.fromByteArray(classicBytes, Funnels.longFunnel());
+  }
+
+  @Benchmark
+  public byte[] explicitToByteArray() {
+    return explicit.toByteArray();
+  }
+
+  @Benchmark
+  public ExplicitHyperLogLog<Long> explicitFromByteArray() {
+    return ExplicitHyperLogLog.fromByteArray(explicitBytes, Funnels.longFunnel());
+  }
+}
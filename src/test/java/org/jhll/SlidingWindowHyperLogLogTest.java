@@ -0,0 +1,84 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.jhll.hash.HashStrategy;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class SlidingWindowHyperLogLogTest {
+
+  private static ClassicHyperLogLog<Long> classic(long from, long to) {
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 12, 6);
+    for (long i = from; i < to; ++i) {
+      classic.putLong(i);
+    }
+    return classic;
+  }
+
+  @Test
+  public void testWindow() {
+    AtomicLong clock = new AtomicLong(3_600_000L);
+    SlidingWindowHyperLogLog<Long> window =
+        new SlidingWindowHyperLogLog<>(
+            Funnels.longFunnel(), 12, 6, HashStrategy.defaultStrategy(), 60, 1000, clock::get);
+    for (long i = 0; i < 10000; ++i) {
+      window.putLong(i);
+    }
+    clock.addAndGet(30_000);
+    window.putAllLongs(LongStream.range(10000, 20000).toArray());
+    assertEquals(classic(0, 20000), window.toClassic());
+    assertEquals(classic(0, 20000).estimatedCardinality(), window.estimatedCardinality());
+    assertEquals(classic(10000, 20000), window.toClassic(5));
+    assertEquals(classic(10000, 20000).estimatedCardinality(), window.estimatedCardinality(1));
+    assertArrayEquals(classic(0, 20000).toByteArray(), window.toByteArray());
+
+    // the first bucket expires, the ring wraps around to it
+    clock.addAndGet(30_000);
+    assertEquals(classic(10000, 20000), window.toClassic());
+    window.putLong(20000);
+    assertEquals(classic(10000, 20001), window.toClassic());
+    assertEquals(classic(20000, 20001), window.toClassic(1));
+
+    // going backwards, values stay in the latest bucket
+    clock.addAndGet(-45_000);
+    window.putLong(20001);
+    assertEquals(classic(20000, 20002), window.toClassic(1));
+
+    clock.addAndGet(3_600_000L);
+    assertEquals(0, window.estimatedCardinality());
+    assertEquals(classic(0, 0), window.toClassic());
+
+    window.putLong(1);
+    window.reset();
+    assertEquals(0, window.estimatedCardinality());
+    // the bucket of the same time is reused, cleared
+    window.putLong(2);
+    assertEquals(1, window.estimatedCardinality());
+    assertEquals(classic(2, 3), window.toClassic());
+    assertThrows(IllegalArgumentException.class, () -> window.toClassic(61));
+  }
+
+  @Test
+  public void testUnion() {
+    AtomicLong clock = new AtomicLong();
+    SlidingWindowHyperLogLog<Long> a =
+        new SlidingWindowHyperLogLog<>(
+            Funnels.longFunnel(), 12, 6, HashStrategy.defaultStrategy(), 10, 1000, clock::get);
+    SlidingWindowHyperLogLog<Long> b =
+        new SlidingWindowHyperLogLog<>(
+            Funnels.longFunnel(), 12, 6, HashStrategy.defaultStrategy(), 10, 1000, clock::get);
+    for (long i = 0; i < 5000; ++i) {
+      a.putLong(i);
+      clock.incrementAndGet();
+      b.putLong(i + 5000);
+    }
+    assertEquals(classic(0, 10000), a.union(b));
+    assertEquals(classic(0, 10000), a.mergeFrom(classic(5000, 10000)));
+  }
+}
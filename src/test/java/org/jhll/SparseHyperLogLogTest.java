@@ -0,0 +1,145 @@
+package org.jhll;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import com.google.common.io.BaseEncoding;
+import org.jhll.hash.HashStrategy;
+import org.jhll.util.ChecksumInput;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertSame;
+
+public class SparseHyperLogLogTest {
+
+  private static void putLongs(HyperLogLog<Long> hyperLogLog, long fromValue, int num) {
+    for (int i = 0; i < num; ++i) {
+      hyperLogLog.put(fromValue + i);
+    }
+  }
+
+  private void verifySameAsClassic(int log2m, int registerWidth, int num) {
+    SparseHyperLogLog<Long> sparse =
+        new SparseHyperLogLog<>(Funnels.longFunnel(), log2m, registerWidth);
+    ClassicHyperLogLog<Long> classic =
+        new ClassicHyperLogLog<>(Funnels.longFunnel(), log2m, registerWidth);
+    putLongs(sparse, Long.MAX_VALUE >>> 1, num);
+    putLongs(classic, Long.MAX_VALUE >>> 1, num);
+    assertEquals(classic.estimatedCardinality(), sparse.estimatedCardinality());
+  }
+
+  @Test
+  public void test() {
+    verifySameAsClassic(11, 5, 10);
+    verifySameAsClassic(11, 5, 77);
+    verifySameAsClassic(11, 5, 1027);
+    verifySameAsClassic(14, 6, 37659);
+    verifySameAsClassic(4, 3, 1000);
+  }
+
+  @Test
+  public void testSmallerThanDense() {
+    SparseHyperLogLog<Long> sparse = new SparseHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    putLongs(sparse, 0, 1000);
+    assertTrue(sparse.serializedSize() * 4 < ClassicHyperLogLog.requiredBytes(14, 6));
+  }
+
+  @Test
+  public void testUnion() {
+    SparseHyperLogLog<Long> sparse = new SparseHyperLogLog<>(Funnels.longFunnel());
+    putLongs(sparse, 0, 3000);
+    SparseHyperLogLog<Long> sparse1 = new SparseHyperLogLog<>(Funnels.longFunnel());
+    putLongs(sparse1, 2000, 3000);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    putLongs(classic, 0, 3000);
+    ClassicHyperLogLog<Long> classic1 = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    putLongs(classic1, 2000, 3000);
+
+    HyperLogLog<Long> expected = classic.union(classic1);
+    assertEquals(expected.estimatedCardinality(), sparse.union(sparse1).estimatedCardinality());
+    assertEquals(expected, sparse.union(classic1));
+    assertEquals(expected, classic1.union(sparse));
+
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 16);
+    putLongs(explicit, 2000, 3000);
+    HyperLogLog<Long> union = sparse.union(explicit);
+    assertTrue(union instanceof SparseHyperLogLog);
+    assertEquals(union, explicit.union(sparse));
+    assertEquals(expected.estimatedCardinality(), union.estimatedCardinality());
+  }
+
+  @Test
+  public void testSerialization() {
+    Funnel<Long> funnel = Funnels.longFunnel();
+    SparseHyperLogLog<Long> hyperLogLog = new SparseHyperLogLog<>(funnel, 16, 6);
+    putLongs(hyperLogLog, Long.MAX_VALUE >>> 2, 7000);
+    byte[] bytes = hyperLogLog.toByteArray();
+    assertEquals(hyperLogLog.serializedSize(), bytes.length);
+    SparseHyperLogLog<Long> hyperLogLog1 = SparseHyperLogLog.fromByteArray(bytes, funnel);
+    assertEquals(hyperLogLog, hyperLogLog1);
+    assertEquals(hyperLogLog.estimatedCardinality(), hyperLogLog1.estimatedCardinality());
+  }
+
+  @Test
+  public void testMergeFrom() {
+    SparseHyperLogLog<Long> sparse = new SparseHyperLogLog<>(Funnels.longFunnel());
+    SparseHyperLogLog<Long> sparse1 = new SparseHyperLogLog<>(Funnels.longFunnel(), 11, 4);
+    ExplicitHyperLogLog<Long> explicit = new ExplicitHyperLogLog<>(Funnels.longFunnel(), 10);
+    putLongs(sparse, 0, 300);
+    putLongs(sparse1, 200, 300);
+    putLongs(explicit, 400, 300);
+    HyperLogLog<Long> expected = sparse.union(sparse1).union(explicit);
+    assertSame(sparse, sparse.mergeFrom(sparse1));
+    assertSame(sparse, sparse.mergeFrom(explicit));
+    assertEquals(expected, sparse);
+
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    putLongs(classic, 1000, 300);
+    assertEquals(sparse.union(classic), sparse.mergeFrom(classic));
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    SparseHyperLogLog<Long> hyperLogLog = new SparseHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (long i = 0; i < 3000; ++i) {
+      hyperLogLog.putLong(i);
+      if (i % 1000 == 0) {
+        hyperLogLog.writeTo(out);
+      }
+    }
+    hyperLogLog.writeTo(out);
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (int i = 0; i < 3; ++i) {
+      SparseHyperLogLog.readFrom(ChecksumInput.of(in), Funnels.longFunnel());
+    }
+    SparseHyperLogLog<Long> read =
+        SparseHyperLogLog.readFrom(ChecksumInput.of(in), Funnels.longFunnel());
+    assertEquals(0, in.available());
+    assertEquals(hyperLogLog.estimatedCardinality(), read.estimatedCardinality());
+    assertArrayEquals(hyperLogLog.toByteArray(), read.toByteArray());
+  }
+
+  /** 0..4 in log2m 11, width 5, written by toByteArray() before hash strategies existed. */
+  @Test
+  public void testLegacyFormat() throws IOException {
+    byte[] bytes = BaseEncoding.base16().lowerCase().decode("d75d00000005438151e164e1b101825467");
+    Funnel<Long> funnel = Funnels.longFunnel();
+    SparseHyperLogLog<Long> expected =
+        new SparseHyperLogLog<>(funnel, 11, 5, HashStrategy.murmur3());
+    putLongs(expected, 0, 5);
+    assertEquals(expected, SparseHyperLogLog.fromByteArray(bytes, funnel));
+    assertEquals(
+        expected,
+        SparseHyperLogLog.readFrom(ChecksumInput.of(new ByteArrayInputStream(bytes)), funnel));
+    assertEquals(expected, HyperLogLogs.fromByteArray(bytes, funnel));
+    assertEquals(5, SparseHyperLogLog.fromByteArray(bytes, funnel).estimatedCardinality());
+    assertEquals(SparseHyperLogLog.MARK, expected.toByteArray()[0]);
+  }
+}
@@ -0,0 +1,68 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Fork(1)
+/**
+ * Measured on a single core, so the cost of contention on shared cache lines does not show up.
+ *
+ * <pre>
+ * Benchmark                             Mode  Cnt    Score     Error  Units
+ * StripedBenchmark.putLongConcurrent    avgt    3   91.306 ±  72.080  ns/op
+ * StripedBenchmark.putLongStriped       avgt    3  125.404 ± 133.508  ns/op
+ * StripedBenchmark.putLongSynchronized  avgt    3  200.335 ± 110.018  ns/op
+ * </pre>
+ */
+public class StripedBenchmark {
+
+  private ClassicHyperLogLog<Long> classic;
+
+  private ConcurrentHyperLogLog<Long> concurrent;
+
+  private StripedHyperLogLog<Long> striped;
+
+  @Setup
+  public void setup() {
+    classic = new ClassicHyperLogLog<>(Funnels.longFunnel());
+    concurrent = new ConcurrentHyperLogLog<>(Funnels.longFunnel());
+    striped = new StripedHyperLogLog<>(Funnels.longFunnel(), 11, 5, 4);
+  }
+
+  @Benchmark
+  public void putLongSynchronized() {
+    long value = ThreadLocalRandom.current().nextLong();
+    synchronized (classic) {
+      classic.putLong(value);
+    }
+  }
+
+  @Benchmark
+  public void putLongConcurrent() {
+    concurrent.putLong(ThreadLocalRandom.current().nextLong());
+  }
+
+  @Benchmark
+  public void putLongStriped() {
+    striped.putLong(ThreadLocalRandom.current().nextLong());
+  }
+}
@@ -0,0 +1,113 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.jhll.util.AtomicUIntArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StripedHyperLogLogTest {
+
+  @Test
+  public void testConcurrentPuts() throws InterruptedException {
+    int threads = 8;
+    int num = 200000;
+    StripedHyperLogLog<Long> striped = new StripedHyperLogLog<>(Funnels.longFunnel(), 14, 6, 4);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 14, 6);
+    for (long i = 0; i < (long) threads * num; ++i) {
+      classic.putLong(i);
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; ++t) {
+      long from = (long) t * num;
+      Thread worker =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+                for (long i = from; i < from + num; ++i) {
+                  striped.putLong(i);
+                  if ((i & 0xfff) == 0) {
+                    striped.estimatedCardinality();
+                  }
+                }
+              });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(classic, striped.toClassic());
+    assertEquals(classic.estimatedCardinality(), striped.estimatedCardinality());
+    long stripeBytes = (long) AtomicUIntArray.requiredLongs(1 << 14, 6) * 8;
+    assertTrue(striped.sizeInBytes() >= stripeBytes);
+    assertTrue(striped.sizeInBytes() <= 4 * stripeBytes);
+
+    striped.reset();
+    assertEquals(0, striped.sizeInBytes());
+    assertEquals(0, striped.estimatedCardinality());
+  }
+
+  @Test
+  public void testSerialization() {
+    StripedHyperLogLog<Long> hyperLogLog = new StripedHyperLogLog<>(Funnels.longFunnel());
+    for (long i = 0; i < 100000; ++i) {
+      hyperLogLog.putLong(i);
+    }
+    byte[] bytes = hyperLogLog.toByteArray();
+    assertEquals(hyperLogLog.serializedSize(), bytes.length);
+    assertEquals(
+        hyperLogLog.toClassic(), ClassicHyperLogLog.fromByteArray(bytes, Funnels.longFunnel()));
+    StripedHyperLogLog<Long> hyperLogLog1 =
+        StripedHyperLogLog.fromByteArray(bytes, Funnels.longFunnel(), 2);
+    assertEquals(hyperLogLog, hyperLogLog1);
+    assertArrayEquals(bytes, hyperLogLog1.toByteArray());
+  }
+
+  @Test
+  public void testUnion() {
+    StripedHyperLogLog<Long> a = new StripedHyperLogLog<>(Funnels.longFunnel(), 11, 5, 2);
+    StripedHyperLogLog<Long> b = new StripedHyperLogLog<>(Funnels.longFunnel(), 11, 5, 2);
+    ClassicHyperLogLog<Long> c = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    for (long i = 0; i < 50000; ++i) {
+      a.putLong(i);
+      b.putLong(i + 25000);
+      c.putLong(i);
+      c.putLong(i + 25000);
+    }
+    assertEquals(c, a.union(b));
+    assertEquals(c, a.union(b.toClassic()));
+  }
+
+  @Test
+  public void testMergeFrom() {
+    StripedHyperLogLog<Long> striped = new StripedHyperLogLog<>(Funnels.longFunnel(), 11, 5, 2);
+    ClassicHyperLogLog<Long> classic = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    ClassicHyperLogLog<Long> viewed = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+    for (long i = 0; i < 10000; ++i) {
+      striped.putLong(i);
+      classic.putLong(i + 5000);
+      viewed.putLong(i + 20000);
+    }
+    HyperLogLog<Long> expected = striped.union(classic).union(viewed);
+    assertSame(striped, striped.mergeFrom(classic));
+    assertSame(
+        striped,
+        striped.mergeFrom(ClassicHyperLogLogView.wrap(viewed.toByteArray(), Funnels.longFunnel())));
+    assertEquals(expected, striped.toClassic());
+  }
+}
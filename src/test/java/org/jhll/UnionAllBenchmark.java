@@ -0,0 +1,99 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+/**
+ * 20000 sketches of log2m = 11, registerWidth = 5, by pools of {@code threads} workers. {@code
+ * unionChain} is the {@link HyperLogLog#union(HyperLogLog)} loop used before, it ignores {@code
+ * threads}. Measured on a single core, so more threads only add overhead here; with one worker per
+ * core the work of the leaves divides by the number of cores. {@code unionAllBytes} is dominated by
+ * verifying the checksums.
+ *
+ * <pre>
+ * Benchmark                        (threads)  Mode  Cnt    Score     Error  Units
+ * UnionAllBenchmark.unionAll               1  avgt    3   72.275 ±  68.103  ms/op
+ * UnionAllBenchmark.unionAll               2  avgt    3   77.323 ± 129.137  ms/op
+ * UnionAllBenchmark.unionAll               4  avgt    3   79.033 ±  28.116  ms/op
+ * UnionAllBenchmark.unionAllBytes          1  avgt    3  200.381 ±  71.028  ms/op
+ * UnionAllBenchmark.unionAllBytes          2  avgt    3  178.127 ± 134.900  ms/op
+ * UnionAllBenchmark.unionAllBytes          4  avgt    3  181.039 ± 124.470  ms/op
+ * UnionAllBenchmark.unionChain             1  avgt    3   82.736 ± 184.837  ms/op
+ * UnionAllBenchmark.unionChain             2  avgt    3   79.423 ±  54.102  ms/op
+ * UnionAllBenchmark.unionChain             4  avgt    3   86.653 ± 184.316  ms/op
+ * </pre>
+ */
+public class UnionAllBenchmark {
+
+  @Param({"1", "2", "4"})
+  public int threads;
+
+  private List<HyperLogLog<Long>> sketches;
+
+  private List<byte[]> bytes;
+
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    sketches = new ArrayList<>();
+    bytes = new ArrayList<>();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < 20000; ++i) {
+      ClassicHyperLogLog<Long> sketch = new ClassicHyperLogLog<>(Funnels.longFunnel(), 11, 5);
+      for (int j = 0; j < 5000; ++j) {
+        sketch.putLong(random.nextLong());
+      }
+      sketches.add(sketch);
+      bytes.add(sketch.toByteArray());
+    }
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> unionChain() {
+    HyperLogLog<Long> union = sketches.get(0);
+    for (int i = 1; i < sketches.size(); ++i) {
+      union = union.union(sketches.get(i));
+    }
+    return union;
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> unionAll() {
+    return HyperLogLogs.unionAll(sketches, pool);
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> unionAllBytes() {
+    return HyperLogLogs.unionAll(bytes, Funnels.longFunnel(), pool);
+  }
+}
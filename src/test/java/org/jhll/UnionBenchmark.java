@@ -0,0 +1,81 @@
+package org.jhll;
+
+import com.google.common.hash.Funnels;
+import org.jhll.util.Align8UIntArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+/**
+ * log2m = 16, registerWidth = 6. {@code unionPerRegister} is the get/set loop used before
+ * register words were merged at once.
+ *
+ * <pre>
+ * Benchmark                        Mode  Cnt    Score     Error  Units
+ * UnionBenchmark.setMaxAll         avgt    3  188.049 ±  21.979  us/op
+ * UnionBenchmark.union             avgt    3  190.737 ±  95.220  us/op
+ * UnionBenchmark.unionPerRegister  avgt    3  991.090 ± 398.435  us/op
+ * </pre>
+ */
+public class UnionBenchmark {
+
+  private ClassicHyperLogLog<Long> a;
+
+  private ClassicHyperLogLog<Long> b;
+
+  private Align8UIntArray x;
+
+  private Align8UIntArray y;
+
+  @Setup
+  public void setup() {
+    a = new ClassicHyperLogLog<>(Funnels.longFunnel(), 16, 6);
+    b = new ClassicHyperLogLog<>(Funnels.longFunnel(), 16, 6);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < 1000000; ++i) {
+      a.putLong(random.nextLong());
+      b.putLong(random.nextLong());
+    }
+    x = new Align8UIntArray(1 << 16, 6);
+    y = new Align8UIntArray(1 << 16, 6);
+    x.setWords(a.toByteArray(), 3);
+    y.setWords(b.toByteArray(), 3);
+  }
+
+  @Benchmark
+  public HyperLogLog<Long> union() {
+    return a.union(b);
+  }
+
+  @Benchmark
+  public Align8UIntArray setMaxAll() {
+    Align8UIntArray result = x.clone();
+    result.setMaxAll(y);
+    return result;
+  }
+
+  @Benchmark
+  public Align8UIntArray unionPerRegister() {
+    Align8UIntArray result = new Align8UIntArray(x.length(), x.width());
+    for (int i = 0; i < x.length(); ++i) {
+      result.set(i, Math.max(x.get(i), y.get(i)));
+    }
+    return result;
+  }
+}
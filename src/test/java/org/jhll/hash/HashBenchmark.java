@@ -31,13 +31,25 @@ import java.util.concurrent.TimeUnit;
  *
  *
  * <pre>
- *     Benchmark                            (bytesLen)  Mode  Cnt    Score   Error  Units
- * HashBenchmark.farmHashFingerprint64          32  avgt    2   11.701          ns/op
- * HashBenchmark.farmHashFingerprint64          64  avgt    2   18.520          ns/op
- * HashBenchmark.farmHashFingerprint64         128  avgt    2   43.578          ns/op
- * HashBenchmark.murmur3_128                    32  avgt    2   68.542          ns/op
- * HashBenchmark.murmur3_128                    64  avgt    2   95.080          ns/op
- * HashBenchmark.murmur3_128                   128  avgt    2  110.945          ns/op
+ * Benchmark                            (bytesLen)  Mode  Cnt    Score     Error  Units
+ * HashBenchmark.farmHashFingerprint64          32  avgt    3   11.347 ±   0.489  ns/op
+ * HashBenchmark.farmHashFingerprint64          64  avgt    3   16.991 ±   5.540  ns/op
+ * HashBenchmark.farmHashFingerprint64         128  avgt    3   49.242 ±  11.750  ns/op
+ * HashBenchmark.farmHashStrategy               32  avgt    3   10.029 ±  19.264  ns/op
+ * HashBenchmark.farmHashStrategy               64  avgt    3   13.840 ±  13.714  ns/op
+ * HashBenchmark.farmHashStrategy              128  avgt    3   30.963 ±  82.763  ns/op
+ * HashBenchmark.murmur3Strategy                32  avgt    3   17.190 ±  36.662  ns/op
+ * HashBenchmark.murmur3Strategy                64  avgt    3   29.279 ±  59.548  ns/op
+ * HashBenchmark.murmur3Strategy               128  avgt    3   42.138 ±  19.171  ns/op
+ * HashBenchmark.murmur3_128                    32  avgt    3  144.830 ± 315.593  ns/op
+ * HashBenchmark.murmur3_128                    64  avgt    3  170.116 ± 104.735  ns/op
+ * HashBenchmark.murmur3_128                   128  avgt    3  227.750 ±  82.858  ns/op
+ * HashBenchmark.wyHashStrategy                 32  avgt    3   19.226 ±  19.513  ns/op
+ * HashBenchmark.wyHashStrategy                 64  avgt    3   33.586 ± 130.045  ns/op
+ * HashBenchmark.wyHashStrategy                128  avgt    3   50.531 ±   9.778  ns/op
+ * HashBenchmark.xxHash64Strategy               32  avgt    3   25.349 ±  53.514  ns/op
+ * HashBenchmark.xxHash64Strategy               64  avgt    3   37.021 ±   2.611  ns/op
+ * HashBenchmark.xxHash64Strategy              128  avgt    3   46.455 ±  40.627  ns/op
  * </pre>
  */
 public class HashBenchmark {
@@ -79,4 +91,28 @@ public class HashBenchmark {
   public long murmur3_128() {
     return Hashing.murmur3_128().hashBytes(nextBytes()).asLong();
   }
+
+  @Benchmark
+  public long murmur3Strategy() {
+    byte[] bytes = nextBytes();
+    return HashStrategy.murmur3().hashBytes(bytes, 0, bytes.length);
+  }
+
+  @Benchmark
+  public long farmHashStrategy() {
+    byte[] bytes = nextBytes();
+    return HashStrategy.farmHash().hashBytes(bytes, 0, bytes.length);
+  }
+
+  @Benchmark
+  public long xxHash64Strategy() {
+    byte[] bytes = nextBytes();
+    return HashStrategy.xxHash64().hashBytes(bytes, 0, bytes.length);
+  }
+
+  @Benchmark
+  public long wyHashStrategy() {
+    byte[] bytes = nextBytes();
+    return HashStrategy.wyHash().hashBytes(bytes, 0, bytes.length);
+  }
 }
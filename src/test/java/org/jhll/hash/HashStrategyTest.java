@@ -0,0 +1,55 @@
+package org.jhll.hash;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@SuppressWarnings("UnstableApiUsage")
+public class HashStrategyTest {
+
+  private static final HashStrategy[] STRATEGIES = {
+    HashStrategy.murmur3(), HashStrategy.farmHash(), HashStrategy.xxHash64(), HashStrategy.wyHash()
+  };
+
+  @Test
+  public void testGuavaCompatible() {
+    byte[] bytes = "hello, hyperloglog".getBytes(StandardCharsets.UTF_8);
+    assertEquals(
+        Hashing.murmur3_128().hashBytes(bytes).asLong(),
+        HashStrategy.murmur3().hashBytes(bytes, 0, bytes.length));
+    assertEquals(
+        Hashing.farmHashFingerprint64().hashBytes(bytes).asLong(),
+        HashStrategy.farmHash().hashBytes(bytes, 0, bytes.length));
+    assertEquals(
+        Hashing.murmur3_128().hashString("abc", StandardCharsets.UTF_8).asLong(),
+        HashStrategy.murmur3().hashObject("abc", Funnels.stringFunnel(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testFunnelConsistency() {
+    for (HashStrategy strategy : STRATEGIES) {
+      assertEquals(
+          strategy.hashLong(-12345L), strategy.hashObject(-12345L, Funnels.longFunnel()));
+      assertEquals(strategy.hashInt(777), strategy.hashObject(777, Funnels.integerFunnel()));
+      assertEquals(
+          strategy.hashChars(new StringBuilder("chars")),
+          strategy.hashObject("chars", Funnels.unencodedCharsFunnel()));
+      byte[] bytes = {1, 2, 3, 4, 5};
+      assertEquals(
+          strategy.hashBytes(bytes, 1, 3),
+          strategy.hashObject(new byte[] {2, 3, 4}, Funnels.byteArrayFunnel()));
+    }
+  }
+
+  @Test
+  public void testFromId() {
+    for (HashStrategy strategy : STRATEGIES) {
+      assertSame(strategy, HashStrategy.fromId(strategy.id()));
+    }
+  }
+}
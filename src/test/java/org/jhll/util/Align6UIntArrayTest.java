@@ -0,0 +1,90 @@
+package org.jhll.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class Align6UIntArrayTest {
+
+  @Test
+  public void testSameAsAlign8() {
+    for (int length : new int[] {4, 8, 12, 100, 1024}) {
+      Align6UIntArray array = new Align6UIntArray(length);
+      Align8UIntArray expected = new Align8UIntArray(length, 6);
+      assertEquals(expected.sizeInBytes(), array.sizeInBytes());
+      for (int i = 0; i < 3 * length; ++i) {
+        int index = ThreadLocalRandom.current().nextInt(length);
+        int value = ThreadLocalRandom.current().nextInt(64);
+        if ((i & 1) == 0) {
+          array.set(index, value);
+          expected.set(index, value);
+        } else {
+          assertEquals(
+              expected.getAndSetMaxUnchecked(index, value),
+              array.getAndSetMaxUnchecked(index, value));
+        }
+        assertEquals(expected.get(index), array.get(index));
+      }
+      assertArrayEquals(expected.getWords(false), array.getWords(false));
+      assertArrayEquals(expected.toIntArray(), array.toIntArray());
+      assertArrayEquals(expected.histogram(), array.histogram());
+      assertEquals(expected, array);
+      assertEquals(array, expected);
+      assertEquals(expected.hashCode(), array.hashCode());
+      assertEquals(array, array.clone());
+    }
+    Align6UIntArray array = new Align6UIntArray(8);
+    assertThrows(ArrayStoreException.class, () -> array.set(0, 64));
+    assertThrows(IndexOutOfBoundsException.class, () -> array.get(8));
+    assertThrows(IllegalArgumentException.class, () -> new Align6UIntArray(6));
+  }
+
+  @Test
+  public void testEncodeRange() {
+    int[] values = ThreadLocalRandom.current().ints(100, 0, 64).toArray();
+    Align6UIntArray array = new Align6UIntArray(values.length);
+    array.encodeRange(0, values);
+    assertArrayEquals(values, array.toIntArray());
+    int[] update = {63, 0, 1, 2, 3, 4, 5};
+    array.encodeRange(3, update);
+    System.arraycopy(update, 0, values, 3, update.length);
+    assertArrayEquals(values, array.toIntArray());
+    int[] range = new int[9];
+    array.decodeRange(1, range);
+    for (int i = 0; i < range.length; ++i) {
+      assertEquals(values[1 + i], range[i]);
+    }
+  }
+
+  @Test
+  public void testSetMaxAll() {
+    for (int length : new int[] {4, 8, 12, 1024}) {
+      int[] x = ThreadLocalRandom.current().ints(length, 0, 64).toArray();
+      int[] y = ThreadLocalRandom.current().ints(length, 0, 64).toArray();
+      int[] expected = new int[length];
+      for (int i = 0; i < length; ++i) {
+        expected[i] = Math.max(x[i], y[i]);
+      }
+      Align8UIntArray align8 = new Align8UIntArray(length, 6);
+      align8.encodeRange(0, y);
+      DirectAlign8UIntArray direct =
+          DirectAlign8UIntArray.wrap(ByteBuffer.wrap(align8.getWords(true)), length, 6);
+      Align6UIntArray align6 = new Align6UIntArray(length);
+      align6.encodeRange(0, y);
+      for (UIntArray other : new UIntArray[] {align6, align8, direct}) {
+        Align6UIntArray array = new Align6UIntArray(length);
+        array.encodeRange(0, x);
+        array.setMaxAll(other);
+        assertArrayEquals(expected, array.toIntArray());
+      }
+      align8.encodeRange(0, x);
+      align8.setMaxAll(align6);
+      assertArrayEquals(expected, align8.toIntArray());
+    }
+  }
+}
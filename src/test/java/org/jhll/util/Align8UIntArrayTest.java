@@ -2,10 +2,15 @@ package org.jhll.util;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 
 public class Align8UIntArrayTest {
 
@@ -70,4 +75,84 @@ public class Align8UIntArrayTest {
     assertArrayEquals(randomValues, array.toIntArray());
     assertArrayEquals(randomValues, array.clone().toIntArray());
   }
+
+  @Test
+  public void testGetAndSetMaxUnchecked() {
+    for (int width = 1; width <= 8; ++width) {
+      int[] values = ThreadLocalRandom.current().ints(1000, 0, 1 << width).toArray();
+      Align8UIntArray array = new Align8UIntArray(100, width);
+      Align8UIntArray expected = new Align8UIntArray(100, width);
+      for (int i = 0; i < values.length; ++i) {
+        int index = i % 100;
+        int previous = expected.get(index);
+        if (values[i] > previous) {
+          expected.set(index, values[i]);
+        }
+        assertEquals(previous, array.getAndSetMaxUnchecked(index, values[i]));
+      }
+      assertEquals(expected, array);
+    }
+  }
+
+  @Test
+  public void testSetMaxAll() {
+    for (int width = 1; width <= 8; ++width) {
+      for (int length : new int[] {1, 7, 8, 63, 64, 100, 1024}) {
+        Align8UIntArray a = new Align8UIntArray(length, width);
+        Align8UIntArray b = new Align8UIntArray(length, width);
+        int[] expected = new int[length];
+        for (int i = 0; i < length; ++i) {
+          int x = ThreadLocalRandom.current().nextInt() & Utils.mask32(width);
+          int y = ThreadLocalRandom.current().nextInt() & Utils.mask32(width);
+          if (i % 3 == 0) {
+            y = x;
+          }
+          a.set(i, x);
+          b.set(i, y);
+          expected[i] = Math.max(x, y);
+        }
+        a.setMaxAll(b);
+        assertArrayEquals(expected, a.toIntArray());
+      }
+    }
+  }
+
+  @Test
+  public void testBulk() {
+    for (int width = 1; width <= 8; ++width) {
+      int[] values = ThreadLocalRandom.current().ints(1000, 0, 1 << width).toArray();
+      Align8UIntArray array = new Align8UIntArray(values.length, width);
+      array.encodeRange(0, values);
+      for (int i = 0; i < values.length; ++i) {
+        assertEquals(values[i], array.get(i));
+      }
+      assertArrayEquals(values, array.toIntArray());
+
+      int[] expected = new int[1 << width];
+      for (int v : values) {
+        ++expected[v];
+      }
+      assertArrayEquals(expected, array.histogram());
+      List<Integer> visited = new ArrayList<>();
+      array.forEach(visited::add);
+      assertEquals(Arrays.stream(values).boxed().collect(Collectors.toList()), visited);
+
+      for (int from : new int[] {0, 1, 7, 8, 13, 500}) {
+        for (int n : new int[] {0, 1, 7, 8, 9, 64, 487}) {
+          int[] range = new int[n];
+          array.decodeRange(from, range);
+          assertArrayEquals(Arrays.copyOfRange(values, from, from + n), range);
+
+          int[] update = ThreadLocalRandom.current().ints(n, 0, 1 << width).toArray();
+          array.encodeRange(from, update);
+          System.arraycopy(update, 0, values, from, n);
+          assertArrayEquals(values, array.toIntArray());
+        }
+      }
+      int[] tooWide = {1, 1 << width};
+      assertThrows(ArrayStoreException.class, () -> array.encodeRange(0, tooWide));
+      assertEquals(values[0], array.get(0));
+      assertThrows(IndexOutOfBoundsException.class, () -> array.decodeRange(999, new int[2]));
+    }
+  }
 }
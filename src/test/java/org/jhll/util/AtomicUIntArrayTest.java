@@ -0,0 +1,49 @@
+package org.jhll.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AtomicUIntArrayTest {
+
+  @Test
+  public void testRequiredLongs() {
+    assertEquals(1, AtomicUIntArray.requiredLongs(10, 6));
+    assertEquals(2, AtomicUIntArray.requiredLongs(11, 6));
+    assertEquals(1, AtomicUIntArray.requiredLongs(64, 1));
+    assertEquals(2, AtomicUIntArray.requiredLongs(3, 31));
+  }
+
+  @Test
+  public void testRandom() {
+    for (int width = 1; width <= 31; ++width) {
+      int mask = Utils.mask32(width);
+      int[] randomValues =
+          ThreadLocalRandom.current().ints(1000, 0, Integer.MAX_VALUE).map(v -> v & mask).toArray();
+      AtomicUIntArray array = new AtomicUIntArray(randomValues.length, width);
+      for (int i = 0; i < randomValues.length; ++i) {
+        array.set(i, randomValues[i]);
+      }
+      assertArrayEquals(randomValues, array.toIntArray());
+      array.clear();
+      assertArrayEquals(new int[randomValues.length], array.toIntArray());
+    }
+  }
+
+  @Test
+  public void testSetMax() {
+    AtomicUIntArray array = new AtomicUIntArray(20, 6);
+    assertTrue(array.setMax(10, 7));
+    assertFalse(array.setMax(10, 3));
+    assertFalse(array.setMax(10, 7));
+    assertTrue(array.setMax(10, 63));
+    assertEquals(63, array.get(10));
+    assertEquals(0, array.get(9));
+    assertEquals(0, array.get(11));
+  }
+}
@@ -0,0 +1,119 @@
+package org.jhll.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ChecksumOutputTest {
+
+  private static byte[] expected(byte[] small, byte[] large) {
+    ByteBuffer b = ByteBuffer.allocate(1 + 4 + 8 + small.length + large.length + 1);
+    b.put((byte) 7).putInt(42).putLong(-1L).put(small).put(large);
+    byte[] bytes = b.array();
+    bytes[bytes.length - 1] = Utils.checksum(bytes, 0, bytes.length - 1);
+    return bytes;
+  }
+
+  private static void write(ChecksumOutput out, byte[] small, byte[] large) throws IOException {
+    out.writeByte(7);
+    out.writeInt(42);
+    out.writeLong(-1L);
+    out.write(small, 0, small.length);
+    ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+    direct.put(large).flip();
+    out.write(direct);
+    assertEquals(0, direct.remaining());
+    out.writeChecksum();
+  }
+
+  private static void read(ChecksumInput in, byte[] small, byte[] large) throws IOException {
+    assertEquals(7, in.readByte());
+    assertEquals(42, in.readInt());
+    assertEquals(-1L, in.readLong());
+    byte[] s = new byte[small.length];
+    in.readFully(s, 0, s.length);
+    assertArrayEquals(small, s);
+    ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+    in.readFully(direct);
+    direct.flip();
+    byte[] l = new byte[large.length];
+    direct.get(l);
+    assertArrayEquals(large, l);
+    in.verifyChecksum();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] small = new byte[100];
+    byte[] large = new byte[100000];
+    ThreadLocalRandom.current().nextBytes(small);
+    ThreadLocalRandom.current().nextBytes(large);
+    byte[] expected = expected(small, large);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    write(ChecksumOutput.of(stream), small, large);
+    write(ChecksumOutput.of(stream), small, large);
+    assertArrayEquals(expected, Arrays.copyOf(stream.toByteArray(), expected.length));
+
+    ByteArrayOutputStream channel = new ByteArrayOutputStream();
+    write(ChecksumOutput.of(Channels.newChannel(channel)), small, large);
+    assertArrayEquals(expected, channel.toByteArray());
+
+    ByteBuffer buffer =
+        ByteBuffer.allocateDirect(expected.length + 3).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.position(3);
+    write(ChecksumOutput.of(buffer), small, large);
+    assertEquals(buffer.capacity(), buffer.position());
+    byte[] written = new byte[expected.length];
+    buffer.position(3);
+    buffer.get(written);
+    assertArrayEquals(expected, written);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(stream.toByteArray());
+    read(ChecksumInput.of(in), small, large);
+    read(ChecksumInput.of(in), small, large);
+    assertEquals(0, in.available());
+    read(ChecksumInput.of(Channels.newChannel(new ByteArrayInputStream(expected))), small, large);
+    buffer.position(3);
+    read(ChecksumInput.of(buffer), small, large);
+    assertEquals(buffer.capacity(), buffer.position());
+  }
+
+  @Test
+  public void testCorrupted() throws IOException {
+    byte[] bytes = expected(new byte[10], new byte[10]);
+    bytes[5] ^= 1;
+    ChecksumInput in = ChecksumInput.of(new ByteArrayInputStream(bytes));
+    in.readFully(new byte[bytes.length - 1], 0, bytes.length - 1);
+    try {
+      in.verifyChecksum();
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      ChecksumInput.of(ByteBuffer.wrap(bytes, 0, 3)).readInt();
+      fail();
+    } catch (EOFException e) {
+      // expected
+    }
+    try {
+      ChecksumInput.of(new ByteArrayInputStream(bytes, 0, 3)).readInt();
+      fail();
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+}
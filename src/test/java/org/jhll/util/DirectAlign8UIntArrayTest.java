@@ -0,0 +1,133 @@
+package org.jhll.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class DirectAlign8UIntArrayTest {
+
+  @Test
+  public void testSameAsHeap() {
+    for (int width = 1; width <= 8; ++width) {
+      Align8UIntArray heap = new Align8UIntArray(1000, width);
+      DirectAlign8UIntArray direct =
+          new DirectAlign8UIntArray(1000, width, ByteBufferAllocator.direct());
+      for (int i = 0; i < 3000; ++i) {
+        int index = ThreadLocalRandom.current().nextInt(1000);
+        int value = ThreadLocalRandom.current().nextInt(1 << width);
+        if ((i & 1) == 0) {
+          heap.set(index, value);
+          direct.set(index, value);
+        } else {
+          assertEquals(
+              heap.getAndSetMaxUnchecked(index, value), direct.getAndSetMaxUnchecked(index, value));
+        }
+      }
+      assertArrayEquals(heap.toIntArray(), direct.toIntArray());
+      assertEquals(heap, direct);
+      assertEquals(direct, heap);
+      assertEquals(heap.hashCode(), direct.hashCode());
+      byte[] words = new byte[direct.sizeInBytes()];
+      direct.getWords(words, 0);
+      assertArrayEquals(heap.getWords(false), words);
+    }
+  }
+
+  @Test
+  public void testSetMaxAll() {
+    for (int width = 1; width <= 8; ++width) {
+      int length = 100;
+      ByteBufferAllocator allocator = ByteBufferAllocator.direct();
+      DirectAlign8UIntArray a = new DirectAlign8UIntArray(length, width, allocator);
+      DirectAlign8UIntArray b = new DirectAlign8UIntArray(length, width, allocator);
+      Align8UIntArray c = new Align8UIntArray(length, width);
+      int[] expected = new int[length];
+      for (int i = 0; i < length; ++i) {
+        int x = ThreadLocalRandom.current().nextInt(1 << width);
+        int y = ThreadLocalRandom.current().nextInt(1 << width);
+        int z = ThreadLocalRandom.current().nextInt(1 << width);
+        a.set(i, x);
+        b.set(i, y);
+        c.set(i, z);
+        expected[i] = Math.max(x, Math.max(y, z));
+      }
+      a.setMaxAll(b);
+      a.setMaxAll(c);
+      assertArrayEquals(expected, a.toIntArray());
+      c.setMaxAll(a);
+      assertArrayEquals(expected, c.toIntArray());
+    }
+  }
+
+  @Test
+  public void testWrap() {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    buffer.position(3);
+    DirectAlign8UIntArray array = DirectAlign8UIntArray.wrap(buffer, 10, 5);
+    array.set(7, 31);
+    assertEquals(3, buffer.position());
+    assertEquals(31, buffer.get(3 + 4) & 0x1f);
+    assertThrows(IllegalArgumentException.class, () -> DirectAlign8UIntArray.wrap(buffer, 100, 5));
+  }
+
+  @Test
+  public void testClose() {
+    List<ByteBuffer> freed = new ArrayList<>();
+    ByteBufferAllocator allocator =
+        new ByteBufferAllocator() {
+          @Override
+          public ByteBuffer allocate(int capacity) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+            // allocators may hand out dirty memory
+            for (int i = 0; i < capacity; ++i) {
+              buffer.put(i, (byte) -1);
+            }
+            return buffer;
+          }
+
+          @Override
+          public void free(ByteBuffer buffer) {
+            freed.add(buffer);
+          }
+        };
+    DirectAlign8UIntArray array = new DirectAlign8UIntArray(64, 6, allocator);
+    assertArrayEquals(new int[64], array.toIntArray());
+    array.close();
+    array.close();
+    assertEquals(1, freed.size());
+    assertThrows(IllegalStateException.class, () -> array.get(0));
+    assertThrows(IllegalStateException.class, () -> array.getAndSetMaxUnchecked(0, 1));
+  }
+
+  @Test
+  public void testBulk() {
+    for (int width = 1; width <= 8; ++width) {
+      int[] values = ThreadLocalRandom.current().ints(1000, 0, 1 << width).toArray();
+      Align8UIntArray heap = new Align8UIntArray(values.length, width);
+      heap.encodeRange(0, values);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(heap.sizeInBytes() + 3);
+      buffer.position(3);
+      buffer.put(heap.getWords(false));
+      buffer.position(3);
+      DirectAlign8UIntArray direct = DirectAlign8UIntArray.wrap(buffer, values.length, width);
+      assertArrayEquals(values, direct.toIntArray());
+      assertArrayEquals(heap.histogram(), direct.histogram());
+      for (int from : new int[] {0, 5, 8, 333}) {
+        int[] range = new int[77];
+        direct.decodeRange(from, range);
+        assertArrayEquals(Arrays.copyOfRange(values, from, from + 77), range);
+      }
+      direct.encodeRange(10, new int[] {1, 0, 1});
+      heap.encodeRange(10, new int[] {1, 0, 1});
+      assertEquals(heap, direct);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.jhll.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class HuffmanCodeTest {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Random random = new Random(42);
+    int[] values = new int[100000];
+    long[] frequencies = new long[64];
+    for (int i = 0; i < values.length; ++i) {
+      // geometric, like register values
+      values[i] = Math.min(Long.numberOfTrailingZeros(random.nextLong()), 63);
+      ++frequencies[values[i]];
+    }
+    HuffmanCode code = HuffmanCode.fromFrequencies(frequencies);
+    long bits = code.encodedBits(frequencies);
+    assertTrue(bits < 2.1 * values.length);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ChecksumOutput output = ChecksumOutput.of(out);
+    HuffmanCode.BitWriter writer = new HuffmanCode.BitWriter(output);
+    for (int v : values) {
+      writer.write(code.code(v), code.length(v));
+    }
+    writer.finish();
+    output.writeChecksum();
+    assertEquals((bits + 7) / 8 + 1, out.size());
+
+    int[] lengths = new int[frequencies.length];
+    for (int s = 0; s < lengths.length; ++s) {
+      lengths[s] = code.length(s);
+    }
+    HuffmanCode decoding = HuffmanCode.fromLengths(lengths);
+    ChecksumInput input = ChecksumInput.of(new ByteArrayInputStream(out.toByteArray()));
+    HuffmanCode.BitReader reader = new HuffmanCode.BitReader(input, (bits + 7) / 8);
+    for (int v : values) {
+      assertEquals(v, decoding.decode(reader));
+    }
+    reader.finish();
+    input.verifyChecksum();
+  }
+
+  @Test
+  public void testSingleSymbol() {
+    HuffmanCode code = HuffmanCode.fromFrequencies(new long[] {0, 0, 7});
+    assertEquals(0, code.length(2));
+    assertEquals(0, code.encodedBits(new long[] {0, 0, 7}));
+  }
+
+  @Test
+  public void testIllegalLengths() {
+    assertThrows(
+        IllegalArgumentException.class, () -> HuffmanCode.fromLengths(new int[] {1, 1, 1}));
+    assertThrows(IllegalArgumentException.class, () -> HuffmanCode.fromLengths(new int[] {0, 0}));
+    assertThrows(IllegalArgumentException.class, () -> HuffmanCode.fromFrequencies(new long[2]));
+  }
+}
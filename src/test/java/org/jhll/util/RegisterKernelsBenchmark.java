@@ -0,0 +1,111 @@
+package org.jhll.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against vectorized {@link RegisterKernels} on 2^log2m registers of 6 bits. Needs Java 17+
+ * and the classes of {@code META-INF/versions/17} on the class path, e.g. through the benchmarks
+ * jar; {@code vector*} falls back to the scalar kernels otherwise. Every union starts from a copy
+ * of the same registers so that it writes as much each time. On a single core with AVX-512
+ * ({@code -wi 3 -w 2 -i 5 -r 2}):
+ *
+ * <pre>
+ * Benchmark                                    (log2m)  Mode  Cnt        Score         Error  Units
+ * RegisterKernelsBenchmark.scalarEstimateSums       12  avgt    5     5998.699 ±    3421.907  ns/op
+ * RegisterKernelsBenchmark.scalarEstimateSums       14  avgt    5    21511.762 ±    2397.828  ns/op
+ * RegisterKernelsBenchmark.scalarEstimateSums       16  avgt    5   106176.400 ±   14311.676  ns/op
+ * RegisterKernelsBenchmark.scalarEstimateSums       18  avgt    5   524011.010 ±  111558.915  ns/op
+ * RegisterKernelsBenchmark.scalarEstimateSums       20  avgt    5  2150530.450 ±  320419.001  ns/op
+ * RegisterKernelsBenchmark.scalarSetMaxGroups       12  avgt    5     9404.310 ±    3777.900  ns/op
+ * RegisterKernelsBenchmark.scalarSetMaxGroups       14  avgt    5    41796.057 ±   22098.448  ns/op
+ * RegisterKernelsBenchmark.scalarSetMaxGroups       16  avgt    5   162031.239 ±  114020.050  ns/op
+ * RegisterKernelsBenchmark.scalarSetMaxGroups       18  avgt    5   544751.961 ±  344925.618  ns/op
+ * RegisterKernelsBenchmark.scalarSetMaxGroups       20  avgt    5  2312875.216 ± 1270804.821  ns/op
+ * RegisterKernelsBenchmark.vectorEstimateSums       12  avgt    5     1576.620 ±     401.017  ns/op
+ * RegisterKernelsBenchmark.vectorEstimateSums       14  avgt    5     6724.864 ±    1340.979  ns/op
+ * RegisterKernelsBenchmark.vectorEstimateSums       16  avgt    5    29616.846 ±     944.125  ns/op
+ * RegisterKernelsBenchmark.vectorEstimateSums       18  avgt    5   115236.035 ±   14929.115  ns/op
+ * RegisterKernelsBenchmark.vectorEstimateSums       20  avgt    5   474566.642 ±  113639.091  ns/op
+ * RegisterKernelsBenchmark.vectorSetMaxGroups       12  avgt    5     1346.688 ±     222.052  ns/op
+ * RegisterKernelsBenchmark.vectorSetMaxGroups       14  avgt    5     5179.800 ±     917.750  ns/op
+ * RegisterKernelsBenchmark.vectorSetMaxGroups       16  avgt    5    22079.196 ±    1312.916  ns/op
+ * RegisterKernelsBenchmark.vectorSetMaxGroups       18  avgt    5   143906.430 ±  289572.848  ns/op
+ * RegisterKernelsBenchmark.vectorSetMaxGroups       20  avgt    5   331037.009 ±   34154.490  ns/op
+ * </pre>
+ */
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 2, time = 3)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RegisterKernelsBenchmark {
+
+  private static final int WIDTH = 6;
+
+  @Param({"12", "14", "16", "18", "20"})
+  public int log2m;
+
+  private final RegisterKernels scalar = RegisterKernels.scalar();
+
+  private final RegisterKernels vector = RegisterKernels.get();
+
+  private byte[] x;
+
+  private byte[] y;
+
+  private byte[] union;
+
+  private int[] registers;
+
+  @Setup
+  public void setup() {
+    int m = 1 << log2m;
+    registers = ThreadLocalRandom.current().ints(m, 0, 20).toArray();
+    Align8UIntArray a = new Align8UIntArray(m, WIDTH);
+    a.encodeRange(0, registers);
+    x = a.getWords(true);
+    a.encodeRange(0, ThreadLocalRandom.current().ints(m, 0, 20).toArray());
+    y = a.getWords(true);
+    union = new byte[x.length];
+  }
+
+  @Benchmark
+  public byte[] scalarSetMaxGroups() {
+    System.arraycopy(x, 0, union, 0, x.length);
+    scalar.setMaxGroups(union, y, registers.length >>> 3, WIDTH);
+    return union;
+  }
+
+  @Benchmark
+  public byte[] vectorSetMaxGroups() {
+    System.arraycopy(x, 0, union, 0, x.length);
+    vector.setMaxGroups(union, y, registers.length >>> 3, WIDTH);
+    return union;
+  }
+
+  @Benchmark
+  public double scalarEstimateSums() {
+    return scalar.harmonicSum(registers, registers.length)
+        + scalar.zeroCount(registers, registers.length);
+  }
+
+  @Benchmark
+  public double vectorEstimateSums() {
+    return vector.harmonicSum(registers, registers.length)
+        + vector.zeroCount(registers, registers.length);
+  }
+}
@@ -0,0 +1,80 @@
+package org.jhll.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Checks {@link RegisterKernels#get()}, vectorized when run with the jdk17 profile. */
+public class RegisterKernelsTest {
+
+  private final RegisterKernels kernels = RegisterKernels.get();
+
+  @Test
+  public void testSetMaxGroups() {
+    for (int width = 1; width <= 8; ++width) {
+      for (int groups : new int[] {0, 1, 7, 8, 9, 63, 64, 65, 1000}) {
+        byte[] a = new byte[groups * width];
+        byte[] b = new byte[groups * width];
+        ThreadLocalRandom.current().nextBytes(a);
+        ThreadLocalRandom.current().nextBytes(b);
+        if (groups > 0) {
+          // all of b greater than a, and equal
+          a[0] = 0;
+          b[0] = -1;
+          b[a.length - 1] = a[a.length - 1];
+        }
+        byte[] expected = a.clone();
+        RegisterKernels.scalar().setMaxGroups(expected, b, groups, width);
+        kernels.setMaxGroups(a, b, groups, width);
+        assertArrayEquals("width " + width + ", groups " + groups, expected, a);
+      }
+    }
+  }
+
+  @Test
+  public void testSetMaxGroupsPrefix() {
+    int width = 5;
+    byte[] a = new byte[100 * width];
+    byte[] b = new byte[a.length];
+    ThreadLocalRandom.current().nextBytes(b);
+    kernels.setMaxGroups(a, b, 50, width);
+    for (int i = 0; i < a.length; ++i) {
+      assertEquals(i < 50 * width ? b[i] : 0, a[i]);
+    }
+  }
+
+  @Test
+  public void testEstimateSums() {
+    for (int n : new int[] {0, 1, 15, 16, 17, 512, 1000}) {
+      int[] values = ThreadLocalRandom.current().ints(n, 0, 40).toArray();
+      for (int i = 0; i < n; i += 3) {
+        values[i] = 0;
+      }
+      double x = 0;
+      int zeros = 0;
+      for (int v : values) {
+        x += 1D / (1L << v);
+        zeros += v == 0 ? 1 : 0;
+      }
+      assertEquals(x, kernels.harmonicSum(values, n), 0);
+      assertEquals(x, RegisterKernels.scalar().harmonicSum(values, n), 0);
+      assertEquals(zeros, kernels.zeroCount(values, n));
+      assertEquals(zeros, RegisterKernels.scalar().zeroCount(values, n));
+    }
+  }
+
+  @Test
+  public void testAddToHistogram() {
+    int[] values = ThreadLocalRandom.current().ints(1000, 0, 64).toArray();
+    int[] expected = new int[64];
+    for (int v : values) {
+      ++expected[v];
+    }
+    int[] h = new int[64];
+    kernels.addToHistogram(values, values.length, h);
+    assertArrayEquals(expected, h);
+  }
+}
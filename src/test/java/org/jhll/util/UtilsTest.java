@@ -3,6 +3,7 @@ package org.jhll.util;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 
 public class UtilsTest {
 
@@ -17,4 +18,17 @@ public class UtilsTest {
     assertEquals(0b1111111, Utils.mask32(7));
     assertEquals(0xff, Utils.mask32(8));
   }
+
+  @Test
+  public void testVarint() {
+    byte[] bytes = new byte[10];
+    long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, -1L, Long.MIN_VALUE};
+    for (long value : values) {
+      int end = Utils.writeVarint(bytes, 0, value);
+      assertEquals(Utils.varintSize(value), end);
+      assertEquals(value, Utils.readVarint(bytes, 0));
+      assertEquals(value, Utils.readVarint(bytes, 0, end));
+      assertThrows(IllegalArgumentException.class, () -> Utils.readVarint(bytes, 0, end - 1));
+    }
+  }
 }